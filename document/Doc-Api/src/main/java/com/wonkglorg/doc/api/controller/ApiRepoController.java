@@ -28,11 +28,11 @@ public class ApiRepoController {
 
     @Operation(
             summary = "Gets all existing repos",
-            description = "Returns a list of repos and their properties"
+            description = "Returns a list of repos, their properties and their initialization state"
     )
     @GetMapping("get")
     public ResponseEntity<RestResponse<List<JsonRepo>>> getRepos() {
-        return RestResponse.success(JsonRepo.from(repoService.getProperties())).toResponse();
+        return RestResponse.success(JsonRepo.from(repoService.getProperties(), repoService.getRepositories())).toResponse();
     }
 
 }
@@ -1,10 +1,14 @@
 package com.wonkglorg.doc.api.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.wonkglorg.doc.api.json.JsonFileTree;
 import com.wonkglorg.doc.api.json.JsonResource;
 import com.wonkglorg.doc.api.json.JsonResourceEdit;
+import com.wonkglorg.doc.api.json.JsonResourcePage;
 import com.wonkglorg.doc.api.service.ResourceService;
 import com.wonkglorg.doc.core.exception.client.ClientException;
+import com.wonkglorg.doc.core.index.PathIndex;
 import com.wonkglorg.doc.core.objects.*;
 import com.wonkglorg.doc.core.request.ResourceRequest;
 import com.wonkglorg.doc.core.request.ResourceUpdateRequest;
@@ -13,9 +17,13 @@ import io.swagger.v3.oas.annotations.Parameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -31,9 +39,11 @@ import static com.wonkglorg.doc.core.path.TargetPath.normalizePath;
 public class ApiResourceController {
     private static final Logger log = LoggerFactory.getLogger(ApiResourceController.class);
     private final ResourceService resourceService;
+    private final ObjectMapper objectMapper;
 
-    public ApiResourceController(ResourceService resourceService) {
+    public ApiResourceController(ResourceService resourceService, ObjectMapper objectMapper) {
         this.resourceService = resourceService;
+        this.objectMapper = objectMapper;
     }
 
     /**
@@ -61,17 +71,21 @@ public class ApiResourceController {
             if true returns the data of the resource.
             ### returnLimit
             limits the amount of resources returned.
+            ### ranked
+            if true and a searchTerm longer than 3 characters is given, orders the resources by their relevance (score) and returns highlighted excerpts around the matches as their data instead of the full content. Combine with returnLimit to only get the best matches.
+            ### pageSize
+            not supported, use /get/page to get the resources in pages.
             """)
     @PostMapping("/get")
     public ResponseEntity<RestResponse<Map<String, List<JsonResource>>>> getResources(@RequestBody ResourceRequest request) {
         try {
-            var resources = resourceService.getResources(request);
+            var result = resourceService.queryResources(request);
             Map<String, List<JsonResource>> jsonResources = new HashMap<>();
 
-            for (var resource : resources) {
+            for (var resource : result.result()) {
                 jsonResources.computeIfAbsent(resource.repoId().id(), s -> new ArrayList<>()).add(JsonResource.of(resource));
             }
-            return RestResponse.success(jsonResources).toResponse();
+            return RestResponse.success(result.describeFailures(), jsonResources).toResponse();
 
         } catch (ClientException e) {
             return RestResponse.<Map<String, List<JsonResource>>>error(e.getMessage()).toResponse();
@@ -81,6 +95,35 @@ public class ApiResourceController {
         }
     }
 
+    /**
+     * Gets a single page of resources by the specified request.
+     *
+     * @param request the {@link ResourceRequest} to get resources
+     * @return {@link RestResponse}
+     */
+    @Operation(summary = "Gets a page of resources", description = """
+            ## Returns a single page of resources by the specified request, sorted by their repository and path.
+            
+            Accepts the same fields as /get with the following additions.
+            ### pageSize
+            the amount of resources per page, must be greater than 0.
+            ### cursor
+            the nextCursor of the previous page, if null is given returns the first page.
+            ### ranked
+            not supported, pages are always sorted by their path.
+            """)
+    @PostMapping("/get/page")
+    public ResponseEntity<RestResponse<JsonResourcePage>> getResourcePage(@RequestBody ResourceRequest request) {
+        try {
+            return RestResponse.success(JsonResourcePage.of(resourceService.getResourcePage(request))).toResponse();
+        } catch (ClientException e) {
+            return RestResponse.<JsonResourcePage>error(e.getMessage()).toResponse();
+        } catch (Exception e) {
+            log.error("Error while retrieving resource page", e);
+            return RestResponse.<JsonResourcePage>error(e.getMessage()).toResponse();
+        }
+    }
+
     /**
      * Constructs a file tree out of the given resource request.
      *
@@ -110,31 +153,39 @@ public class ApiResourceController {
     @PostMapping("/get/filetree")
     public ResponseEntity<RestResponse<Map<String, JsonFileTree>>> getFiletree(@RequestBody ResourceRequest request) {
         try {
-            var resources = resourceService.getResources(request);
+            var result = resourceService.queryResources(request);
+
+            Map<RepoId, Map<Path, Resource>> resourcesByRepo = new HashMap<>();
+            for (var resource : result.result()) {
+                resourcesByRepo.computeIfAbsent(resource.repoId(), r -> new HashMap<>()).put(resource.resourcePath(), resource);
+            }
 
+            //build the file trees from the path index of each repo
             Map<String, JsonFileTree> fileTrees = new HashMap<>();
+            for (var entry : resourcesByRepo.entrySet()) {
+                Map<Path, Resource> repoResources = entry.getValue();
+                Deque<JsonFileTree> directories = new ArrayDeque<>();
+                directories.push(fileTrees.computeIfAbsent(entry.getKey().id(), JsonFileTree::new));
 
-            for (var resource : resources) {
-                String repo = resource.repoId().id();
-                String normalizedPath = resource.resourcePath().toString().replace("\\", "/");
-                String[] pathSegments = normalizedPath.split("/");
-
-                //build file tree
-                JsonFileTree current = fileTrees.computeIfAbsent(repo, JsonFileTree::new);
-                for (int i = 0; i < pathSegments.length; i++) {
-                    String pathPart = pathSegments[i];
-
-                    if (i == pathSegments.length - 1 && pathPart.contains(".")) {
-                        // is a file
-                        current.addResource(resource);
-                    } else {
-                        //its a directory
-                        current = current.add(pathPart);
+                resourceService.walkResources(entry.getKey(), repoResources.keySet(), new PathIndex.Visitor() {
+                    @Override
+                    public void enterDirectory(String name) {
+                        directories.push(directories.peek().add(name));
                     }
-                }
+
+                    @Override
+                    public void exitDirectory() {
+                        directories.pop();
+                    }
+
+                    @Override
+                    public void visitResource(Path path) {
+                        directories.peek().addResource(repoResources.get(path));
+                    }
+                });
             }
 
-            return RestResponse.success(fileTrees).toResponse();
+            return RestResponse.success(result.describeFailures(), fileTrees).toResponse();
 
         } catch (
                 ClientException e) {//client exceptions are stuff only returned to the client, and isn't an actual error that needs fixing by the coder
@@ -145,6 +196,194 @@ public class ApiResourceController {
         }
     }
 
+    /**
+     * Streams resources by the specified request as newline delimited json.
+     *
+     * @param request the {@link ResourceRequest} to get resources
+     * @return a stream of {@link JsonResource}, one per line
+     */
+    @Operation(summary = "Streams resources", description = """
+            ## Streams resources by the specified request.
+            
+            Accepts the same request as `/get` but writes every resource as its own json line, reading them in small chunks instead of collecting
+            all of them into a single response first. Use this when requesting the data of many resources.
+            """)
+    @PostMapping(value = "/get/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamResources(@RequestBody ResourceRequest request) {
+        try {
+            resourceService.validateResourceRequest(request);
+        } catch (ClientException e) {
+            return streamError(e.getMessage());
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            try {
+                resourceService.streamResources(request, resource -> {
+                    try {
+                        outputStream.write(objectMapper.writeValueAsBytes(JsonResource.of(resource)));
+                        outputStream.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (Exception e) {
+                //the response is already committed, so the error is reported as the last line
+                log.error("Error while streaming resources", e);
+                outputStream.write(objectMapper.writeValueAsBytes(RestResponse.error(e.getMessage())));
+                outputStream.write('\n');
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Streams the file tree of the specified request.
+     *
+     * @param request the {@link ResourceRequest} to get resources
+     * @return the file trees of each repository, written while they are built
+     */
+    @Operation(summary = "Streams a file tree", description = """
+            ## Streams the file tree of the specified request.
+            
+            Accepts the same request as `/get/filetree` and returns the same trees keyed by repository, without the surrounding response
+            object. Each repository is written as soon as its resources are read.
+            """)
+    @PostMapping(value = "/get/filetree/stream", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamFiletree(@RequestBody ResourceRequest request) {
+        try {
+            resourceService.validateResourceRequest(request);
+        } catch (ClientException e) {
+            return streamError(e.getMessage());
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+            generator.writeStartObject();
+            try {
+                Map<RepoId, Map<Path, Resource>> currentRepo = new HashMap<>();
+                resourceService.streamResources(request, resource -> {
+                    //resources arrive grouped by repository, so a repository can be written once the next one starts
+                    if (!currentRepo.isEmpty() && !currentRepo.containsKey(resource.repoId())) {
+                        writeFileTree(generator, currentRepo);
+                    }
+                    currentRepo.computeIfAbsent(resource.repoId(), r -> new HashMap<>()).put(resource.resourcePath(), resource);
+                });
+                writeFileTree(generator, currentRepo);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (Exception e) {
+                //aborts the response, a partially written tree is not valid json
+                log.error("Error while streaming filetree", e);
+                throw new IOException("Failed to stream filetree", e);
+            }
+            generator.writeEndObject();
+            generator.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Writes the file tree of a single repository and clears it afterwards
+     */
+    private void writeFileTree(JsonGenerator generator, Map<RepoId, Map<Path, Resource>> repoResources) {
+        try {
+            for (var entry : repoResources.entrySet()) {
+                generator.writeFieldName(entry.getKey().id());
+                StreamingFileTreeWriter writer = new StreamingFileTreeWriter(generator, entry.getValue());
+                writer.enterDirectory(null);
+                resourceService.walkResources(entry.getKey(), entry.getValue().keySet(), writer);
+                writer.exitDirectory();
+            }
+            repoResources.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClientException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> streamError(String message) {
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(outputStream -> outputStream.write(objectMapper.writeValueAsBytes(RestResponse.error(message))));
+    }
+
+    /**
+     * Writes a file tree in the same shape as {@link JsonFileTree} while walking the path index
+     */
+    private static class StreamingFileTreeWriter implements PathIndex.Visitor {
+        private enum Section {NONE, RESOURCES, CHILDREN}
+
+        private final JsonGenerator generator;
+        private final Map<Path, Resource> resources;
+        /**
+         * The section currently written for each open directory
+         */
+        private final Deque<Section> sections = new ArrayDeque<>();
+
+        private StreamingFileTreeWriter(JsonGenerator generator, Map<Path, Resource> resources) {
+            this.generator = generator;
+            this.resources = resources;
+        }
+
+        @Override
+        public void enterDirectory(String name) {
+            try {
+                if (name != null) {
+                    startSection(Section.CHILDREN);
+                    generator.writeFieldName(name);
+                }
+                generator.writeStartObject();
+                sections.push(Section.NONE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void exitDirectory() {
+            try {
+                startSection(Section.CHILDREN);
+                generator.writeEndObject();
+                sections.pop();
+                generator.writeEndObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void visitResource(Path path) {
+            try {
+                startSection(Section.RESOURCES);
+                generator.writeObject(JsonResource.of(resources.get(path)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Moves the current directory to the given section, writing empty sections for everything skipped
+         */
+        private void startSection(Section section) throws IOException {
+            Section current = sections.peek();
+            if (current == section) {
+                return;
+            }
+            if (current == Section.NONE) {
+                generator.writeArrayFieldStart("resources");
+            }
+            if (section == Section.CHILDREN) {
+                generator.writeEndArray();
+                generator.writeObjectFieldStart("children");
+            }
+            sections.pop();
+            sections.push(section);
+        }
+    }
+
     /**
      * Adds a resource to the repository.
      *
@@ -315,8 +554,9 @@ public class ApiResourceController {
     @PostMapping("/tag/get")
     public ResponseEntity<RestResponse<Map<String, String>>> getTags(@Parameter(description = "The repoId to remove the tag from or null to remove the tag from all repositories.") @RequestParam(value = "repoId", required = false) String repoId) {
         try {
-            List<Tag> tags = resourceService.getTags(repoId == null ? RepoId.ALL_REPOS : RepoId.of(repoId));
-            return RestResponse.success(tags.stream().collect(Collectors.toMap(tag -> tag.tagId().id(), Tag::tagName))).toResponse();
+            RepoQueryResult<List<Tag>> result = resourceService.queryTags(repoId == null ? RepoId.ALL_REPOS : RepoId.of(repoId));
+            Map<String, String> tags = result.result().stream().collect(Collectors.toMap(tag -> tag.tagId().id(), Tag::tagName, (a, b) -> a));
+            return RestResponse.success(result.describeFailures(), tags).toResponse();
         } catch (ClientException e) {
             return RestResponse.<Map<String, String>>error(e.getMessage()).toResponse();
         } catch (Exception e) {
@@ -333,7 +573,7 @@ public class ApiResourceController {
      * @param userId The userId to remove the tag from or null to remove the tag from all users.
      * @return {@link RestResponse}
      */
-    @Operation(summary = "Sets a resource as being edited", description = "Sets a resource as being edited. Needs to be released manually by the user.")
+    @Operation(summary = "Sets a resource as being edited", description = "Sets a resource as being edited. Released manually by the user or automatically if not renewed within the edit lease timeout.")
     @PostMapping("/editing/set")
     public ResponseEntity<RestResponse<Void>> setEditing(@RequestParam("repoId") String repoId,
                                                          @RequestParam("path") String path,
@@ -350,6 +590,30 @@ public class ApiResourceController {
         }
     }
 
+    /**
+     * Renews the edit lock of a user on a resource.
+     *
+     * @param repoId the repoId of the resource
+     * @param path   the path of the edited resource
+     * @param userId the user editing the resource
+     * @return {@link RestResponse}
+     */
+    @Operation(summary = "Renews the edit lock on a resource", description = "Keeps a resource set as being edited by the user, has to be called periodically while editing.")
+    @PostMapping("/editing/renew")
+    public ResponseEntity<RestResponse<Void>> renewEditing(@RequestParam("repoId") String repoId,
+                                                           @RequestParam("path") String path,
+                                                           @RequestParam("userId") String userId) {
+        try {
+            resourceService.renewCurrentlyEdited(RepoId.of(repoId), UserId.of(userId), Path.of(path));
+            return RestResponse.<Void>success("Renewed '%s' as being edited by '%s'".formatted(path, userId), null).toResponse();
+        } catch (ClientException e) {
+            return RestResponse.<Void>error(e.getMessage()).toResponse();
+        } catch (Exception e) {
+            log.error("Error while renewing edited ", e);
+            return RestResponse.<Void>error(e.getMessage()).toResponse();
+        }
+    }
+
     /**
      * Checks if a resource is being edited.
      *
@@ -1,9 +1,13 @@
 package com.wonkglorg.doc.api.json;
 
+import com.wonkglorg.doc.core.FileRepository;
 import com.wonkglorg.doc.core.RepoProperty;
+import com.wonkglorg.doc.core.db.RepositoryDatabase;
+import com.wonkglorg.doc.core.objects.RepoId;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Json representation of a repository
@@ -14,6 +18,31 @@ public class JsonRepo {
     public String dbName;
     public String dbStorage;
     public boolean isReadOnly;
+    /**
+     * The initialization state of the repository, null if it is unknown
+     */
+    public FileRepository.RepoState state;
+    /**
+     * How long loading the caches of the repository took in milliseconds, null if it was not initialized yet
+     */
+    public Long warmupMillis;
+
+    public JsonRepo(RepoProperty property, FileRepository.RepoState state) {
+        this(property);
+        this.state = state;
+    }
+
+    public JsonRepo(RepoProperty property, FileRepository repository) {
+        this(property);
+        if (repository == null) {
+            return;
+        }
+        this.state = repository.getState();
+        RepositoryDatabase database = repository.getDatabase();
+        if (database != null && database.getWarmupDuration() != null) {
+            this.warmupMillis = database.getWarmupDuration().toMillis();
+        }
+    }
 
     public JsonRepo(RepoProperty property) {
         id = property.getId().id();
@@ -31,4 +60,12 @@ public class JsonRepo {
         }
         return repos;
     }
+
+    public static List<JsonRepo> from(List<RepoProperty> properties, Map<RepoId, FileRepository> repositories) {
+        List<JsonRepo> repos = new ArrayList<>();
+        for (RepoProperty prop : properties) {
+            repos.add(new JsonRepo(prop, repositories.get(prop.getId())));
+        }
+        return repos;
+    }
 }
@@ -22,6 +22,7 @@ public class JsonResource{
 	public String lastModifiedAt;
 	public PermissionType permissionType;
 	public String data;
+	public Double score;
 	
 	private JsonResource(Resource resource) {
 		path = resource.resourcePath().toString();
@@ -32,6 +33,7 @@ public class JsonResource{
 		lastModifiedBy = resource.modifiedBy();
 		lastModifiedAt = resource.getModifiedAt();
 		data = resource.data();
+		score = resource.getScore();
 		permissionType = resource.getPermissionType();
 		for(var tag : resource.getResourceTags()){
 			tags.add(tag.id());
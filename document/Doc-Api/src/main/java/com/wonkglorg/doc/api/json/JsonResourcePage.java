@@ -0,0 +1,25 @@
+package com.wonkglorg.doc.api.json;
+
+import com.wonkglorg.doc.core.objects.ResourcePage;
+
+import java.util.List;
+
+/**
+ * Json representation of a page of resources
+ */
+public class JsonResourcePage{
+	public List<JsonResource> resources;
+	/**
+	 * The cursor to request the next page with, null if this is the last page
+	 */
+	public String nextCursor;
+	
+	private JsonResourcePage(ResourcePage page) {
+		resources = JsonResource.of(page.resources());
+		nextCursor = page.nextCursor();
+	}
+	
+	public static JsonResourcePage of(ResourcePage page) {
+		return new JsonResourcePage(page);
+	}
+}
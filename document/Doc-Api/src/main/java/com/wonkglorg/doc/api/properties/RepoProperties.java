@@ -1,9 +1,12 @@
 package com.wonkglorg.doc.api.properties;
 
 import com.wonkglorg.doc.core.RepoProperty;
+import com.wonkglorg.doc.core.db.SqliteProfile;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,9 +20,90 @@ public class RepoProperties{
 	 * List of repositories that are being managed by the application
 	 */
 	private final List<RepoProperty> repositories = new ArrayList<>();
+	/**
+	 * The maximum amount of repositories initialized at the same time
+	 */
+	private int initializationThreads = 4;
+	/**
+	 * The maximum amount of repositories queried at the same time by requests targeting all repositories
+	 */
+	private int queryThreads = 8;
+	/**
+	 * The maximum time a request targeting all repositories waits for their results, repositories not answering in time are left out of
+	 * the result
+	 */
+	private Duration queryTimeout = Duration.ofSeconds(10);
+	/**
+	 * Location of the search index shared by all repositories, searches across all repositories are answered by it instead of querying
+	 * each repository. Null to disable it
+	 */
+	private Path searchIndex = null;
+	/**
+	 * The connection settings of the user database
+	 */
+	private SqliteProfile userDatabase = new SqliteProfile();
+	/**
+	 * The connection settings of the search index, leak detection is disabled by default as indexing a repository holds the writer for
+	 * the whole repository
+	 */
+	private SqliteProfile searchDatabase = createSearchProfile();
+	
+	private static SqliteProfile createSearchProfile() {
+		SqliteProfile profile = new SqliteProfile();
+		profile.setLeakDetectionThreshold(Duration.ZERO);
+		return profile;
+	}
 	
 	public List<RepoProperty> getRepositories() {
 		return repositories;
 	}
+	
+	public int getInitializationThreads() {
+		return initializationThreads;
+	}
+	
+	public void setInitializationThreads(int initializationThreads) {
+		this.initializationThreads = initializationThreads;
+	}
+	
+	public int getQueryThreads() {
+		return queryThreads;
+	}
+	
+	public void setQueryThreads(int queryThreads) {
+		this.queryThreads = queryThreads;
+	}
+	
+	public Duration getQueryTimeout() {
+		return queryTimeout;
+	}
+	
+	public void setQueryTimeout(Duration queryTimeout) {
+		this.queryTimeout = queryTimeout;
+	}
+	
+	public Path getSearchIndex() {
+		return searchIndex;
+	}
+	
+	public void setSearchIndex(Path searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+	
+	public SqliteProfile getUserDatabase() {
+		return userDatabase;
+	}
+	
+	public void setUserDatabase(SqliteProfile userDatabase) {
+		this.userDatabase = userDatabase;
+	}
+	
+	public SqliteProfile getSearchDatabase() {
+		return searchDatabase;
+	}
+	
+	public void setSearchDatabase(SqliteProfile searchDatabase) {
+		this.searchDatabase = searchDatabase;
+	}
 
 }
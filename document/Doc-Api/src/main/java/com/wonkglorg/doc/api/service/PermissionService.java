@@ -5,6 +5,7 @@ import com.wonkglorg.doc.core.exception.client.ClientException;
 import com.wonkglorg.doc.core.exception.client.InvalidGroupException;
 import com.wonkglorg.doc.core.exception.client.InvalidRepoException;
 import com.wonkglorg.doc.core.exception.client.InvalidUserException;
+import com.wonkglorg.doc.core.index.PathIndex;
 import com.wonkglorg.doc.core.interfaces.PermissionCalls;
 import com.wonkglorg.doc.core.objects.GroupId;
 import com.wonkglorg.doc.core.objects.RepoId;
@@ -12,17 +13,15 @@ import com.wonkglorg.doc.core.objects.Resource;
 import com.wonkglorg.doc.core.objects.UserId;
 import com.wonkglorg.doc.core.path.TargetPath;
 import com.wonkglorg.doc.core.permissions.Permission;
+import com.wonkglorg.doc.core.permissions.PermissionEvaluator;
 import com.wonkglorg.doc.core.permissions.PermissionType;
-import com.wonkglorg.doc.core.user.Group;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
 
 import java.nio.file.Path;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 @Component
 public class PermissionService implements PermissionCalls{
@@ -48,21 +47,10 @@ public class PermissionService implements PermissionCalls{
 	public List<Resource> filterResources(RepoId repoId, UserId userId, List<Resource> resources) throws ClientException, CoreException {
 		repoService.validateRepoId(repoId);
 		userService.validateUser(userId);
-		Set<Group> groupsFromUser = userService.getGroupsFromUser(userId);
-		
-		Set<Permission<UserId>> permissions = getPermissionsForUser(repoId, userId);
-		Set<Permission<GroupId>> groupPermissions = new HashSet<>();
-		for(Group group : groupsFromUser){
-			groupPermissions.addAll(getPermissionsForGroup(repoId, group.getId()));
-		}
-		
-		Map<Path, PermissionType> permissionTypeMap = Permission.filterPathsWithPermissions(permissions,
-				groupPermissions,
-				resources.stream().map(Resource::resourcePath).collect(Collectors.toList()));
 		
+		PermissionEvaluator evaluator = repoService.getRepo(repoId).getDatabase().permissionFunctions().getEvaluator(userId);
 		for(Resource resource : resources){
-			PermissionType permission = permissionTypeMap.get(resource.resourcePath());
-			resource.setPermissionType(permission);
+			resource.setPermissionType(evaluator.evaluate(resource.resourcePath()));
 		}
 		
 		return resources;
@@ -172,4 +160,12 @@ public class PermissionService implements PermissionCalls{
 		return repoService.getRepo(repoId).getDatabase().permissionFunctions().getPermissionsForGroup(repoId, groupId);
 	}
 	
+	@Override
+	public Map<Path, PermissionType> getPermissionsForResources(RepoId repoId, UserId userId, PathIndex pathIndex, Set<Path> resources)
+			throws CoreException, ClientException {
+		repoService.validateRepoId(repoId);
+		userService.validateUser(userId);
+		return repoService.getRepo(repoId).getDatabase().permissionFunctions().getPermissionsForResources(repoId, userId, pathIndex, resources);
+	}
+	
 }
@@ -3,20 +3,34 @@ package com.wonkglorg.doc.api.service;
 import com.wonkglorg.doc.api.properties.RepoProperties;
 import com.wonkglorg.doc.core.FileRepository;
 import com.wonkglorg.doc.core.RepoProperty;
+import com.wonkglorg.doc.core.db.SearchDatabase;
 import com.wonkglorg.doc.core.exception.CoreException;
 import com.wonkglorg.doc.core.exception.client.InvalidRepoException;
 import com.wonkglorg.doc.core.exception.client.InvalidUserException;
+import com.wonkglorg.doc.core.exception.client.RepoNotReadyException;
 import com.wonkglorg.doc.core.objects.RepoId;
+import com.wonkglorg.doc.core.objects.RepoQueryResult;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Manages all repositories (ALWAYS LAZY LOAD)
@@ -29,34 +43,186 @@ public class RepoService{
 	/**
 	 * A Map of all loaded repositories
 	 */
-	private final Map<RepoId, FileRepository> repositories = new HashMap<>();
+	private final Map<RepoId, FileRepository> repositories = new ConcurrentHashMap<>();
 	
 	private final RepoProperties properties;
 	private final UserService userService;
+	/**
+	 * Counts down once for every repository that finished initializing (successfully or not)
+	 */
+	private CountDownLatch initializationLatch = new CountDownLatch(0);
+	/**
+	 * Runs the per repository queries of requests targeting all repositories
+	 */
+	private final ExecutorService queryExecutor;
+	/**
+	 * The search index shared by all repositories, null if it is disabled
+	 */
+	private final SearchDatabase searchDatabase;
 	
 	public RepoService(RepoProperties properties, UserService userService) {
 		this.properties = properties;
 		this.userService = userService;
+		this.queryExecutor = Executors.newFixedThreadPool(Math.max(1, properties.getQueryThreads()));
+		this.searchDatabase = properties.getSearchIndex() == null ? null : new SearchDatabase(properties.getSearchIndex(), properties.getSearchDatabase());
+	}
+	
+	/**
+	 * A query run against a single repository
+	 *
+	 * @param <T> the type of the results
+	 */
+	@FunctionalInterface
+	public interface RepoQuery<T>{
+		/**
+		 * Queries the repository
+		 *
+		 * @param repository the repository to query
+		 * @return the results of the repository
+		 */
+		List<T> query(FileRepository repository) throws Exception;
 	}
 	
 	public Map<RepoId, FileRepository> getRepositories() {
 		return repositories;
 	}
 	
+	/**
+	 * Gets all repositories that finished initializing and can serve requests
+	 *
+	 * @return the ready repositories
+	 */
+	public List<FileRepository> getReadyRepositories() {
+		return repositories.values().stream().filter(FileRepository::isReady).toList();
+	}
+	
+	/**
+	 * Registers all repositories and initializes them concurrently in the background, each repository can serve requests as soon as its own
+	 * initialization finished
+	 */
 	@PostConstruct
 	public void initialize() {
 		log.info("Initializing RepoService");
 		repositories.clear();
-		for(RepoProperty repoProperty : properties.getRepositories()){
+		List<RepoProperty> repoProperties = properties.getRepositories();
+		initializationLatch = new CountDownLatch(repoProperties.size());
+		if(repoProperties.isEmpty()){
+			return;
+		}
+		
+		if(searchDatabase != null){
+			try{
+				searchDatabase.initialize();
+			} catch(CoreException e){
+				log.error("Failed to initialize the search index", e);
+			}
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(properties.getInitializationThreads(), repoProperties.size())));
+		for(RepoProperty repoProperty : repoProperties){
 			log.info("Adding Repo '{}'", repoProperty.getId());
 			FileRepository repository = new FileRepository(repoProperty, userService.getUserDatabase());
 			repositories.put(repoProperty.getId(), repository);
+			executor.submit(() -> initializeRepository(repository));
+		}
+		//lets the already submitted tasks finish before the threads are released
+		executor.shutdown();
+	}
+	
+	private void initializeRepository(FileRepository repository) {
+		RepoId repoId = repository.getRepoProperties().getId();
+		try{
+			repository.initialize();
+			if(searchDatabase != null){
+				//registered first so no change gets lost while the repo is being indexed
+				repository.getDatabase().resourceFunctions().addChangeListener(searchDatabase);
+				searchDatabase.reindex(repoId, repository.getDatabase().resourceFunctions());
+			}
+			log.info("Repo '{}' is ready", repoId);
+		} catch(GitAPIException | CoreException | InvalidUserException | RuntimeException e){
+			log.error("Failed to initialize repository '{}'", repoId, e);
+		} finally{
+			initializationLatch.countDown();
+		}
+	}
+	
+	/**
+	 * Runs a query against all ready repositories concurrently and merges their results in repository order. Repositories failing or not
+	 * answering within the configured query timeout are left out and reported in the failures of the result.
+	 *
+	 * @param query the query to run for each repository
+	 * @param <T> the type of the results
+	 * @return the merged results
+	 */
+	public <T> RepoQueryResult<List<T>> queryReadyRepositories(RepoQuery<T> query) {
+		return queryRepositories(getReadyRepositories(), query);
+	}
+	
+	/**
+	 * Runs a query against the given repositories concurrently, see {@link #queryReadyRepositories(RepoQuery)}
+	 *
+	 * @param repositories the repositories to query
+	 * @param query the query to run for each repository
+	 * @param <T> the type of the results
+	 * @return the merged results
+	 */
+	public <T> RepoQueryResult<List<T>> queryRepositories(Collection<FileRepository> repositories, RepoQuery<T> query) {
+		Map<RepoId, Future<List<T>>> futures = new LinkedHashMap<>();
+		for(FileRepository repository : repositories){
+			futures.put(repository.getRepoProperties().getId(), queryExecutor.submit(() -> query.query(repository)));
+		}
+		
+		long deadline = System.nanoTime() + properties.getQueryTimeout().toNanos();
+		List<T> results = new ArrayList<>();
+		Map<RepoId, String> failures = new LinkedHashMap<>();
+		for(var entry : futures.entrySet()){
+			RepoId repoId = entry.getKey();
+			Future<List<T>> future = entry.getValue();
 			try{
-				repository.initialize();
-			} catch(GitAPIException | CoreException | InvalidUserException e){
-				log.error("Failed to initialize repository '{}'", repoProperty.getId(), e);
+				results.addAll(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+			} catch(TimeoutException e){
+				future.cancel(true);
+				log.warn("Query of repo '{}' timed out", repoId);
+				failures.put(repoId, "timed out");
+			} catch(ExecutionException e){
+				log.warn("Query of repo '{}' failed", repoId, e.getCause());
+				failures.put(repoId, e.getCause().getMessage());
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				future.cancel(true);
+				failures.put(repoId, "interrupted");
 			}
 		}
+		return new RepoQueryResult<>(results, failures);
+	}
+	
+	/**
+	 * Stops the running repository queries and closes the search index
+	 */
+	@PreDestroy
+	public void shutdown() {
+		queryExecutor.shutdownNow();
+		if(searchDatabase != null){
+			searchDatabase.close();
+		}
+	}
+	
+	/**
+	 * @return the search index shared by all repositories, null if it is disabled
+	 */
+	public SearchDatabase getSearchDatabase() {
+		return searchDatabase;
+	}
+	
+	/**
+	 * Waits for all repositories to finish initializing
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if all repositories finished initializing, false if the timeout elapsed first
+	 */
+	public boolean awaitInitialization(long timeout, TimeUnit unit) throws InterruptedException {
+		return initializationLatch.await(timeout, unit);
 	}
 	
 	/**
@@ -64,10 +230,18 @@ public class RepoService{
 	 *
 	 * @param repoId the id of the repository
 	 * @return the repository
+	 * @throws RepoNotReadyException if the repository is still being initialized or failed to initialize
 	 */
 	public FileRepository getRepo(RepoId repoId) throws InvalidRepoException {
 		validateRepoId(repoId);
-		return repositories.get(repoId);
+		FileRepository repository = repositories.get(repoId);
+		switch(repository.getState()) {
+			case LOADING -> throw new RepoNotReadyException("Repo '%s' is not ready yet, it is still being initialized".formatted(repoId));
+			case FAILED -> throw new RepoNotReadyException("Repo '%s' is not available, it failed to initialize".formatted(repoId));
+			default -> {
+				return repository;
+			}
+		}
 	}
 	
 	/**
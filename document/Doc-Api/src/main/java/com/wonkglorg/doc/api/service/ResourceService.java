@@ -2,6 +2,8 @@ package com.wonkglorg.doc.api.service;
 
 import com.wonkglorg.doc.core.FileRepository;
 import com.wonkglorg.doc.core.db.DbHelper;
+import com.wonkglorg.doc.core.db.SearchDatabase;
+import com.wonkglorg.doc.core.db.functions.ResourceFunctions;
 import com.wonkglorg.doc.core.exception.CoreException;
 import com.wonkglorg.doc.core.exception.CoreSqlException;
 import com.wonkglorg.doc.core.exception.ResourceException;
@@ -10,13 +12,19 @@ import com.wonkglorg.doc.core.exception.client.InvalidRepoException;
 import com.wonkglorg.doc.core.exception.client.InvalidResourceException;
 import com.wonkglorg.doc.core.exception.client.InvalidTagException;
 import com.wonkglorg.doc.core.exception.client.InvalidUserException;
+import com.wonkglorg.doc.core.index.PathIndex;
 import com.wonkglorg.doc.core.interfaces.ResourceCalls;
 import com.wonkglorg.doc.core.objects.RepoId;
+import com.wonkglorg.doc.core.objects.RepoQueryResult;
 import com.wonkglorg.doc.core.objects.Resource;
+import com.wonkglorg.doc.core.objects.ResourcePage;
 import com.wonkglorg.doc.core.objects.Tag;
 import com.wonkglorg.doc.core.objects.TagId;
 import com.wonkglorg.doc.core.objects.UserId;
+import com.wonkglorg.doc.core.permissions.PermissionEvaluator;
+import com.wonkglorg.doc.core.permissions.PermissionType;
 import static com.wonkglorg.doc.core.path.TargetPath.normalizePath;
+import com.wonkglorg.doc.core.request.ResourceCursor;
 import com.wonkglorg.doc.core.request.ResourceRequest;
 import com.wonkglorg.doc.core.request.ResourceUpdateRequest;
 import org.slf4j.Logger;
@@ -30,7 +38,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Component
 @Service
@@ -48,31 +62,214 @@ public class ResourceService implements ResourceCalls{
 	}
 	
 	/**
-	 * Gets a repository by its id
+	 * Gets the resources matching the request
 	 *
 	 * @param request the request
-	 * @return the repository
+	 * @return the resources
 	 */
 	public List<Resource> getResources(ResourceRequest request) throws CoreException, ClientException {
-		if(request.repoId().isAllRepos()){ //gets resources from all repos
-			List<Resource> allResources = new ArrayList<>();
-			for(var repo : repoService.getRepositories().values()){
-				request.repoId(repo.getRepoProperties().getId());
-				try{
-					List<Resource> resourcesFromRepo = getResourcesFromRepo(repo.getRepoProperties().getId(), request);
-					
-					if(resourcesFromRepo != null && !resourcesFromRepo.isEmpty()){
-						allResources.addAll(resourcesFromRepo);
-					}
-					
-				} catch(InvalidUserException e){
-					//ignore for cases where a user is not in a specify repo
-				}
-				
+		return queryResources(request).result();
+	}
+	
+	/**
+	 * Gets the resources matching the request. Requests targeting all repos query them concurrently, each with its own copy of the request,
+	 * repos failing or not answering in time are reported in the result instead of failing the whole request.
+	 *
+	 * @param request the request
+	 * @return the resources and the repos missing from them
+	 */
+	public RepoQueryResult<List<Resource>> queryResources(ResourceRequest request) throws CoreException, ClientException {
+		//the result has no room for the cursor of the next page, without it the following pages could not be requested
+		if(request.getPageSize() > 0){
+			throw new ClientException("Paged requests have to use /get/page to receive the cursor of the next page");
+		}
+		if(!request.repoId().isAllRepos()){
+			return RepoQueryResult.complete(getResourcesFromRepo(request.repoId(), request));
+		}
+		
+		SearchDatabase searchDatabase = repoService.getSearchDatabase();
+		boolean useIndex = searchDatabase != null && request.getSearchTerm() != null && request.getSearchTerm().length() > ResourceFunctions.SHORT_TERM_LENGTH;
+		//repos the index has not fully indexed yet (or lost a change of) are queried directly so none of their resources are left out
+		List<FileRepository> indexedRepos = new ArrayList<>();
+		List<FileRepository> directRepos = new ArrayList<>();
+		for(FileRepository repo : repoService.getReadyRepositories()){
+			if(useIndex && searchDatabase.isIndexed(repo.getRepoProperties().getId())){
+				indexedRepos.add(repo);
+			} else{
+				directRepos.add(repo);
+			}
+		}
+		
+		List<Resource> indexedResources = indexedRepos.isEmpty() ? List.of() : searchAllRepos(searchDatabase, indexedRepos, request);
+		if(directRepos.isEmpty()){
+			return RepoQueryResult.complete(indexedResources);
+		}
+		
+		RepoQueryResult<List<Resource>> directResult = repoService.queryRepositories(directRepos, repo -> {
+			RepoId repoId = repo.getRepoProperties().getId();
+			ResourceRequest repoRequest = request.copy();
+			repoRequest.repoId(repoId);
+			try{
+				return getResourcesFromRepo(repoId, repoRequest);
+			} catch(InvalidUserException e){
+				//ignore for cases where a user is not in a specify repo
+				return List.of();
+			}
+		});
+		List<Resource> resources = new ArrayList<>(indexedResources);
+		resources.addAll(directResult.result());
+		if(!request.isRanked()){
+			return new RepoQueryResult<>(resources, directResult.failures());
+		}
+		
+		//every repo returned its own top results, only the overall best ones are kept
+		List<Resource> ranked = resources.stream()
+									  .sorted(Comparator.comparing(Resource::getScore, Comparator.nullsLast(Comparator.reverseOrder())))
+									  .limit(request.getReturnLimit())
+									  .collect(Collectors.toList());
+		return new RepoQueryResult<>(ranked, directResult.failures());
+	}
+	
+	/**
+	 * Searches the given repos in a single ranked query on the shared search index, the path and tag filters of each repo as well as the
+	 * user permissions are applied to the matches afterwards
+	 *
+	 * @param searchDatabase the shared search index
+	 * @param indexedRepos the repos fully indexed by the search index, matches of any other repo are ignored
+	 * @param request the request
+	 * @return the resources sorted by their relevance
+	 */
+	private List<Resource> searchAllRepos(SearchDatabase searchDatabase, List<FileRepository> indexedRepos, ResourceRequest request)
+			throws CoreException, ClientException {
+		validateResourceRequest(request);
+		Map<RepoId, FileRepository> repositories = new HashMap<>();
+		for(FileRepository repo : indexedRepos){
+			repositories.put(repo.getRepoProperties().getId(), repo);
+		}
+		
+		Map<RepoId, Map<Path, Resource>> candidates = new HashMap<>();
+		Map<RepoId, List<Resource>> resourcesByRepo = new HashMap<>();
+		List<Resource> resources = new ArrayList<>();
+		searchDatabase.search(request, hit -> {
+			FileRepository repo = repositories.get(hit.repoId());
+			if(repo == null){
+				return true;
+			}
+			Resource resource = candidates.computeIfAbsent(hit.repoId(), id -> repo.getDatabase().resourceFunctions().findCandidates(request))
+										  .get(hit.path());
+			if(resource != null){
+				Resource match = resource.copy().setData(hit.content()).setScore(hit.score());
+				resources.add(match);
+				resourcesByRepo.computeIfAbsent(hit.repoId(), id -> new ArrayList<>()).add(match);
+			}
+			return resources.size() < request.getReturnLimit();
+		});
+		
+		for(var entry : resourcesByRepo.entrySet()){
+			applyPermissions(entry.getKey(), repositories.get(entry.getKey()).getDatabase().resourceFunctions(), request, entry.getValue());
+		}
+		return resources;
+	}
+	
+	/**
+	 * Validates the repository and user of a request
+	 *
+	 * @param request the request
+	 * @throws ClientException if the repository does not exist or is not ready, or the user does not exist
+	 */
+	public void validateResourceRequest(ResourceRequest request) throws ClientException {
+		if(!request.repoId().isAllRepos()){
+			repoService.getRepo(request.repoId());
+		}
+		if(!request.userId().isAllUsers()){
+			userService.validateUser(request.userId());
+		}
+	}
+	
+	/**
+	 * Passes the resources matching the request to the consumer one at a time, repository by repository, without collecting them first
+	 *
+	 * @param request the request
+	 * @param consumer the consumer receiving the resources, with their permission set if the request is limited to a user
+	 * @throws ClientException if the repo or user of the request are invalid
+	 * @throws CoreException if the resources could not be retrieved
+	 */
+	public void streamResources(ResourceRequest request, Consumer<Resource> consumer) throws CoreException, ClientException {
+		validateResourceRequest(request);
+		List<FileRepository> repositories;
+		if(request.repoId().isAllRepos()){
+			repositories = repoService.getReadyRepositories();
+		} else {
+			repositories = List.of(repoService.getRepo(request.repoId()));
+		}
+		
+		for(FileRepository repo : repositories){
+			if(request.userId().isAllUsers()){
+				repo.getDatabase().resourceFunctions().streamResources(request, consumer);
+				continue;
 			}
-			return allResources;
+			
+			PermissionEvaluator evaluator = repo.getDatabase().permissionFunctions().getEvaluator(request.userId());
+			repo.getDatabase().resourceFunctions().streamResources(request, resource -> {
+				resource.setPermissionType(evaluator.evaluate(resource.resourcePath()));
+				consumer.accept(resource);
+			});
 		}
-		return getResourcesFromRepo(request.repoId(), request);
+	}
+	
+	/**
+	 * Gets a single page of the resources matching the request. Resources are sorted by their repo id and path, the cursor of the request
+	 * marks the last resource of the previous page so pages stay stable while resources are added or removed.
+	 *
+	 * @param request the request, its page size must be greater than 0
+	 * @return the page of resources
+	 * @throws ClientException if the repo, user or cursor of the request are invalid
+	 * @throws CoreException if the resources could not be retrieved
+	 */
+	public ResourcePage getResourcePage(ResourceRequest request) throws CoreException, ClientException {
+		validateResourceRequest(request);
+		if(request.getPageSize() <= 0){
+			throw new ClientException("Page size must be greater than 0");
+		}
+		//pages are sorted by path, a ranked page would neither be ranked nor continue where the previous one ended
+		if(request.isRanked()){
+			throw new ClientException("Ranked searches can not be paged, use the return limit to get the best matches instead");
+		}
+		ResourceCursor cursor = request.getCursor() == null ? null : ResourceCursor.decode(request.getCursor());
+		
+		List<FileRepository> repositories;
+		if(request.repoId().isAllRepos()){
+			repositories = new ArrayList<>(repoService.getReadyRepositories());
+			repositories.sort(Comparator.comparing(repo -> repo.getRepoProperties().getId().id()));
+		} else {
+			repositories = List.of(repoService.getRepo(request.repoId()));
+		}
+		
+		//one more resource than the page size is read to know if another page follows
+		int limit = request.getPageSize() + 1;
+		List<Resource> page = new ArrayList<>();
+		for(FileRepository repo : repositories){
+			RepoId repoId = repo.getRepoProperties().getId();
+			if(cursor != null && cursor.isPassed(repoId)){
+				continue;
+			}
+			
+			ResourceFunctions resourceFunctions = repo.getDatabase().resourceFunctions();
+			String after = cursor == null ? null : cursor.continueAfter(repoId);
+			List<Resource> resources = resourceFunctions.getResourcePage(request, after, limit - page.size());
+			applyPermissions(repoId, resourceFunctions, request, resources);
+			page.addAll(resources);
+			if(page.size() >= limit){
+				break;
+			}
+		}
+		
+		if(page.size() < limit){
+			return new ResourcePage(page, null);
+		}
+		page = page.subList(0, request.getPageSize());
+		Resource last = page.get(page.size() - 1);
+		return new ResourcePage(page, new ResourceCursor(last.repoId(), last.resourcePath().toString()).encode());
 	}
 	
 	/**
@@ -86,14 +283,35 @@ public class ResourceService implements ResourceCalls{
 	 * @throws CoreException
 	 */
 	private List<Resource> getResourcesFromRepo(RepoId repoId, ResourceRequest request) throws ClientException, CoreException {
-		List<Resource> resources = repoService.getRepo(repoId).getDatabase().resourceFunctions().getResources(request);
-		//filter resources by user permissions
-		if(!request.userId().isAllUsers()){
-			resources = permissionService.filterResources(request.repoId(), request.userId(), resources);
-		}
+		ResourceFunctions resourceFunctions = repoService.getRepo(repoId).getDatabase().resourceFunctions();
+		List<Resource> resources = resourceFunctions.getResources(request);
+		applyPermissions(repoId, resourceFunctions, request, resources);
 		return resources;
 	}
 	
+	/**
+	 * Sets the permissions of the requesting user on resources of a repository, resolving whole directories at once where possible
+	 *
+	 * @param repoId the repo id
+	 * @param resourceFunctions the resource functions of the repo
+	 * @param request the request
+	 * @param resources the resources to set the permissions on
+	 */
+	private void applyPermissions(RepoId repoId, ResourceFunctions resourceFunctions, ResourceRequest request, List<Resource> resources)
+			throws CoreException, ClientException {
+		if(request.userId().isAllUsers()){
+			return;
+		}
+		Set<Path> paths = resources.stream().map(Resource::resourcePath).collect(Collectors.toSet());
+		Map<Path, PermissionType> permissions = permissionService.getPermissionsForResources(repoId,
+				request.userId(),
+				resourceFunctions.getPathIndex(),
+				paths);
+		for(Resource resource : resources){
+			resource.setPermissionType(permissions.get(resource.resourcePath()));
+		}
+	}
+	
 	/**
 	 * Checks if a tag exists
 	 *
@@ -138,14 +356,21 @@ public class ResourceService implements ResourceCalls{
 	 * @return the tags
 	 */
 	public List<Tag> getTags(RepoId repoId) throws InvalidRepoException {
-		List<Tag> tags = new ArrayList<>();
+		return queryTags(repoId).result();
+	}
+	
+	/**
+	 * Gets the tags of a repo, tags of all repos are queried concurrently with the repos failing or not answering in time reported in the
+	 * result
+	 *
+	 * @param repoId the repo id or {@link RepoId#ALL_REPOS}
+	 * @return the tags and the repos missing from them
+	 */
+	public RepoQueryResult<List<Tag>> queryTags(RepoId repoId) throws InvalidRepoException {
 		if(repoId.isAllRepos()){
-			for(var repo : repoService.getRepositories().values()){
-				tags.addAll(repo.getDatabase().resourceFunctions().getTags(repoId));
-			}
-			return tags;
+			return repoService.queryReadyRepositories(repo -> repo.getDatabase().resourceFunctions().getTags(repoId));
 		}
-		return repoService.getRepo(repoId).getDatabase().resourceFunctions().getTags(repoId);
+		return RepoQueryResult.complete(repoService.getRepo(repoId).getDatabase().resourceFunctions().getTags(repoId));
 	}
 	
 	/**
@@ -304,6 +529,18 @@ public class ResourceService implements ResourceCalls{
 		return resource;
 	}
 	
+	/**
+	 * Walks the directory structure of the given resources of a repository
+	 *
+	 * @param repoId the repo id
+	 * @param resources the resources to include
+	 * @param visitor the visitor to call
+	 * @throws InvalidRepoException if the repo does not exist
+	 */
+	public void walkResources(RepoId repoId, Set<Path> resources, PathIndex.Visitor visitor) throws InvalidRepoException {
+		repoService.getRepo(repoId).getDatabase().resourceFunctions().walkResources(resources, visitor);
+	}
+	
 	@Override
 	public boolean resourceExists(RepoId repoId, Path path) throws InvalidRepoException {
 		if(!repoService.isValidRepo(repoId)){
@@ -370,14 +607,25 @@ public class ResourceService implements ResourceCalls{
 	@Override
 	public void setCurrentlyEdited(RepoId repoId, UserId userId, Path path) throws ClientException {
 		repoService.validateRepoId(repoId);
+		path = normalizePath(path);
 		validateResource(repoId, path);
 		userService.validateUser(userId);
-		if(isBeingEdited(repoId, path)){
-			throw new ClientException("Resource '%s' in '%s' is already being edited by '%s'".formatted(path, repoId, userId));
+		UserId editingUser = getEditingUser(repoId, path);
+		if(editingUser != null && !editingUser.equals(userId)){
+			throw new ClientException("Resource '%s' in '%s' is already being edited by '%s'".formatted(path, repoId, editingUser));
 		}
 		repoService.getRepo(repoId).getDatabase().resourceFunctions().setCurrentlyEdited(repoId, userId, path);
 	}
 	
+	@Override
+	public void renewCurrentlyEdited(RepoId repoId, UserId userId, Path path) throws ClientException {
+		repoService.validateRepoId(repoId);
+		path = normalizePath(path);
+		validateResource(repoId, path);
+		userService.validateUser(userId);
+		repoService.getRepo(repoId).getDatabase().resourceFunctions().renewCurrentlyEdited(repoId, userId, path);
+	}
+	
 	/**
 	 * Validates a resource
 	 *
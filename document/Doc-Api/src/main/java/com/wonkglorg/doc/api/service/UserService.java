@@ -1,6 +1,9 @@
 package com.wonkglorg.doc.api.service;
 
+import com.wonkglorg.doc.api.properties.RepoProperties;
+import com.wonkglorg.doc.core.FileRepository;
 import com.wonkglorg.doc.core.db.UserDatabase;
+import com.wonkglorg.doc.core.db.functions.PermissionFunctions;
 import com.wonkglorg.doc.core.exception.CoreException;
 import com.wonkglorg.doc.core.exception.CoreSqlException;
 import com.wonkglorg.doc.core.exception.client.ClientException;
@@ -21,16 +24,18 @@ import org.springframework.stereotype.Service;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 @Component
 @Service
 public class UserService implements UserCalls, GroupCalls{
 	
-	private final UserDatabase userDatabase = new UserDatabase(Path.of("users.db"));
+	private final UserDatabase userDatabase;
 	private final RepoService repoService;
 	
-	public UserService(@Lazy RepoService repoService) {
+	public UserService(@Lazy RepoService repoService, RepoProperties properties) {
 		this.repoService = repoService;
+		this.userDatabase = new UserDatabase(Path.of("users.db"), properties.getUserDatabase());
 	}
 	
 	//---- User ----
@@ -55,9 +60,7 @@ public class UserService implements UserCalls, GroupCalls{
 		validateUser(userId);
 		
 		//removes all related permissions from any repo referencing this user
-		for(var repo : repoService.getRepositories().values()){
-			repo.getDatabase().permissionFunctions().cleanUpUser(userId);
-		}
+		cleanUpPermissions(permissions -> permissions.cleanUpUser(userId));
 		
 		return userDatabase.removeUser(userId);
 	}
@@ -123,13 +126,23 @@ public class UserService implements UserCalls, GroupCalls{
 	public boolean removeGroup(GroupId groupId) throws InvalidGroupException {
 		validateGroup(groupId);
 		
-		for(var repo : repoService.getRepositories().values()){
-			repo.getDatabase().permissionFunctions().cleanUpGroup(groupId);
-		}
+		cleanUpPermissions(permissions -> permissions.cleanUpGroup(groupId));
 		
 		return userDatabase.removeGroup(groupId);
 	}
 	
+	/**
+	 * Runs a permission cleanup against every registered repository. Repositories that are not ready apply it once they finished
+	 * initializing, otherwise their permissions would be left behind and become active again once the id is reused.
+	 *
+	 * @param cleanUp the cleanup to run
+	 */
+	private void cleanUpPermissions(Consumer<PermissionFunctions> cleanUp) {
+		for(FileRepository repository : repoService.getRepositories().values()){
+			repository.cleanUpPermissions(cleanUp);
+		}
+	}
+	
 	@Override
 	public List<Group> getGroups() {
 		return userDatabase.getGroups();
@@ -23,6 +23,7 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.Thread.sleep;
 
@@ -52,7 +53,9 @@ public class BaseIntegrationTest {
     }
 
     @PostConstruct
-    public void initialize() {
+    public void initialize() throws InterruptedException {
+        //repositories initialize in the background, tests need them to be ready
+        repoService.awaitInitialization(2, TimeUnit.MINUTES);
         if(!deleteOnExit) return;
         for (RepoId repoId : repoService.getRepositories().keySet()) {
             repositories.put(repoId, repoService.getRepositories().get(repoId));
@@ -4,6 +4,7 @@ import com.wonkglorg.doc.api.service.RepoService;
 import com.wonkglorg.doc.core.objects.RepoId;
 import com.wonkglorg.doc.core.request.ResourceRequest;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +22,7 @@ import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 //todo:jmd check how to properly implement spring tests
 @SpringBootTest(webEnvironment = WebEnvironment.DEFINED_PORT, properties = "server.port=8080")
@@ -43,6 +45,12 @@ class ResourceControllerTest {
     @Autowired
     private TestRestTemplate restTemplate;
 
+    @BeforeEach
+    void awaitRepositories() throws InterruptedException {
+        //repositories initialize in the background, tests need them to be ready
+        repoService.awaitInitialization(2, TimeUnit.MINUTES);
+    }
+
     @Test
     void testGetResources() {
         /*
@@ -2,21 +2,26 @@ package com.wonkglorg.doc.core;
 
 import com.wonkglorg.doc.core.db.RepositoryDatabase;
 import com.wonkglorg.doc.core.db.UserDatabase;
+import com.wonkglorg.doc.core.db.functions.PermissionFunctions;
+import com.wonkglorg.doc.core.db.functions.ResourceFunctions;
 import com.wonkglorg.doc.core.exception.CoreException;
 import com.wonkglorg.doc.core.exception.CoreSqlException;
 import com.wonkglorg.doc.core.exception.client.InvalidTagException;
 import com.wonkglorg.doc.core.exception.client.InvalidUserException;
+import com.wonkglorg.doc.core.git.FileChanges;
 import com.wonkglorg.doc.core.git.GitRepo;
 import static com.wonkglorg.doc.core.git.GitRepo.GitStage.ADDED;
 import static com.wonkglorg.doc.core.git.GitRepo.GitStage.MODIFIED;
 import static com.wonkglorg.doc.core.git.GitRepo.GitStage.UNTRACKED;
 import com.wonkglorg.doc.core.git.UserBranch;
+import com.wonkglorg.doc.core.index.EditLeases;
 import com.wonkglorg.doc.core.objects.Resource;
 import com.wonkglorg.doc.core.objects.TagId;
 import com.wonkglorg.doc.core.objects.UserId;
 import com.wonkglorg.doc.core.path.TargetPath;
 import com.wonkglorg.doc.core.request.ResourceRequest;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +29,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -36,12 +42,36 @@ import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Represents a managed repository
  */
 public class FileRepository implements AutoCloseable{
+	/**
+	 * The initialization state of a repository
+	 */
+	public enum RepoState{
+		/**
+		 * The repository has been registered but is not initialized yet
+		 */
+		LOADING,
+		/**
+		 * The repository is initialized and can serve requests
+		 */
+		READY,
+		/**
+		 * The repository failed to initialize and can not serve requests
+		 */
+		FAILED
+	}
+	
 	private static final Logger log = LoggerFactory.getLogger(FileRepository.class);
+	/**
+	 * Filters the files in a repo that are managed as resources
+	 */
+	private static final Predicate<String> MARKDOWN_FILTER = s -> s.toLowerCase().endsWith(".md");
 	
 	/**
 	 * THe properties of the repository
@@ -57,6 +87,14 @@ public class FileRepository implements AutoCloseable{
 	private RepositoryDatabase dataDB;
 	private UserDatabase userDB;
 	private final ScheduledExecutorService executorService = new ScheduledThreadPoolExecutor(1);
+	/**
+	 * The current initialization state of the repository
+	 */
+	private volatile RepoState state = RepoState.LOADING;
+	/**
+	 * Permission cleanups requested while the repository was not ready, applied once it finished initializing
+	 */
+	private final List<Consumer<PermissionFunctions>> pendingCleanUps = new ArrayList<>();
 	
 	public FileRepository(RepoProperty repoProperty, UserDatabase userDB) {
 		this.repoProperties = repoProperty;
@@ -71,12 +109,67 @@ public class FileRepository implements AutoCloseable{
 		return gitRepo;
 	}
 	
+	public RepoState getState() {
+		return state;
+	}
+	
+	/**
+	 * @return true if the repository finished initializing and can serve requests
+	 */
+	public boolean isReady() {
+		return state == RepoState.READY;
+	}
+	
 	/**
 	 * Initializes the repository by checking for the database file and updating the database
 	 *
 	 * @throws GitAPIException if there is an error with the git repo
 	 */
 	public void initialize() throws GitAPIException, CoreException, InvalidUserException {
+		state = RepoState.LOADING;
+		try{
+			initializeRepo();
+			markReady();
+		} catch(GitAPIException | CoreException | InvalidUserException | RuntimeException e){
+			state = RepoState.FAILED;
+			throw e;
+		}
+	}
+	
+	/**
+	 * Applies the pending permission cleanups and marks the repository as ready, cleanups requested in the meantime are applied as well
+	 */
+	private void markReady() {
+		while(true){
+			List<Consumer<PermissionFunctions>> cleanUps;
+			synchronized(pendingCleanUps){
+				if(pendingCleanUps.isEmpty()){
+					state = RepoState.READY;
+					return;
+				}
+				cleanUps = new ArrayList<>(pendingCleanUps);
+				pendingCleanUps.clear();
+			}
+			cleanUps.forEach(cleanUp -> cleanUp.accept(dataDB.permissionFunctions()));
+		}
+	}
+	
+	/**
+	 * Runs a permission cleanup, if the repository is not ready it is queued and applied once the repository finished initializing
+	 *
+	 * @param cleanUp the cleanup to run
+	 */
+	public void cleanUpPermissions(Consumer<PermissionFunctions> cleanUp) {
+		synchronized(pendingCleanUps){
+			if(state != RepoState.READY){
+				pendingCleanUps.add(cleanUp);
+				return;
+			}
+		}
+		cleanUp.accept(dataDB.permissionFunctions());
+	}
+	
+	private void initializeRepo() throws GitAPIException, CoreException, InvalidUserException {
 		log.info("Looking for repo in: '{}'", repoProperties.getPath());
 		gitRepo = new GitRepo(repoProperties);
 		Optional<Path> file = gitRepo.getSingleFile(s -> s.equalsIgnoreCase(repoProperties.getDbName()), UNTRACKED, MODIFIED, ADDED);
@@ -88,20 +181,141 @@ public class FileRepository implements AutoCloseable{
 		dataDB = new RepositoryDatabase(repoProperties, gitRepo.getDatabaseRepoPath().resolve(repoProperties.getDbName()), this);
 		dataDB.initialize();
 		
-		Set<Path> foundFiles = gitRepo.getFiles(s -> s.toLowerCase().endsWith(".md"), UNTRACKED, MODIFIED, ADDED);
-		
-		checkFileChanges(foundFiles);
+		synchronize();
 		
 		log.info("Scheduling check for changes in '{}'", repoProperties.getId());
 		executorService.scheduleAtFixedRate(() -> {
 			try{
 				log.info("Update task for repo '{}'", repoProperties.getId());
-				checkFileChanges(gitRepo.getFiles(s -> s.toLowerCase().endsWith(".md"), UNTRACKED, MODIFIED, ADDED));
+				synchronize();
 			} catch(GitAPIException | CoreException | InvalidUserException e){
 				log.error("Error while checking for changes", e);
 			}
 		}, 10, 10, TimeUnit.MINUTES);
 		
+		scheduleMaintenance("merge", repoProperties.getFtsMergeInterval(), () -> {
+			try{
+				dataDB.mergeFts();
+			} catch(CoreException e){
+				log.error("Error while merging the search index of '{}'", repoProperties.getId(), e);
+			}
+		});
+		
+		scheduleMaintenance("optimize", repoProperties.getFtsOptimizeInterval(), () -> {
+			try{
+				log.info("Optimizing the search index of '{}'", repoProperties.getId());
+				dataDB.optimizeFts();
+			} catch(CoreException e){
+				log.error("Error while optimizing the search index of '{}'", repoProperties.getId(), e);
+			}
+		});
+
+		if(repoProperties.isCacheSnapshot()){
+			scheduleMaintenance("snapshot", repoProperties.getCacheSnapshotInterval(), () -> {
+				try{
+					dataDB.writeSnapshot();
+				} catch(CoreException e){
+					log.error("Error while writing the cache snapshot of '{}'", repoProperties.getId(), e);
+				}
+			});
+		}
+		
+		long leaseTick = EditLeases.DEFAULT_TICK.toMillis();
+		executorService.scheduleWithFixedDelay(() -> dataDB.resourceFunctions().expireEditLeases(), leaseTick, leaseTick, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Schedules a recurring maintenance task
+	 *
+	 * @param name the name of the task, used for logging
+	 * @param interval the delay between two runs of the task, an interval that is zero or negative disables the task
+	 * @param task the task to run
+	 */
+	private void scheduleMaintenance(String name, Duration interval, Runnable task) {
+		long millis = interval == null ? 0 : interval.toMillis();
+		if(millis <= 0){
+			log.info("Scheduled {} of repo '{}' is disabled", name, repoProperties.getId());
+			return;
+		}
+		executorService.scheduleWithFixedDelay(task, millis, millis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Synchronizes the database with the git repo. If incremental syncing is enabled and the last synchronized commit is still known only the
+	 * files changed since that commit are looked at, otherwise the whole work tree is scanned.
+	 */
+	private void synchronize() throws GitAPIException, CoreException, InvalidUserException {
+		ObjectId lastSyncedCommit = null;
+		if(repoProperties.isIncrementalSync()){
+			String storedCommit = dataDB.getLastSyncedCommit();
+			lastSyncedCommit = storedCommit == null ? null : ObjectId.fromString(storedCommit);
+		}
+		
+		if(gitRepo.commitExists(lastSyncedCommit)){
+			checkChangesSince(lastSyncedCommit);
+		} else {
+			checkFileChanges(gitRepo.getFiles(MARKDOWN_FILTER, UNTRACKED, MODIFIED, ADDED));
+		}
+		
+		ObjectId head = gitRepo.getHeadCommitId();
+		if(head != null){
+			dataDB.setLastSyncedCommit(head.name());
+		}
+	}
+	
+	/**
+	 * Only updates the resources changed in commits after the given one, as well as any uncommitted changes in the work tree
+	 *
+	 * @param lastSyncedCommit the commit the database was last synchronized with
+	 */
+	private void checkChangesSince(ObjectId lastSyncedCommit) throws GitAPIException, CoreException {
+		//pull any changes from the remote
+		gitRepo.pull();
+		
+		FileChanges changes;
+		FileChanges uncommitted;
+		try{
+			changes = gitRepo.getChangedFiles(lastSyncedCommit, gitRepo.getHeadCommitId(), MARKDOWN_FILTER);
+			//files edited in the work tree without being committed, read in a single walk limited to markdown files
+			uncommitted = gitRepo.getUncommittedChanges(MARKDOWN_FILTER);
+		} catch(IOException e){
+			throw new CoreException("Failed to diff changes since commit '%s' in '%s'".formatted(lastSyncedCommit.name(), repoProperties.getId()), e);
+		}
+		
+		Set<Path> changedFiles = new HashSet<>(changes.added());
+		changedFiles.addAll(changes.modified());
+		changedFiles.addAll(uncommitted.added());
+		changedFiles.addAll(uncommitted.modified());
+		
+		Set<Path> removedFiles = new HashSet<>(changes.deleted());
+		removedFiles.addAll(uncommitted.deleted());
+		
+		ResourceFunctions resourceFunctions = dataDB.resourceFunctions();
+		List<Path> newResources = new ArrayList<>();
+		List<Path> matchingResources = new ArrayList<>();
+		Map<Path, Resource> resourceMap = new HashMap<>();
+		for(Path file : changedFiles){
+			if(!Files.exists(gitRepo.getRepoPath().resolve(file))){
+				removedFiles.add(file);
+				continue;
+			}
+			Resource resource = resourceFunctions.getCachedResource(file);
+			if(resource == null){
+				newResources.add(file);
+			} else {
+				matchingResources.add(file);
+				resourceMap.put(file, resource);
+			}
+		}
+		
+		List<Path> deletedResources = removedFiles.stream().filter(file -> resourceFunctions.resourceExists(repoProperties.getId(), file)).toList();
+		
+		log.info("Checking for changes in {} files since commit '{}'", changedFiles.size() + removedFiles.size(), lastSyncedCommit.name());
+		Map<Path, RevCommit> lastCommits = getLastCommits(matchingResources, newResources);
+		int existingFilesChanged = updateMatchingResources(matchingResources, resourceMap, lastCommits);
+		addNewFiles(newResources, lastCommits);
+		deleteOldResources(deletedResources);
+		reportAndCommit(newResources.size(), deletedResources.size(), existingFilesChanged);
 	}
 	
 	private void checkFileChanges(Set<Path> foundFiles) throws CoreException, InvalidUserException {
@@ -128,24 +342,34 @@ public class FileRepository implements AutoCloseable{
 		//pull any changes from the remote
 		gitRepo.pull();
 		
-		int existingFilesChanged = updateMatchingResources(matchingResources, resourceMap);
-		addNewFiles(newResources);
+		Map<Path, RevCommit> lastCommits = getLastCommits(matchingResources, newResources);
+		int existingFilesChanged = updateMatchingResources(matchingResources, resourceMap, lastCommits);
+		addNewFiles(newResources, lastCommits);
 		deleteOldResources(deletedResources);
+		reportAndCommit(newResources.size(), deletedResources.size(), existingFilesChanged);
+	}
+	
+	/**
+	 * Logs a report of the synchronized changes and commits them if there were any
+	 *
+	 * @param added the amount of added resources
+	 * @param deleted the amount of deleted resources
+	 * @param updated the amount of updated resources
+	 */
+	private void reportAndCommit(int added, int deleted, int updated) {
 		log.info("--------Report for repo '{}--------", repoProperties.getId());
-		if(newResources.isEmpty() && deletedResources.isEmpty() && existingFilesChanged == 0){
+		if(added == 0 && deleted == 0 && updated == 0){
 			log.info("No changes detected in repo '{}'", repoProperties.getId());
 			log.info("--------End of report--------");
 			return;
 		} else {
-			log.info("New resources: {}", newResources.size());
-			log.info("Deleted resources: {}", deletedResources.size());
-			log.info("Updated resources: {}", existingFilesChanged);
+			log.info("New resources: {}", added);
+			log.info("Deleted resources: {}", deleted);
+			log.info("Updated resources: {}", updated);
 			log.info("--------End of report--------");
 		}
 		
-		gitRepo.commit("Startup: Updated resources info: New: %s, Deleted: %s, Updated: %s".formatted(newResources.size(),
-				deletedResources.size(),
-				existingFilesChanged));
+		gitRepo.commit("Startup: Updated resources info: New: %s, Deleted: %s, Updated: %s".formatted(added, deleted, updated));
 		gitRepo.push();
 	}
 	
@@ -208,15 +432,29 @@ public class FileRepository implements AutoCloseable{
 		}
 	}
 	
+	/**
+	 * Looks up the last commits of all given files in a single history walk
+	 *
+	 * @param matchingResources the files already known to the database
+	 * @param newFiles the files not yet known to the database
+	 * @return the last commit per file
+	 */
+	private Map<Path, RevCommit> getLastCommits(List<Path> matchingResources, List<Path> newFiles) {
+		Set<Path> files = new HashSet<>(matchingResources);
+		files.addAll(newFiles);
+		return gitRepo.getLastCommitsForFiles(files);
+	}
+	
 	/**
 	 * Adds new files to the database
 	 *
 	 * @param newFiles the files to add
+	 * @param lastCommits the last commit of each file
 	 */
-	private void addNewFiles(List<Path> newFiles) throws CoreSqlException {
+	private void addNewFiles(List<Path> newFiles, Map<Path, RevCommit> lastCommits) throws CoreSqlException {
 		List<Resource> resources = new ArrayList<>();
 		for(Path file : newFiles){
-			RevCommit lastCommitDetailsForFile = gitRepo.getLastCommitDetailsForFile(file.toString());
+			RevCommit lastCommitDetailsForFile = lastCommits.get(file);
 			Resource newResource;
 			String content = readData(gitRepo, file);
 			if(lastCommitDetailsForFile == null){
@@ -241,12 +479,14 @@ public class FileRepository implements AutoCloseable{
 	 * Updates the resources in the database
 	 *
 	 * @param matchingResources the resources to update
+	 * @param lastCommits the last commit of each file
 	 * @return true if the resources have changed
 	 */
-	private int updateMatchingResources(List<Path> matchingResources, Map<Path, Resource> existingResources) throws CoreSqlException {
+	private int updateMatchingResources(List<Path> matchingResources, Map<Path, Resource> existingResources, Map<Path, RevCommit> lastCommits)
+			throws CoreSqlException {
 		List<Resource> resources = new ArrayList<>();
 		for(Path file : matchingResources){
-			RevCommit fileCommit = gitRepo.getLastCommitDetailsForFile(file.toString());
+			RevCommit fileCommit = lastCommits.get(file);
 			if(fileCommit == null){
 				log.warn("Could not find commit for file '{}'", file);
 				
@@ -280,6 +520,16 @@ public class FileRepository implements AutoCloseable{
 		return resources.size();
 	}
 	
+	/**
+	 * Reads the content of a resource from the work tree
+	 *
+	 * @param file the path of the resource
+	 * @return the content of the resource or an empty string if it could not be read
+	 */
+	public String readData(Path file) {
+		return readData(gitRepo, file);
+	}
+	
 	private String readData(GitRepo gitRepo, Path file) {
 		Path repoContextFile = gitRepo.getRepoPath().resolve(file);
 		try{
@@ -1,13 +1,29 @@
 package com.wonkglorg.doc.core;
 
+import com.wonkglorg.doc.core.db.SqliteProfile;
 import com.wonkglorg.doc.core.objects.RepoId;
 
 import java.nio.file.Path;
+import java.time.Duration;
 
 /**
  * Represents a single repository that is being managed by the application
  */
 public class RepoProperty {
+    /**
+     * Where the content of the resources is kept for the search index
+     */
+    public enum ContentStorage {
+        /**
+         * The content is stored in the database next to its search index
+         */
+        DATABASE,
+        /**
+         * Only the search index is stored in the database, the content is read from the work tree when it is requested
+         */
+        WORK_TREE
+    }
+
     /**
      * If no repo is defined uses this index to generate automatic id's
      */
@@ -34,6 +50,51 @@ public class RepoProperty {
      */
     private Path dbStorage = path;
 
+    /**
+     * If the repository should only resync the files changed since the last synchronized commit instead of scanning the whole work tree
+     */
+    private boolean incrementalSync = true;
+
+    /**
+     * How often the FTS segments of the repository get merged a bit at a time, zero disables merging
+     */
+    private Duration ftsMergeInterval = Duration.ofMinutes(10);
+
+    /**
+     * How often the FTS segments of the repository get fully merged into one, zero disables optimizing
+     */
+    private Duration ftsOptimizeInterval = Duration.ofDays(1);
+
+    /**
+     * Where the content of the resources is kept, changing it converts the existing database on the next startup
+     */
+    private ContentStorage contentStorage = ContentStorage.DATABASE;
+
+    /**
+     * The connection settings of the repository database
+     */
+    private SqliteProfile sqlite = new SqliteProfile();
+
+    /**
+     * The maximum amount of queued writes committed together in a single transaction
+     */
+    private int writeBatchSize = 64;
+
+    /**
+     * If the caches of the repository are written to a snapshot file on shutdown and periodically, so a restart can load them from it
+     */
+    private boolean cacheSnapshot = true;
+
+    /**
+     * How often the snapshot of the caches gets rewritten while running, zero only writes it on shutdown
+     */
+    private Duration cacheSnapshotInterval = Duration.ofMinutes(15);
+
+    /**
+     * How long a user keeps editing a resource without renewing it before the resource is released for others
+     */
+    private Duration editLeaseTimeout = Duration.ofMinutes(5);
+
     public RepoId getId() {
         return id;
     }
@@ -74,4 +135,76 @@ public class RepoProperty {
         this.dbStorage = dbStorage;
     }
 
+    public boolean isIncrementalSync() {
+        return incrementalSync;
+    }
+
+    public void setIncrementalSync(boolean incrementalSync) {
+        this.incrementalSync = incrementalSync;
+    }
+
+    public Duration getFtsMergeInterval() {
+        return ftsMergeInterval;
+    }
+
+    public void setFtsMergeInterval(Duration ftsMergeInterval) {
+        this.ftsMergeInterval = ftsMergeInterval;
+    }
+
+    public Duration getFtsOptimizeInterval() {
+        return ftsOptimizeInterval;
+    }
+
+    public void setFtsOptimizeInterval(Duration ftsOptimizeInterval) {
+        this.ftsOptimizeInterval = ftsOptimizeInterval;
+    }
+
+    public ContentStorage getContentStorage() {
+        return contentStorage;
+    }
+
+    public void setContentStorage(ContentStorage contentStorage) {
+        this.contentStorage = contentStorage;
+    }
+
+    public SqliteProfile getSqlite() {
+        return sqlite;
+    }
+
+    public void setSqlite(SqliteProfile sqlite) {
+        this.sqlite = sqlite;
+    }
+
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public boolean isCacheSnapshot() {
+        return cacheSnapshot;
+    }
+
+    public void setCacheSnapshot(boolean cacheSnapshot) {
+        this.cacheSnapshot = cacheSnapshot;
+    }
+
+    public Duration getCacheSnapshotInterval() {
+        return cacheSnapshotInterval;
+    }
+
+    public void setCacheSnapshotInterval(Duration cacheSnapshotInterval) {
+        this.cacheSnapshotInterval = cacheSnapshotInterval;
+    }
+
+    public Duration getEditLeaseTimeout() {
+        return editLeaseTimeout;
+    }
+
+    public void setEditLeaseTimeout(Duration editLeaseTimeout) {
+        this.editLeaseTimeout = editLeaseTimeout;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,213 @@
+package com.wonkglorg.doc.core.db;
+
+import com.wonkglorg.doc.core.objects.DateHelper;
+import com.wonkglorg.doc.core.objects.GroupId;
+import com.wonkglorg.doc.core.objects.Identifyable;
+import com.wonkglorg.doc.core.objects.RepoId;
+import com.wonkglorg.doc.core.objects.Resource;
+import com.wonkglorg.doc.core.objects.Tag;
+import com.wonkglorg.doc.core.objects.TagId;
+import com.wonkglorg.doc.core.objects.UserId;
+import com.wonkglorg.doc.core.path.TargetPath;
+import com.wonkglorg.doc.core.permissions.Permission;
+import com.wonkglorg.doc.core.permissions.PermissionType;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Binary snapshot of the cached resources, tags and permissions of a repository database, so a restart can load them from a single file
+ * instead of rebuilding them from the tables. A snapshot is only valid for the data generation and last synchronized commit it was taken at.
+ *
+ * @param generation the data generation of the database the snapshot was taken at
+ * @param lastSyncedCommit the last synchronized commit when the snapshot was taken, null if the database was never synchronized
+ * @param resources the cached resources
+ * @param tags the cached tags
+ * @param userPermissions the cached user permissions
+ * @param groupPermissions the cached group permissions
+ */
+public record CacheSnapshot(long generation,
+							String lastSyncedCommit,
+							List<Resource> resources,
+							List<Tag> tags,
+							List<Permission<UserId>> userPermissions,
+							List<Permission<GroupId>> groupPermissions){
+	/**
+	 * Identifies a snapshot file
+	 */
+	private static final int MAGIC = 0x44435350;
+	/**
+	 * Incremented whenever the layout changes, snapshots of other versions are ignored
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Checks if the snapshot still matches the database, a snapshot taken before any other write or synchronization would restore outdated
+	 * resources and permissions
+	 *
+	 * @param generation the current data generation of the database
+	 * @param lastSyncedCommit the current last synchronized commit, null if the database was never synchronized
+	 * @return true if the snapshot was taken at the given state
+	 */
+	public boolean isValidFor(long generation, String lastSyncedCommit) {
+		return this.generation == generation && Objects.equals(this.lastSyncedCommit, lastSyncedCommit);
+	}
+
+	/**
+	 * Writes the snapshot, replacing the previous one only once it was fully written
+	 *
+	 * @param file the file to write to
+	 */
+	public void write(Path file) throws IOException {
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))){
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(generation);
+			writeString(out, lastSyncedCommit);
+
+			out.writeInt(resources.size());
+			for(Resource resource : resources){
+				writeString(out, resource.resourcePath().toString());
+				writeString(out, resource.createdAt() == null ? null : DateHelper.fromDateTime(resource.createdAt()));
+				writeString(out, resource.createdBy());
+				writeString(out, resource.modifiedAt() == null ? null : DateHelper.fromDateTime(resource.modifiedAt()));
+				writeString(out, resource.modifiedBy());
+				writeString(out, resource.category());
+				out.writeInt(resource.getResourceTags().size());
+				for(TagId tagId : resource.getResourceTags()){
+					writeString(out, tagId.id());
+				}
+			}
+
+			out.writeInt(tags.size());
+			for(Tag tag : tags){
+				writeString(out, tag.tagId().id());
+				writeString(out, tag.tagName());
+			}
+
+			writePermissions(out, userPermissions);
+			writePermissions(out, groupPermissions);
+		}
+		Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a snapshot by mapping it into memory
+	 *
+	 * @param file the file to read
+	 * @param repoId the repo the snapshot belongs to
+	 * @return the snapshot or null if there is none or it was written in a different format
+	 * @throws IOException if the file could not be read or is corrupted
+	 */
+	public static CacheSnapshot read(Path file, RepoId repoId) throws IOException {
+		if(!Files.isRegularFile(file)){
+			return null;
+		}
+
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION){
+				return null;
+			}
+			long generation = buffer.getLong();
+			String lastSyncedCommit = readString(buffer);
+
+			int resourceCount = buffer.getInt();
+			List<Resource> resources = new ArrayList<>(resourceCount);
+			for(int i = 0; i < resourceCount; i++){
+				Path path = Path.of(readString(buffer));
+				String createdAt = readString(buffer);
+				String createdBy = readString(buffer);
+				String modifiedAt = readString(buffer);
+				String modifiedBy = readString(buffer);
+				String category = readString(buffer);
+				int tagCount = buffer.getInt();
+				Set<TagId> tagIds = new HashSet<>(tagCount);
+				for(int j = 0; j < tagCount; j++){
+					tagIds.add(new TagId(readString(buffer)));
+				}
+				resources.add(new Resource(path,
+						DateHelper.parseDateTime(createdAt),
+						createdBy,
+						DateHelper.parseDateTime(modifiedAt),
+						modifiedBy,
+						repoId,
+						tagIds,
+						category,
+						null));
+			}
+
+			int tagCount = buffer.getInt();
+			List<Tag> tags = new ArrayList<>(tagCount);
+			for(int i = 0; i < tagCount; i++){
+				tags.add(new Tag(new TagId(readString(buffer)), readString(buffer)));
+			}
+
+			List<Permission<UserId>> userPermissions = readPermissions(buffer, repoId, UserId::of);
+			List<Permission<GroupId>> groupPermissions = readPermissions(buffer, repoId, GroupId::of);
+			return new CacheSnapshot(generation, lastSyncedCommit, resources, tags, userPermissions, groupPermissions);
+		} catch(BufferUnderflowException | IllegalArgumentException e){
+			throw new IOException("The cache snapshot '%s' is corrupted".formatted(file), e);
+		}
+	}
+
+	private static void writePermissions(DataOutputStream out, List<? extends Permission<?>> permissions) throws IOException {
+		out.writeInt(permissions.size());
+		for(Permission<?> permission : permissions){
+			writeString(out, permission.getId());
+			writeString(out, permission.getPermission().name());
+			writeString(out, permission.getPath().toString());
+		}
+	}
+
+	private static <T extends Identifyable> List<Permission<T>> readPermissions(ByteBuffer buffer, RepoId repoId, Function<String, T> idFactory) {
+		int count = buffer.getInt();
+		List<Permission<T>> permissions = new ArrayList<>(count);
+		for(int i = 0; i < count; i++){
+			T id = idFactory.apply(readString(buffer));
+			PermissionType type = PermissionType.valueOf(readString(buffer));
+			permissions.add(new Permission<>(id, type, new TargetPath(readString(buffer)), repoId));
+		}
+		return permissions;
+	}
+
+	/**
+	 * Writes a length prefixed utf-8 string, a length of -1 marks null
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if(value == null){
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length < 0){
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
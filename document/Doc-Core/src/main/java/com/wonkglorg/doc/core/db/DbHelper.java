@@ -3,7 +3,11 @@ package com.wonkglorg.doc.core.db;
 import com.wonkglorg.doc.core.exception.client.InvalidPathException;
 import static com.wonkglorg.doc.core.path.TargetPath.normalizePath;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
 /**
  * Helper class for database operations
@@ -105,6 +109,24 @@ public class DbHelper{
 		}
 	}
 	
+	/**
+	 * Hashes the content of a resource, used to detect if its content actually changed
+	 *
+	 * @param content the content to hash
+	 * @return the hex encoded SHA-256 hash of the content or null if the content is null
+	 */
+	public static String hashContent(String content) {
+		if(content == null){
+			return null;
+		}
+		try{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+		} catch(NoSuchAlgorithmException e){
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+	}
+	
 	public static void validateFileType(Path path) throws InvalidPathException {
 		if(!path.toString().endsWith(".md")){
 			throw new InvalidPathException("Path '%s' file type is not allowed, only .md files are allowed".formatted(normalizePath(path.toString())));
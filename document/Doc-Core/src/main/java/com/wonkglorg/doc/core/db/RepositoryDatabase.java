@@ -6,14 +6,18 @@ import com.wonkglorg.doc.core.db.dbs.SqliteDatabase;
 import com.wonkglorg.doc.core.db.functions.DatabaseFunctions;
 import com.wonkglorg.doc.core.db.functions.PermissionFunctions;
 import com.wonkglorg.doc.core.db.functions.ResourceFunctions;
+import com.wonkglorg.doc.core.exception.CoreException;
 import com.wonkglorg.doc.core.exception.CoreSqlException;
 import com.wonkglorg.doc.core.objects.RepoId;
-import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
 
 /**
  * Represents the database object for a defined repository
@@ -22,18 +26,44 @@ import java.nio.file.Path;
 public class RepositoryDatabase extends SqliteDatabase<HikariDataSource>{
 	
 	private static final Logger log = LoggerFactory.getLogger(RepositoryDatabase.class);
+	/**
+	 * The state key the last synchronized commit is stored under
+	 */
+	private static final String LAST_SYNCED_COMMIT = "last_synced_commit";
+	/**
+	 * The amount of pages written per FTS table by a scheduled merge
+	 */
+	private static final int FTS_MERGE_PAGES = 500;
 	private final PermissionFunctions permissionFunctions;
 	private final ResourceFunctions resourceFunctions;
 	private final FileRepository fileRepository;
+	/**
+	 * Serializes all writes to the database, grouping concurrent ones into a single transaction
+	 */
+	private final WriteQueue writeQueue;
+	/**
+	 * How long loading the caches took on the last initialization, null if the database was not initialized yet
+	 */
+	private volatile Duration warmupDuration;
+	/**
+	 * The file the snapshot of the caches is stored in, next to the database file
+	 */
+	private final Path snapshotPath;
 	/**
 	 * The properties of the repository
 	 */
 	private final RepoProperty repoProperties;
 	
 	public RepositoryDatabase(RepoProperty repoProperties, Path openInPath, FileRepository fileRepository) {
-		super(getDataSource(openInPath));
+		//the writer has to be created first, it creates the database file the readers open
+		super(repoProperties.getSqlite().createWriter(openInPath), repoProperties.getSqlite().createReaders(openInPath));
 		this.fileRepository = fileRepository;
 		this.repoProperties = repoProperties;
+		this.snapshotPath = openInPath.resolveSibling(openInPath.getFileName() + ".snapshot");
+		this.writeQueue = new WriteQueue(repoProperties.getId().id(),
+				this::getConnection,
+				repoProperties.getWriteBatchSize(),
+				DatabaseFunctions::incrementDataGeneration);
 		this.resourceFunctions = new ResourceFunctions(this);
 		this.permissionFunctions = new PermissionFunctions(this);
 	}
@@ -42,19 +72,6 @@ public class RepositoryDatabase extends SqliteDatabase<HikariDataSource>{
 		this(repoProperties, repoProperties.getPath().resolve(repoProperties.getDbName()), fileRepository);
 	}
 	
-	/**
-	 * Retrieves the data source for the current sql connection
-	 *
-	 * @param openInPath the path to open the data source in
-	 * @return the created data source
-	 */
-	private static HikariDataSource getDataSource(Path openInPath) {
-		HikariConfig hikariConfig = new HikariConfig();
-		hikariConfig.setLeakDetectionThreshold(1000);
-		hikariConfig.setJdbcUrl(SQLITE.driver() + openInPath.toString());
-		return new HikariDataSource(hikariConfig);
-	}
-	
 	/**
 	 * Initializes the database for the current repo (creating tables, triggers, etc.)
 	 */
@@ -69,8 +86,82 @@ public class RepositoryDatabase extends SqliteDatabase<HikariDataSource>{
 			log.error("Error while initializing Database for repo '{}'", repoProperties.getId(), e);
 		}
 		log.info("Database initialized for repo '{}'", repoProperties.getId());
-		resourceFunctions.initialize();
-		permissionFunctions.initialize();
+		//changes the data generation if anything was removed, so a snapshot still holding those permissions is not restored
+		permissionFunctions.removeOrphanedPermissions();
+		long warmupStart = System.nanoTime();
+		if(!restoreSnapshot()){
+			resourceFunctions.initialize();
+			permissionFunctions.initialize();
+		}
+		warmupDuration = Duration.ofNanos(System.nanoTime() - warmupStart);
+		log.info("Caches of repo '{}' loaded in {} ms", repoProperties.getId(), warmupDuration.toMillis());
+	}
+	
+	/**
+	 * Fills the caches from the snapshot if it matches the current state of the database
+	 *
+	 * @return true if the caches were restored, false if they have to be loaded from the database
+	 */
+	private boolean restoreSnapshot() {
+		if(!repoProperties.isCacheSnapshot()){
+			return false;
+		}
+		
+		try{
+			CacheSnapshot snapshot = CacheSnapshot.read(snapshotPath, getRepoId());
+			if(snapshot == null){
+				return false;
+			}
+			
+			long generation;
+			Connection connection = getReadConnection();
+			try{
+				generation = DatabaseFunctions.getDataGeneration(connection);
+			} finally{
+				connection.close();
+			}
+			if(!snapshot.isValidFor(generation, getLastSyncedCommit())){
+				log.info("Cache snapshot of repo '{}' is outdated", getRepoId());
+				return false;
+			}
+			
+			resourceFunctions.restoreCache(snapshot.resources(), snapshot.tags());
+			permissionFunctions.restoreCache(snapshot.userPermissions(), snapshot.groupPermissions());
+			return true;
+		} catch(IOException | SQLException | CoreSqlException e){
+			log.warn("Failed to read the cache snapshot of repo '{}'", getRepoId(), e);
+			return false;
+		}
+	}
+	
+	/**
+	 * The state of the database a snapshot is taken at
+	 */
+	private record SnapshotState(long generation, String lastSyncedCommit){
+	}
+	
+	/**
+	 * Writes a snapshot of the caches. The caches are copied on the writer thread between two transactions, so the snapshot always matches
+	 * the data generation it is stored with.
+	 */
+	public void writeSnapshot() throws CoreException {
+		if(!repoProperties.isCacheSnapshot()){
+			return;
+		}
+		
+		CacheSnapshot snapshot = writeQueue.execute(connection -> new SnapshotState(DatabaseFunctions.getDataGeneration(connection),
+				DatabaseFunctions.getStateValue(connection, LAST_SYNCED_COMMIT)), state -> new CacheSnapshot(state.generation(),
+				state.lastSyncedCommit(),
+				resourceFunctions.copyCachedResources(),
+				resourceFunctions.copyCachedTags(),
+				permissionFunctions.getCachedUserPermissions(),
+				permissionFunctions.getCachedGroupPermissions()));
+		try{
+			snapshot.write(snapshotPath);
+			log.info("Wrote cache snapshot of repo '{}'", getRepoId());
+		} catch(IOException e){
+			throw new CoreException("Failed to write the cache snapshot of repo '%s'".formatted(getRepoId()), e);
+		}
 	}
 	
 	/**
@@ -80,6 +171,36 @@ public class RepositoryDatabase extends SqliteDatabase<HikariDataSource>{
 		DatabaseFunctions.rebuildFts(this);
 	}
 	
+	/**
+	 * Merges the segments of the FTS tables a bit at a time, see {@link DatabaseFunctions#mergeFts(RepositoryDatabase, int)}
+	 */
+	public void mergeFts() throws CoreSqlException {
+		DatabaseFunctions.mergeFts(this, FTS_MERGE_PAGES);
+	}
+	
+	/**
+	 * Merges all segments of the FTS tables into one, see {@link DatabaseFunctions#optimizeFts(RepositoryDatabase, int)}
+	 */
+	public void optimizeFts() throws CoreSqlException {
+		DatabaseFunctions.optimizeFts(this, FTS_MERGE_PAGES);
+	}
+	
+	/**
+	 * @return the id of the last commit the database was synchronized with or null if it was never synchronized
+	 */
+	public String getLastSyncedCommit() throws CoreSqlException {
+		return DatabaseFunctions.getStateValue(this, LAST_SYNCED_COMMIT);
+	}
+	
+	/**
+	 * Stores the id of the last commit the database was synchronized with
+	 *
+	 * @param commitId the commit id
+	 */
+	public void setLastSyncedCommit(String commitId) throws CoreSqlException {
+		DatabaseFunctions.setStateValue(this, LAST_SYNCED_COMMIT, commitId);
+	}
+	
 	public RepoId getRepoId() {
 		return repoProperties.getId();
 	}
@@ -99,4 +220,29 @@ public class RepositoryDatabase extends SqliteDatabase<HikariDataSource>{
 	public FileRepository getFileRepository() {
 		return fileRepository;
 	}
+	
+	/**
+	 * @return how long loading the caches took on the last initialization, null if the database was not initialized yet
+	 */
+	public Duration getWarmupDuration() {
+		return warmupDuration;
+	}
+	
+	public WriteQueue getWriteQueue() {
+		return writeQueue;
+	}
+	
+	/**
+	 * Commits the remaining queued writes and snapshots the caches before closing the connections
+	 */
+	@Override
+	public void close() {
+		try{
+			writeSnapshot();
+		} catch(CoreException e){
+			log.error("Error while writing the cache snapshot", e);
+		}
+		writeQueue.close();
+		super.close();
+	}
 }
@@ -0,0 +1,330 @@
+package com.wonkglorg.doc.core.db;
+
+import com.wonkglorg.doc.core.db.dbs.SqliteDatabase;
+import com.wonkglorg.doc.core.db.functions.ResourceFunctions;
+import com.wonkglorg.doc.core.exception.CoreSqlException;
+import com.wonkglorg.doc.core.interfaces.ResourceChangeListener;
+import com.wonkglorg.doc.core.objects.RepoId;
+import com.wonkglorg.doc.core.request.ResourceRequest;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * Search index shared by all repositories, fed with the resource changes of each of them. Searches across all repositories are answered
+ * in a single ranked query instead of querying every repository on its own and merging results that were scored independently.
+ * <p>
+ * The changes of all repositories are written through a single write queue, so they are applied in order and never compete for the write
+ * lock. A repository whose change could not be written is reindexed so the index does not drift from the repository.
+ */
+public class SearchDatabase extends SqliteDatabase<HikariDataSource> implements ResourceChangeListener{
+	private static final Logger log = LoggerFactory.getLogger(SearchDatabase.class);
+
+	/**
+	 * A resource matching a search
+	 *
+	 * @param repoId the repo of the resource
+	 * @param path the path of the resource
+	 * @param content the content of the resource, an excerpt around the matches for ranked searches or null if no data was requested
+	 * @param score the relevance of the resource, higher is more relevant
+	 */
+	public record SearchHit(RepoId repoId, Path path, String content, double score){
+	}
+
+	/**
+	 * The maximum amount of changes committed in a single transaction
+	 */
+	private static final int WRITE_BATCH_SIZE = 64;
+	private final WriteQueue writeQueue;
+	/**
+	 * The resources of each indexed repository, used to reindex a repository after one of its changes failed to be written
+	 */
+	private final Map<RepoId, ResourceFunctions> sources = new ConcurrentHashMap<>();
+	/**
+	 * The repositories with a queued reindex
+	 */
+	private final Set<RepoId> pendingReindex = ConcurrentHashMap.newKeySet();
+	/**
+	 * The repositories whose data is fully indexed, a repository is missing while it is indexed the first time and after a change of it
+	 * failed to be written until it is reindexed
+	 */
+	private final Set<RepoId> indexed = ConcurrentHashMap.newKeySet();
+
+	public SearchDatabase(Path path) {
+		this(path, new SqliteProfile());
+	}
+
+	public SearchDatabase(Path path, SqliteProfile profile) {
+		//the writer has to be created first, it creates the database file the readers open
+		super(profile.createWriter(path), profile.createReaders(path));
+		this.writeQueue = new WriteQueue("search-index", this::getConnection, WRITE_BATCH_SIZE);
+	}
+
+	/**
+	 * Creates the tables of the index
+	 */
+	public void initialize() throws CoreSqlException {
+		writeQueue.execute(connection -> {
+			createTables(connection);
+			return null;
+		});
+	}
+
+	private void createTables(Connection connection) throws CoreSqlException {
+		try(Statement statement = connection.createStatement()){
+			statement.execute("""
+					CREATE TABLE IF NOT EXISTS SearchDocuments(
+					    doc_id INTEGER PRIMARY KEY,
+					    repo_id TEXT NOT NULL,
+					    resource_path TEXT NOT NULL,
+					    UNIQUE (repo_id, resource_path)
+					)
+					""");
+
+			//rowids are the doc_id of the document, so rows can be replaced without scanning the index
+			statement.execute("""
+					CREATE VIRTUAL TABLE IF NOT EXISTS SearchData USING fts5(
+					    data,
+					    tokenize='trigram'
+					)
+					""");
+		} catch(SQLException e){
+			throw new CoreSqlException("Error while initializing the search index", e);
+		}
+	}
+
+	/**
+	 * Replaces everything indexed for a repository with its current data
+	 *
+	 * @param repoId the repo to index
+	 * @param resourceFunctions the resource functions of the repo
+	 */
+	public void reindex(RepoId repoId, ResourceFunctions resourceFunctions) throws CoreSqlException {
+		log.info("Indexing repo '{}' in the search index", repoId);
+		sources.put(repoId, resourceFunctions);
+		try{
+			writeQueue.execute(connection -> {
+				replaceRepository(connection, repoId, resourceFunctions);
+				return null;
+			}, result -> indexed.add(repoId));
+		} catch(CoreSqlException e){
+			throw new CoreSqlException("Failed to index repo '%s' in the search index".formatted(repoId), e);
+		}
+	}
+
+	/**
+	 * Replaces the indexed data of a repository in the transaction of the connection
+	 */
+	private void replaceRepository(Connection connection, RepoId repoId, ResourceFunctions resourceFunctions) throws SQLException,
+			CoreSqlException {
+		try(PreparedStatement deleteData = connection.prepareStatement(
+				"DELETE FROM SearchData WHERE rowid IN (SELECT doc_id FROM SearchDocuments WHERE repo_id = ?)");
+			PreparedStatement deleteDocuments = connection.prepareStatement("DELETE FROM SearchDocuments WHERE repo_id = ?")){
+			deleteData.setString(1, repoId.id());
+			deleteData.executeUpdate();
+			deleteDocuments.setString(1, repoId.id());
+			deleteDocuments.executeUpdate();
+		}
+
+		try{
+			resourceFunctions.forEachData((path, data) -> {
+				try{
+					index(connection, repoId, path, data);
+				} catch(SQLException e){
+					throw new IllegalStateException(e);
+				}
+			});
+		} catch(IllegalStateException e){
+			if(e.getCause() instanceof SQLException sqlException){
+				throw sqlException;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Queues a change of a repository, reindexing the repository if it could not be written
+	 *
+	 * @param repoId the repository the change belongs to
+	 * @param description describes the change for the log
+	 * @param write the change
+	 */
+	private void write(RepoId repoId, String description, WriteQueue.Write<?> write) {
+		writeQueue.submit(write).whenComplete((result, error) -> {
+			if(error != null){
+				log.error("Failed to {} of repo '{}' in the search index", description, repoId, error);
+				indexed.remove(repoId);
+				queueReindex(repoId);
+			}
+		});
+	}
+
+	/**
+	 * Queues a reindex of a repository unless one is already queued
+	 */
+	private void queueReindex(RepoId repoId) {
+		ResourceFunctions resourceFunctions = sources.get(repoId);
+		if(resourceFunctions == null || !pendingReindex.add(repoId)){
+			return;
+		}
+		CompletableFuture<Boolean> reindex = writeQueue.submit(connection -> {
+			pendingReindex.remove(repoId);
+			replaceRepository(connection, repoId, resourceFunctions);
+			return null;
+		}, result -> indexed.add(repoId));
+		reindex.whenComplete((result, error) -> {
+			if(error != null){
+				pendingReindex.remove(repoId);
+				log.error("Failed to reindex repo '{}' in the search index", repoId, error);
+			} else {
+				log.info("Reindexed repo '{}' in the search index after a failed change", repoId);
+			}
+		});
+	}
+
+	/**
+	 * @return true if the data of the repository is fully indexed, searches of a repository that is not have to query it directly
+	 */
+	public boolean isIndexed(RepoId repoId) {
+		return indexed.contains(repoId);
+	}
+
+	/**
+	 * Searches the data of all repositories, passing the matches to the consumer from most to least relevant
+	 *
+	 * @param request the request, its search term has to be longer than 3 characters
+	 * @param consumer receives each match, returns false to stop reading further matches
+	 */
+	public void search(ResourceRequest request, Predicate<SearchHit> consumer) throws CoreSqlException {
+		String sqlScript = """
+				SELECT SearchDocuments.repo_id,
+				       SearchDocuments.resource_path,
+				       CASE
+				           WHEN ? IS NOT NULL THEN snippet(SearchData, 0, '<mark>', '</mark>', '...', 64)
+				           WHEN ? IS NOT NULL THEN SearchData.data
+				           END AS content,
+				       -bm25(SearchData) AS score
+				  FROM SearchData
+				  JOIN SearchDocuments ON SearchDocuments.doc_id = SearchData.rowid
+				 WHERE SearchData MATCH ?
+				   AND SearchDocuments.resource_path LIKE ?
+				 ORDER BY score DESC;
+				""";
+		Connection connection = getReadConnection();
+		try(PreparedStatement statement = connection.prepareStatement(sqlScript)){
+			statement.setString(1, request.isRanked() ? "anything" : null);
+			statement.setString(2, request.isWithData() ? "anything" : null);
+			statement.setString(3, request.getSearchTerm());
+			statement.setString(4, DbHelper.convertAntPathToSQLLike(request.getPath()));
+			try(ResultSet resultSet = statement.executeQuery()){
+				while(resultSet.next()){
+					SearchHit hit = new SearchHit(RepoId.of(resultSet.getString("repo_id")),
+							Path.of(resultSet.getString("resource_path")),
+							resultSet.getString("content"),
+							resultSet.getDouble("score"));
+					if(!consumer.test(hit)){
+						break;
+					}
+				}
+			}
+		} catch(SQLException e){
+			throw new CoreSqlException("An unexpected error occured while searching the search index!", e);
+		} finally{
+			closeConnection(connection);
+		}
+	}
+
+	@Override
+	public void resourceDataChanged(RepoId repoId, Path path, String data) {
+		write(repoId, "index resource '%s'".formatted(path), connection -> {
+			index(connection, repoId, path, data);
+			return null;
+		});
+	}
+
+	@Override
+	public void resourceRemoved(RepoId repoId, Path path) {
+		write(repoId, "remove resource '%s'".formatted(path), connection -> {
+			try(PreparedStatement deleteData = connection.prepareStatement(
+					"DELETE FROM SearchData WHERE rowid IN (SELECT doc_id FROM SearchDocuments WHERE repo_id = ? AND resource_path = ?)");
+				PreparedStatement deleteDocument = connection.prepareStatement("DELETE FROM SearchDocuments WHERE repo_id = ? AND resource_path = ?")){
+				deleteData.setString(1, repoId.id());
+				deleteData.setString(2, path.toString());
+				deleteData.executeUpdate();
+				deleteDocument.setString(1, repoId.id());
+				deleteDocument.setString(2, path.toString());
+				return deleteDocument.executeUpdate();
+			}
+		});
+	}
+
+	@Override
+	public void resourceMoved(RepoId repoId, Path oldPath, Path newPath) {
+		write(repoId, "move resource '%s'".formatted(oldPath), connection -> {
+			try(PreparedStatement statement = connection.prepareStatement(
+					"UPDATE SearchDocuments SET resource_path = ? WHERE repo_id = ? AND resource_path = ?")){
+				statement.setString(1, newPath.toString());
+				statement.setString(2, repoId.id());
+				statement.setString(3, oldPath.toString());
+				return statement.executeUpdate();
+			}
+		});
+	}
+
+	/**
+	 * Adds or replaces the data of a resource
+	 */
+	private void index(Connection connection, RepoId repoId, Path path, String data) throws SQLException {
+		long docId;
+		try(PreparedStatement statement = connection.prepareStatement("""
+				INSERT INTO SearchDocuments(repo_id, resource_path) VALUES(?, ?)
+				    ON CONFLICT(repo_id, resource_path) DO UPDATE SET repo_id = excluded.repo_id
+				RETURNING doc_id
+				""")){
+			statement.setString(1, repoId.id());
+			statement.setString(2, path.toString());
+			try(ResultSet resultSet = statement.executeQuery()){
+				resultSet.next();
+				docId = resultSet.getLong("doc_id");
+			}
+		}
+
+		try(PreparedStatement deleteData = connection.prepareStatement("DELETE FROM SearchData WHERE rowid = ?");
+			PreparedStatement insertData = connection.prepareStatement("INSERT INTO SearchData(rowid, data) VALUES(?, ?)")){
+			deleteData.setLong(1, docId);
+			deleteData.executeUpdate();
+			insertData.setLong(1, docId);
+			insertData.setString(2, data);
+			insertData.executeUpdate();
+		}
+	}
+
+	private void closeConnection(Connection connection) {
+		try{
+			connection.close();
+		} catch(SQLException e){
+			log.error("Error while closing connection", e);
+		}
+	}
+
+	/**
+	 * Writes the remaining queued changes before closing the connections
+	 */
+	@Override
+	public void close() {
+		writeQueue.close();
+		super.close();
+	}
+}
@@ -0,0 +1,147 @@
+package com.wonkglorg.doc.core.db;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static com.wonkglorg.doc.core.db.dbs.Database.SQLITE;
+
+/**
+ * Connection settings of a sqlite database. Sqlite only allows a single writer at a time, so writes go through a pool holding a single
+ * connection while reads use a separate pool of read only connections that never wait for the write lock.
+ */
+public class SqliteProfile{
+	/**
+	 * The sqlite open mode flag for read only connections
+	 */
+	private static final String OPEN_READ_ONLY = "1";
+	/**
+	 * The journal mode of the database, WAL lets readers continue while a write is in progress
+	 */
+	private String journalMode = "WAL";
+	/**
+	 * How often sqlite syncs to disk, NORMAL is safe in WAL mode and avoids a sync on every commit
+	 */
+	private String synchronous = "NORMAL";
+	/**
+	 * How long a connection waits for a lock before failing
+	 */
+	private Duration busyTimeout = Duration.ofSeconds(5);
+	/**
+	 * The page cache size per connection in KiB
+	 */
+	private long cacheSize = 16 * 1024;
+	/**
+	 * The amount of bytes of the database file mapped into memory, 0 to disable memory mapping
+	 */
+	private long mmapSize = 256L * 1024 * 1024;
+	/**
+	 * The amount of read only connections
+	 */
+	private int readerPoolSize = 4;
+	/**
+	 * How long a connection can be held before it is reported as a possible leak, 0 to disable leak detection
+	 */
+	private Duration leakDetectionThreshold = Duration.ofSeconds(1);
+
+	/**
+	 * Creates the pool used for writes, holding a single connection
+	 *
+	 * @param path the path of the database file
+	 * @return the created data source
+	 */
+	public HikariDataSource createWriter(Path path) {
+		HikariConfig hikariConfig = createConfig(path);
+		hikariConfig.setPoolName("sqlite-writer-" + path.getFileName());
+		hikariConfig.setMaximumPoolSize(1);
+		hikariConfig.addDataSourceProperty("journal_mode", journalMode);
+		return new HikariDataSource(hikariConfig);
+	}
+
+	/**
+	 * Creates the pool used for reads, has to be created after the writer as read only connections can not create the database file
+	 *
+	 * @param path the path of the database file
+	 * @return the created data source
+	 */
+	public HikariDataSource createReaders(Path path) {
+		HikariConfig hikariConfig = createConfig(path);
+		hikariConfig.setPoolName("sqlite-reader-" + path.getFileName());
+		hikariConfig.setMaximumPoolSize(readerPoolSize);
+		//both have to match, the driver refuses to change the read only flag of an open connection
+		hikariConfig.setReadOnly(true);
+		hikariConfig.addDataSourceProperty("open_mode", OPEN_READ_ONLY);
+		return new HikariDataSource(hikariConfig);
+	}
+
+	private HikariConfig createConfig(Path path) {
+		HikariConfig hikariConfig = new HikariConfig();
+		hikariConfig.setLeakDetectionThreshold(leakDetectionThreshold.toMillis());
+		hikariConfig.setJdbcUrl(SQLITE.driver() + path.toString());
+		//applied by the driver to every connection it opens
+		hikariConfig.addDataSourceProperty("synchronous", synchronous);
+		hikariConfig.addDataSourceProperty("busy_timeout", String.valueOf(busyTimeout.toMillis()));
+		//negative values are interpreted as KiB instead of pages
+		hikariConfig.addDataSourceProperty("cache_size", String.valueOf(-cacheSize));
+		hikariConfig.addDataSourceProperty("mmap_size", String.valueOf(mmapSize));
+		return hikariConfig;
+	}
+
+	public String getJournalMode() {
+		return journalMode;
+	}
+
+	public void setJournalMode(String journalMode) {
+		this.journalMode = journalMode;
+	}
+
+	public String getSynchronous() {
+		return synchronous;
+	}
+
+	public void setSynchronous(String synchronous) {
+		this.synchronous = synchronous;
+	}
+
+	public Duration getBusyTimeout() {
+		return busyTimeout;
+	}
+
+	public void setBusyTimeout(Duration busyTimeout) {
+		this.busyTimeout = busyTimeout;
+	}
+
+	public long getCacheSize() {
+		return cacheSize;
+	}
+
+	public void setCacheSize(long cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	public long getMmapSize() {
+		return mmapSize;
+	}
+
+	public void setMmapSize(long mmapSize) {
+		this.mmapSize = mmapSize;
+	}
+
+	public int getReaderPoolSize() {
+		return readerPoolSize;
+	}
+
+	public void setReaderPoolSize(int readerPoolSize) {
+		this.readerPoolSize = readerPoolSize;
+	}
+
+	public Duration getLeakDetectionThreshold() {
+		return leakDetectionThreshold;
+	}
+
+	public void setLeakDetectionThreshold(Duration leakDetectionThreshold) {
+		this.leakDetectionThreshold = leakDetectionThreshold;
+	}
+}
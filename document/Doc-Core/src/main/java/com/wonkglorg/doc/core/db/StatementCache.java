@@ -0,0 +1,207 @@
+package com.wonkglorg.doc.core.db;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the prepared statements of each pooled connection open, so frequently used sql is only compiled once per connection instead of on
+ * every call. Neither the sqlite driver nor the pool cache statements on their own.
+ * <p>
+ * Statements are prepared on the physical connection behind the pool, the pool closes every statement prepared through its own connection
+ * wrapper once the connection is returned. Cached statements must not be closed by callers and may only be used while the connection
+ * they were prepared on is held.
+ */
+public class StatementCache{
+	private static final Logger log = LoggerFactory.getLogger(StatementCache.class);
+	/**
+	 * The default maximum amount of statements kept per connection
+	 */
+	public static final int DEFAULT_MAX_STATEMENTS = 64;
+
+	/**
+	 * Binds the parameters of a statement
+	 */
+	@FunctionalInterface
+	public interface Binder{
+		/**
+		 * Binds nothing, for statements without parameters
+		 */
+		Binder NONE = statement -> {
+		};
+
+		void bind(PreparedStatement statement) throws SQLException;
+
+		/**
+		 * Binds the given values in order
+		 *
+		 * @param values the values of the parameters
+		 * @return the binder
+		 */
+		static Binder of(Object... values) {
+			return statement -> {
+				for(int i = 0; i < values.length; i++){
+					statement.setObject(i + 1, values[i]);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Maps the current row of a result set
+	 *
+	 * @param <T> the mapped type
+	 */
+	@FunctionalInterface
+	public interface RowMapper<T>{
+		T map(ResultSet resultSet) throws SQLException;
+	}
+
+	private final Map<Connection, Map<String, PreparedStatement>> statements = new ConcurrentHashMap<>();
+	private final int maxStatements;
+
+	public StatementCache() {
+		this(DEFAULT_MAX_STATEMENTS);
+	}
+
+	/**
+	 * @param maxStatements the maximum amount of statements kept per connection, the least recently used one is closed when exceeded
+	 */
+	public StatementCache(int maxStatements) {
+		this.maxStatements = maxStatements;
+	}
+
+	/**
+	 * Gets the cached statement for the sql or prepares it, its parameters are cleared
+	 *
+	 * @param connection the connection the statement is used on
+	 * @param sql the sql of the statement
+	 * @return the statement, must not be closed
+	 */
+	public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+		Connection physical = unwrap(connection);
+		Map<String, PreparedStatement> cached = statements.get(physical);
+		if(cached == null){
+			//a new physical connection means the pool may have retired others, their statements were closed along with them
+			statements.keySet().removeIf(StatementCache::isClosed);
+			cached = statements.computeIfAbsent(physical, c -> createStatementMap());
+		}
+
+		//a connection is only used by one thread at a time, so its statements need no further synchronization
+		PreparedStatement statement = cached.get(sql);
+		if(statement == null || statement.isClosed()){
+			statement = physical.prepareStatement(sql);
+			cached.put(sql, statement);
+		} else {
+			statement.clearParameters();
+		}
+		return statement;
+	}
+
+	/**
+	 * Executes a query with a cached statement
+	 *
+	 * @param connection the connection to use
+	 * @param sql the query
+	 * @param binder binds the parameters of the query
+	 * @param mapper maps each row
+	 * @param <T> the mapped type
+	 * @return the mapped rows
+	 */
+	public <T> List<T> query(Connection connection, String sql, Binder binder, RowMapper<T> mapper) throws SQLException {
+		PreparedStatement statement = prepare(connection, sql);
+		binder.bind(statement);
+		List<T> results = new ArrayList<>();
+		//closing the result set resets the statement, an open one would keep its read transaction alive
+		try(ResultSet resultSet = statement.executeQuery()){
+			while(resultSet.next()){
+				results.add(mapper.map(resultSet));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Executes a query with a cached statement, only mapping its first row
+	 *
+	 * @return the mapped first row or null if there is none
+	 */
+	public <T> T queryFirst(Connection connection, String sql, Binder binder, RowMapper<T> mapper) throws SQLException {
+		PreparedStatement statement = prepare(connection, sql);
+		binder.bind(statement);
+		try(ResultSet resultSet = statement.executeQuery()){
+			return resultSet.next() ? mapper.map(resultSet) : null;
+		}
+	}
+
+	/**
+	 * Executes an insert, update or delete with a cached statement
+	 *
+	 * @return the amount of affected rows
+	 */
+	public int update(Connection connection, String sql, Binder binder) throws SQLException {
+		PreparedStatement statement = prepare(connection, sql);
+		binder.bind(statement);
+		return statement.executeUpdate();
+	}
+
+	/**
+	 * Closes all cached statements, should be called before the pools are closed
+	 */
+	public void clear() {
+		for(Map<String, PreparedStatement> cached : statements.values()){
+			for(PreparedStatement statement : cached.values()){
+				close(statement);
+			}
+		}
+		statements.clear();
+	}
+
+	private Map<String, PreparedStatement> createStatementMap() {
+		return new LinkedHashMap<>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if(size() > maxStatements){
+					close(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets the physical connection behind a pooled connection
+	 */
+	private static Connection unwrap(Connection connection) throws SQLException {
+		if(connection.isWrapperFor(Connection.class)){
+			return connection.unwrap(Connection.class);
+		}
+		return connection;
+	}
+
+	private static boolean isClosed(Connection connection) {
+		try{
+			return connection.isClosed();
+		} catch(SQLException e){
+			return true;
+		}
+	}
+
+	private static void close(PreparedStatement statement) {
+		try{
+			statement.close();
+		} catch(SQLException e){
+			log.error("Error while closing statement", e);
+		}
+	}
+}
@@ -13,7 +13,6 @@ import com.wonkglorg.doc.core.objects.UserId;
 import com.wonkglorg.doc.core.permissions.Role;
 import com.wonkglorg.doc.core.user.Group;
 import com.wonkglorg.doc.core.user.UserProfile;
-import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,8 +48,18 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
      */
     private final Map<GroupId, Group> groupCache = new java.util.concurrent.ConcurrentHashMap<>();
 
+    /**
+     * Incremented whenever group memberships change, used to invalidate caches derived from them
+     */
+    private final java.util.concurrent.atomic.AtomicLong membershipVersion = new java.util.concurrent.atomic.AtomicLong();
+
     public UserDatabase(Path path) {
-        super(getDataSource(path));
+        this(path, new SqliteProfile());
+    }
+
+    public UserDatabase(Path path, SqliteProfile profile) {
+        //the writer has to be created first, it creates the database file the readers open
+        super(profile.createWriter(path), profile.createReaders(path));
 
         Connection connection = getConnection();
 
@@ -156,19 +165,6 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
 
     }
 
-    /**
-     * Retrieves the data source for the current sql connection
-     *
-     * @param openInPath the path to open the data source in
-     * @return the created data source
-     */
-    private static HikariDataSource getDataSource(Path openInPath) {
-        HikariConfig hikariConfig = new HikariConfig();
-        hikariConfig.setLeakDetectionThreshold(1000);
-        hikariConfig.setJdbcUrl(SQLITE.driver() + openInPath.toString());
-        return new HikariDataSource(hikariConfig);
-    }
-
     @Override
     public boolean groupExists(GroupId groupId) {
         return groupCache.containsKey(groupId);
@@ -214,6 +210,7 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
             boolean wasRemoved = statement.executeUpdate() > 0;
             if (wasRemoved) {
                 groupCache.remove(groupId);
+                membershipVersion.incrementAndGet();
             }
             log.info("Group '{}' removed!", groupId);
             return wasRemoved;
@@ -259,7 +256,11 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
     @Override
     public boolean addUserToGroup(GroupId groupId, UserId userId) throws CoreException {
         Connection connection = getConnection();
-        return addUserToGroup(connection, groupId, userId);
+        try {
+            return addUserToGroup(connection, groupId, userId);
+        } finally {
+            closeConnection(connection);
+        }
     }
 
     private boolean addUserToGroup(Connection connection, GroupId groupId, UserId userId) throws CoreException {
@@ -277,6 +278,7 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
             if (userCache.containsKey(userId)) {
                 userCache.get(userId).getGroups().add(groupId);
             }
+            membershipVersion.incrementAndGet();
             log.info("User '{}' added to group '{}'", userId, groupId);
             return true;
         } catch (Exception e) {
@@ -308,6 +310,7 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
             if (userCache.containsKey(userId)) {
                 userCache.get(userId).getGroups().remove(groupId);
             }
+            membershipVersion.incrementAndGet();
             log.info("User '{}' removed from group '{}'", userId, groupId);
 
             return true;
@@ -321,6 +324,13 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
 
     }
 
+    /**
+     * @return the current membership version, changes whenever a user is added to or removed from a group
+     */
+    public long getMembershipVersion() {
+        return membershipVersion.get();
+    }
+
     @Override
     public Set<Group> getGroupsFromUser(UserId userId) {
         Set<GroupId> groupIds = userGroups.get(userId);
@@ -372,8 +382,9 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
                 connection.setAutoCommit(true);
             } catch (SQLException e) {
                 throw new CoreSqlException("Failed to set auto commit", e);
+            } finally {
+                closeConnection(connection);
             }
-            closeConnection(connection);
         }
     }
 
@@ -383,6 +394,7 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
         try (var statement = connection.prepareStatement("DELETE FROM Users WHERE user_id = ?")) {
             statement.setString(1, userId.id());
             userCache.remove(userId);
+            membershipVersion.incrementAndGet();
             return statement.executeUpdate() > 0;
         } catch (Exception e) {
             String errorResponse = "Failed to delete user '%s'".formatted(userId);
@@ -415,16 +427,12 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
     }
 
     private Set<GroupId> loadGroupsFromUser(UserId userId) throws CoreSqlException {
-        Connection connection = this.getConnection();
-        try (var statement = connection.prepareStatement("SELECT group_id FROM UserGroups WHERE user_id = ?")) {
-            statement.setString(1, userId.toString());
-            try (var rs = statement.executeQuery()) {
-                Set<GroupId> groups = new HashSet<>();
-                while (rs.next()) {
-                    groups.add(GroupId.of(rs.getString("group_id")));
-                }
-                return groups;
-            }
+        Connection connection = getReadConnection();
+        try {
+            return new HashSet<>(statementCache.query(connection,
+                    "SELECT group_id FROM UserGroups WHERE user_id = ?",
+                    StatementCache.Binder.of(userId.toString()),
+                    rs -> GroupId.of(rs.getString("group_id"))));
         } catch (Exception e) {
             String errorResponse = "Failed to get groups from user";
             log.error(errorResponse, e);
@@ -497,15 +505,11 @@ public class UserDatabase extends SqliteDatabase<HikariDataSource> implements Us
      * @throws CoreSqlException if the roles could not be loaded
      */
     private Set<Role> loadRolesForUser(Connection connection, UserId userId) throws CoreSqlException {
-        try (var statement = connection.prepareStatement("SELECT role_id FROM UserRoles WHERE user_id = ?")) {
-            statement.setString(1, userId.toString());
-            try (var rs = statement.executeQuery()) {
-                Set<Role> roles = new HashSet<>();
-                while (rs.next()) {
-                    roles.add(Role.valueOf(rs.getString("role_id")));
-                }
-                return roles;
-            }
+        try {
+            return new HashSet<>(statementCache.query(connection,
+                    "SELECT role_id FROM UserRoles WHERE user_id = ?",
+                    StatementCache.Binder.of(userId.toString()),
+                    rs -> Role.valueOf(rs.getString("role_id"))));
         } catch (Exception e) {
             String errorResponse = "Failed to get roles for user";
             log.error(errorResponse, e);
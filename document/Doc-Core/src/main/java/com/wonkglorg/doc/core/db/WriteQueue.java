@@ -0,0 +1,287 @@
+package com.wonkglorg.doc.core.db;
+
+import com.wonkglorg.doc.core.exception.CoreSqlException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Serializes the writes of a database through a single thread. Writes queued while a transaction is in progress are committed together in
+ * the next one, so bursts of small writes share a single commit instead of each waiting for the write lock and syncing on their own. Each
+ * write runs in its own savepoint so a failing write does not affect the others of its group.
+ */
+public class WriteQueue implements AutoCloseable{
+	private static final Logger log = LoggerFactory.getLogger(WriteQueue.class);
+
+	/**
+	 * A write executed by the queue
+	 *
+	 * @param <T> the result of the write
+	 */
+	@FunctionalInterface
+	public interface Write<T>{
+		/**
+		 * Executes the write, it must not commit or roll back the connection
+		 *
+		 * @param connection the connection of the current transaction
+		 * @return the result of the write
+		 */
+		T execute(Connection connection) throws Exception;
+	}
+
+	private record PendingWrite<T, R>(Write<T> write, Function<T, R> afterCommit, CompletableFuture<R> future){
+	}
+
+	private final BlockingQueue<PendingWrite<?, ?>> queue = new LinkedBlockingQueue<>();
+	private final Supplier<Connection> connectionSupplier;
+	/**
+	 * The maximum amount of writes committed in a single transaction
+	 */
+	private final int maxGroupSize;
+	/**
+	 * Runs in the transaction of every group that changed rows right before it is committed, null if nothing has to be run
+	 */
+	private final Write<?> beforeChangeCommit;
+	private final Thread writer;
+	/**
+	 * Guards accepting writes against closing the queue, so no write is added once the writer may have exited
+	 */
+	private final Object submitLock = new Object();
+	private volatile boolean running = true;
+
+	/**
+	 * @param name the name of the queue, used to name its thread
+	 * @param connectionSupplier supplies the connection writes are executed on
+	 * @param maxGroupSize the maximum amount of writes committed in a single transaction
+	 */
+	public WriteQueue(String name, Supplier<Connection> connectionSupplier, int maxGroupSize) {
+		this(name, connectionSupplier, maxGroupSize, null);
+	}
+	
+	/**
+	 * @param name the name of the queue, used to name its thread
+	 * @param connectionSupplier supplies the connection writes are executed on
+	 * @param maxGroupSize the maximum amount of writes committed in a single transaction
+	 * @param beforeChangeCommit runs once per group that changed any rows, in its transaction right before it is committed
+	 */
+	public WriteQueue(String name, Supplier<Connection> connectionSupplier, int maxGroupSize, Write<?> beforeChangeCommit) {
+		this.connectionSupplier = connectionSupplier;
+		this.maxGroupSize = Math.max(1, maxGroupSize);
+		this.beforeChangeCommit = beforeChangeCommit;
+		this.writer = new Thread(this::run, "write-queue-" + name);
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Queues a write
+	 *
+	 * @param write the write to execute
+	 * @param <T> the result of the write
+	 * @return completes with the result of the write once its transaction is committed, or exceptionally if the write or the commit failed
+	 */
+	public <T> CompletableFuture<T> submit(Write<T> write) {
+		return submit(write, Function.identity());
+	}
+	
+	/**
+	 * Queues a write with a callback that runs on the writer thread once the write is committed. The callbacks of a group run in the order
+	 * their writes were submitted and before the next group starts, so state updated by them always matches the committed data.
+	 *
+	 * @param write the write to execute
+	 * @param afterCommit called with the result of the write after it was committed, not called if the write failed
+	 * @param <T> the result of the write
+	 * @param <R> the result of the callback
+	 * @return completes with the result of the callback
+	 */
+	public <T, R> CompletableFuture<R> submit(Write<T> write, Function<T, R> afterCommit) {
+		CompletableFuture<R> future = new CompletableFuture<>();
+		synchronized(submitLock){
+			if(!running){
+				future.completeExceptionally(new IllegalStateException("The write queue is closed"));
+				return future;
+			}
+			queue.add(new PendingWrite<>(write, afterCommit, future));
+		}
+		return future;
+	}
+
+	/**
+	 * Queues a write and waits for it to be committed
+	 *
+	 * @param write the write to execute
+	 * @param <T> the result of the write
+	 * @return the result of the write
+	 * @throws CoreSqlException if the write or the commit failed
+	 */
+	public <T> T execute(Write<T> write) throws CoreSqlException {
+		return execute(write, Function.identity());
+	}
+	
+	/**
+	 * Queues a write and waits for it to be committed, see {@link #submit(Write, Function)}
+	 *
+	 * @param write the write to execute
+	 * @param afterCommit called with the result of the write after it was committed
+	 * @param <T> the result of the write
+	 * @param <R> the result of the callback
+	 * @return the result of the callback
+	 * @throws CoreSqlException if the write or the commit failed
+	 */
+	public <T, R> R execute(Write<T> write, Function<T, R> afterCommit) throws CoreSqlException {
+		if(Thread.currentThread() == writer){
+			throw new IllegalStateException("A write can not wait for another write of the same queue");
+		}
+		return await(submit(write, afterCommit));
+	}
+
+	/**
+	 * Waits for a queued write
+	 *
+	 * @param future the future of the write
+	 * @param <T> the result of the write
+	 * @return the result of the write
+	 * @throws CoreSqlException if the write or the commit failed
+	 */
+	public static <T> T await(CompletableFuture<T> future) throws CoreSqlException {
+		try{
+			return future.join();
+		} catch(CompletionException e){
+			if(e.getCause() instanceof CoreSqlException coreSqlException){
+				throw coreSqlException;
+			}
+			throw new CoreSqlException("Failed to write to the database", e.getCause());
+		}
+	}
+
+	private void run() {
+		List<PendingWrite<?, ?>> group = new ArrayList<>();
+		while(running || !queue.isEmpty()){
+			try{
+				PendingWrite<?, ?> first = queue.poll(1, TimeUnit.SECONDS);
+				if(first == null){
+					continue;
+				}
+				group.add(first);
+				queue.drainTo(group, maxGroupSize - 1);
+				commitGroup(group);
+			} catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				break;
+			} finally{
+				group.clear();
+			}
+		}
+
+		//only reached if interrupted, anything left can no longer be written
+		PendingWrite<?, ?> pending;
+		while((pending = queue.poll()) != null){
+			pending.future().completeExceptionally(new IllegalStateException("The write queue is closed"));
+		}
+	}
+
+	/**
+	 * Executes a group of writes in a single transaction, their futures are only completed once the transaction is committed
+	 */
+	private void commitGroup(List<PendingWrite<?, ?>> group) {
+		Connection connection;
+		try{
+			connection = connectionSupplier.get();
+		} catch(RuntimeException e){
+			group.forEach(pending -> pending.future().completeExceptionally(e));
+			return;
+		}
+
+		try{
+			connection.setAutoCommit(false);
+			long changesBefore = beforeChangeCommit == null ? 0 : totalChanges(connection);
+			List<Runnable> completions = new ArrayList<>();
+			for(PendingWrite<?, ?> pending : group){
+				completions.add(apply(connection, pending));
+			}
+			if(beforeChangeCommit != null && totalChanges(connection) != changesBefore){
+				beforeChangeCommit.execute(connection);
+			}
+			connection.commit();
+			completions.forEach(Runnable::run);
+		} catch(Exception e){
+			log.error("Failed to commit a group of {} writes", group.size(), e);
+			try{
+				connection.rollback();
+			} catch(SQLException ex){
+				log.error("Rollback failed", ex);
+			}
+			group.forEach(pending -> pending.future().completeExceptionally(e));
+		} finally{
+			try{
+				connection.setAutoCommit(true);
+				connection.close();
+			} catch(SQLException e){
+				log.error("Error while closing connection", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the amount of rows changed by the connection since it was opened, including changes made by triggers
+	 */
+	private static long totalChanges(Connection connection) throws SQLException {
+		try(Statement statement = connection.createStatement();
+			ResultSet resultSet = statement.executeQuery("SELECT total_changes()")){
+			return resultSet.next() ? resultSet.getLong(1) : 0;
+		}
+	}
+	
+	/**
+	 * Executes a single write in its own savepoint
+	 *
+	 * @return completes the future of the write with its outcome
+	 */
+	private <T, R> Runnable apply(Connection connection, PendingWrite<T, R> pending) throws SQLException {
+		Savepoint savepoint = connection.setSavepoint();
+		try{
+			T result = pending.write().execute(connection);
+			connection.releaseSavepoint(savepoint);
+			return () -> {
+				try{
+					pending.future().complete(pending.afterCommit().apply(result));
+				} catch(RuntimeException e){
+					log.error("Failed to apply a committed write", e);
+					pending.future().completeExceptionally(e);
+				}
+			};
+		} catch(Exception e){
+			connection.rollback(savepoint);
+			return () -> pending.future().completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Stops accepting writes and waits for the queued ones to be committed
+	 */
+	@Override
+	public void close() {
+		synchronized(submitLock){
+			running = false;
+		}
+		try{
+			writer.join();
+		} catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package com.wonkglorg.doc.core.db.dbs;
 
+import com.wonkglorg.doc.core.db.StatementCache;
+
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -11,6 +13,14 @@ import java.util.regex.Pattern;
 @SuppressWarnings("unused")
 public class SqliteDatabase<T extends DataSource> extends Database<T>{
 	private static final Pattern pattern = Pattern.compile(":(\\w+)");
+	/**
+	 * The data source used for reads, the same as the main data source if there is no dedicated one
+	 */
+	protected final T readDataSource;
+	/**
+	 * The prepared statements of the connections of both data sources
+	 */
+	protected final StatementCache statementCache = new StatementCache();
 	
 	/**
 	 * * Creates a Sqlite database at the specified copyToPath.
@@ -40,11 +50,33 @@ public class SqliteDatabase<T extends DataSource> extends Database<T>{
 	 * @param dataSource the data source
 	 */
 	public SqliteDatabase(T dataSource) {
+		this(dataSource, dataSource);
+	}
+	
+	/**
+	 * Creates a sqlite database with a dedicated data source for reads
+	 *
+	 * @param dataSource the data source used for writes
+	 * @param readDataSource the data source used for reads
+	 */
+	public SqliteDatabase(T dataSource, T readDataSource) {
 		super(SQLITE, dataSource);
+		this.readDataSource = readDataSource;
 	}
 	
 	@Override
 	public void close() {
+		statementCache.clear();
+		try{
+			if(readDataSource != dataSource && readDataSource instanceof AutoCloseable closeable){
+				closeable.close();
+			}
+			if(dataSource instanceof AutoCloseable closeable){
+				closeable.close();
+			}
+		} catch(Exception e){
+			throw new RuntimeException(e);
+		}
 	}
 	
 	public Connection getConnection() {
@@ -55,5 +87,23 @@ public class SqliteDatabase<T extends DataSource> extends Database<T>{
 		}
 	}
 	
+	/**
+	 * @return a connection that is only used for reading
+	 */
+	public Connection getReadConnection() {
+		try{
+			return readDataSource.getConnection();
+		} catch(SQLException e){
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * @return the cache of prepared statements, see {@link StatementCache}
+	 */
+	public StatementCache getStatementCache() {
+		return statementCache;
+	}
+	
 }
 
@@ -1,14 +1,21 @@
 package com.wonkglorg.doc.core.db.functions;
 
+import com.wonkglorg.doc.core.RepoProperty.ContentStorage;
 import com.wonkglorg.doc.core.db.RepositoryDatabase;
 import com.wonkglorg.doc.core.exception.CoreSqlException;
 import com.wonkglorg.doc.core.permissions.PermissionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Holds generic setup and usage Database functions
@@ -16,6 +23,22 @@ import java.sql.Statement;
 @SuppressWarnings("UnusedReturnValue")
 public class DatabaseFunctions {
     private static final Logger log = LoggerFactory.getLogger(DatabaseFunctions.class);
+    /**
+     * The FTS tables of a repository database
+     */
+    private static final List<String> FTS_TABLES = List.of("FileData", "FileTokens");
+    /**
+     * The state key the content storage of the database is stored under
+     */
+    private static final String CONTENT_STORAGE = "content_storage";
+    /**
+     * The triggers referencing FileData
+     */
+    private static final List<String> STORAGE_TRIGGERS = List.of("delete_resource_cleanup");
+    /**
+     * The state key of the data generation, incremented by triggers on every change to a table that is cached in memory
+     */
+    private static final String DATA_GENERATION = "data_generation";
 
     private DatabaseFunctions() {
         //utility class
@@ -30,6 +53,7 @@ public class DatabaseFunctions {
             statement.execute("PRAGMA foreign_keys = OFF");
             statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
             statement.execute("PRAGMA incremental_vacuum(500)");
+            boolean newDatabase = !tableExists(connection, "Resources");
 
             statement.execute("""
                     CREATE TABLE IF NOT EXISTS Tags (
@@ -42,24 +66,26 @@ public class DatabaseFunctions {
 
             statement.execute("""
                     CREATE TABLE IF NOT EXISTS Resources (
-                        resource_path TEXT PRIMARY KEY NOT NULL,
+                        resource_id INTEGER PRIMARY KEY,
+                        resource_path TEXT UNIQUE NOT NULL,
                         created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                         created_by TEXT,
                         last_modified_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                         last_modified_by TEXT,
-                        category TEXT
+                        category TEXT,
+                        content_hash TEXT
                     )
                     """);
 
             statement.execute("""
                     CREATE TABLE IF NOT EXISTS ResourceTags (
                         tag_id TEXT NOT NULL,
-                        resource_path TEXT NOT NULL,
+                        resource_id INTEGER NOT NULL,
                         created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                         created_by TEXT,
-                        PRIMARY KEY (tag_id, resource_path),
+                        PRIMARY KEY (tag_id, resource_id),
                         FOREIGN KEY (tag_id) REFERENCES Tags(tag_id),
-                        FOREIGN KEY (resource_path) REFERENCES Resources(resource_path)
+                        FOREIGN KEY (resource_id) REFERENCES Resources(resource_id)
                     )
                     """);
 
@@ -82,26 +108,89 @@ public class DatabaseFunctions {
                     """);
 
             statement.execute("""
-                    CREATE VIRTUAL TABLE IF NOT EXISTS FileData USING fts5(
-                        resource_path,
+                    CREATE TABLE IF NOT EXISTS RepoState(
+                        state_key TEXT PRIMARY KEY NOT NULL,
+                        state_value TEXT
+                    )
+                    """);
+            statement.execute("INSERT OR IGNORE INTO RepoState(state_key, state_value) VALUES('%s', '0')".formatted(DATA_GENERATION));
+
+            //stages the resources of a bulk delete, only holds rows while the delete is in progress
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS DeletedResources(
+                        resource_id INTEGER PRIMARY KEY,
+                        resource_path TEXT NOT NULL
+                    )
+                    """);
+
+            if (newDatabase) {
+                //part of the latest layout, databases created earlier get them from the migrations
+                statement.execute("CREATE INDEX idx_resource_tags_resource_id ON ResourceTags(resource_id, tag_id)");
+                statement.execute("CREATE INDEX idx_group_permissions_path ON GroupPermissions(path)");
+                statement.execute("CREATE INDEX idx_user_permissions_path ON UserPermissions(path)");
+            }
+
+            //brings databases created with an earlier layout up to date, the tables above are only created in the latest layout
+            SchemaMigrations.migrate(connection, database.getRepoId(), newDatabase);
+
+            ContentStorage storage = database.getRepoProperties().getContentStorage();
+            String storedStorage = getStateValue(connection, CONTENT_STORAGE);
+            if (storedStorage == null && tableExists(connection, "FileData")) {
+                //created before the storage was configurable
+                storedStorage = ContentStorage.DATABASE.name();
+            }
+            //left behind by a conversion that was interrupted before conversions ran in a transaction
+            if (tableExists(connection, "FileDataPrevious")) {
+                log.warn("Restoring the content storage of '{}' after an interrupted conversion", database.getRepoId());
+                statement.execute("DROP TABLE IF EXISTS FileData");
+                statement.execute("ALTER TABLE FileDataPrevious RENAME TO FileData");
+            }
+            if (storedStorage != null && !storedStorage.equals(storage.name())) {
+                log.info("Converting the content storage of '{}' from {} to {}", database.getRepoId(), storedStorage, storage);
+                convertContentStorage(connection, database, storage);
+                statement.execute("PRAGMA incremental_vacuum");
+            } else {
+                createFileData(statement, storage);
+                setStateValue(connection, CONTENT_STORAGE, storage.name());
+            }
+
+            //short search terms are below the trigram size, they are looked up by word prefix in this contentless index sharing the rowids of FileData
+            boolean tokensExisted = tableExists(connection, "FileTokens");
+            statement.execute("""
+                    CREATE VIRTUAL TABLE IF NOT EXISTS FileTokens USING fts5(
                         data,
-                        tokenize='trigram'
+                        content='',
+                        contentless_delete=1,
+                        tokenize='unicode61',
+                        prefix='1 2 3'
                     )
                     """);
+            if (!tokensExisted) {
+                insertTokens(connection, database);
+            }
+
+            //merge segments in smaller steps while writing, larger merges are done by the scheduled merge and optimize
+            for (String table : FTS_TABLES) {
+                statement.executeUpdate("INSERT INTO %1$s(%1$s, rank) VALUES('automerge', 8)".formatted(table));
+                statement.executeUpdate("INSERT INTO %1$s(%1$s, rank) VALUES('crisismerge', 32)".formatted(table));
+            }
 
             statement.execute("""
                     CREATE VIEW IF NOT EXISTS ResourceInfo AS
                     SELECT Resources.*, ResourceTags.tag_id IS NOT NULL AS hasTags
                       FROM Resources
                       LEFT JOIN ResourceTags
-                        ON Resources.resource_path = ResourceTags.resource_path
-                      GROUP BY Resources.resource_path;
+                        ON Resources.resource_id = ResourceTags.resource_id
+                      GROUP BY Resources.resource_id;
                     """);
 
             //admin account gets all permissions by default
-            statement.execute("""
+            int adminPermissions = statement.executeUpdate("""
                     INSERT OR IGNORE INTO UserPermissions(user_id, path,type) VALUES ('admin','**','%s');
                     """.formatted(PermissionType.ADMIN));
+            if (adminPermissions > 0) {
+                incrementDataGeneration(connection);
+            }
 
             statement.execute("PRAGMA foreign_keys = ON");
         } catch (Exception e) {
@@ -112,13 +201,157 @@ public class DatabaseFunctions {
     }
 
     /**
-     * Rebuilds the FTS table when called, this is a slow operation and should only be done when there is a specific need to do so
+     * Creates the FileData table in the layout of the given storage, the rowid of the indexed data is the id of its resource
+     */
+    private static void createFileData(Statement statement, ContentStorage storage) throws SQLException {
+        if (storage == ContentStorage.DATABASE) {
+            statement.execute("""
+                    CREATE VIRTUAL TABLE IF NOT EXISTS FileData USING fts5(
+                        data,
+                        tokenize='trigram'
+                    )
+                    """);
+        } else {
+            //only the index is kept
+            statement.execute("""
+                    CREATE VIRTUAL TABLE IF NOT EXISTS FileData USING fts5(
+                        data,
+                        content='',
+                        contentless_delete=1,
+                        tokenize='trigram'
+                    )
+                    """);
+        }
+    }
+
+    /**
+     * Converts FileData to the layout of the given storage in a single transaction, so a failed conversion leaves the previous layout in
+     * place and is retried on the next startup
+     *
+     * @param storage the storage that is converted to
+     */
+    private static void convertContentStorage(Connection connection, RepositoryDatabase database, ContentStorage storage) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            //the triggers reference the previous layout and would be renamed along with the table
+            for (String trigger : STORAGE_TRIGGERS) {
+                statement.execute("DROP TRIGGER IF EXISTS " + trigger);
+            }
+            statement.execute("ALTER TABLE FileData RENAME TO FileDataPrevious");
+            createFileData(statement, storage);
+            copyContent(connection, database, storage);
+            statement.execute("DROP TABLE FileDataPrevious");
+            setStateValue(connection, CONTENT_STORAGE, storage.name());
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw new SQLException("Converting the content storage to %s failed".formatted(storage), e);
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Copies the indexed content of the previous FileData table into the current one, keeping the rowids so FileTokens stays valid
+     *
+     * @param storage the storage that is converted to
+     */
+    private static void copyContent(Connection connection, RepositoryDatabase database, ContentStorage storage) throws SQLException {
+        if (storage == ContentStorage.WORK_TREE) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("INSERT INTO FileData(rowid, data) SELECT rowid, data FROM FileDataPrevious");
+            }
+            return;
+        }
+
+        //the previous table only held the index, the content is read from the work tree
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO FileData(rowid, data) VALUES(?, ?)")) {
+            forEachWorkTreeContent(database, getIndexedResources(connection, "FileDataPrevious"), (resourceId, data) -> {
+                statement.setLong(1, resourceId);
+                statement.setString(2, data);
+                statement.executeUpdate();
+            });
+        }
+    }
+
+    /**
+     * Fills FileTokens with the content of every resource
+     */
+    private static void insertTokens(Connection connection, RepositoryDatabase database) throws SQLException {
+        if (database.getRepoProperties().getContentStorage() == ContentStorage.DATABASE) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("INSERT INTO FileTokens(rowid, data) SELECT rowid, data FROM FileData");
+            }
+            return;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO FileTokens(rowid, data) VALUES(?, ?)")) {
+            forEachWorkTreeContent(database, getIndexedResources(connection, "FileData"), (resourceId, data) -> {
+                statement.setLong(1, resourceId);
+                statement.setString(2, data);
+                statement.executeUpdate();
+            });
+        }
+    }
+
+    /**
+     * Gets the resources with data indexed in an FTS table
+     *
+     * @param table the FTS table
+     * @return the paths of the resources mapped by their id
+     */
+    private static Map<Long, String> getIndexedResources(Connection connection, String table) throws SQLException {
+        Map<Long, String> resources = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "SELECT resource_id, resource_path FROM Resources WHERE resource_id IN (SELECT rowid FROM %s)".formatted(table))) {
+            while (resultSet.next()) {
+                resources.put(resultSet.getLong("resource_id"), resultSet.getString("resource_path"));
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * Reads the content of the given resources from the work tree
+     *
+     * @param resources the paths of the resources mapped by their id
+     */
+    private static void forEachWorkTreeContent(RepositoryDatabase database, Map<Long, String> resources, WorkTreeContentConsumer consumer)
+            throws SQLException {
+        for (Map.Entry<Long, String> resource : resources.entrySet()) {
+            consumer.accept(resource.getKey(), database.getFileRepository().readData(Path.of(resource.getValue())));
+        }
+    }
+
+    @FunctionalInterface
+    private interface WorkTreeContentConsumer {
+        void accept(long resourceId, String data) throws SQLException;
+    }
+
+    /**
+     * Rebuilds the FTS tables when called, this is a slow operation and should only be done when there is a specific need to do so
      */
     public static void rebuildFts(RepositoryDatabase database) throws CoreSqlException {
         Connection connection = database.getConnection();
         try (Statement statement = connection.createStatement()) {
-            //noinspection SqlResolve on purpose sql plugin doesn't recognize the fts specific commands
-            statement.executeUpdate(("INSERT INTO FileData(FileData) VALUES ('rebuild')"));
+            if (database.getRepoProperties().getContentStorage() == ContentStorage.DATABASE) {
+                //noinspection SqlResolve on purpose sql plugin doesn't recognize the fts specific commands
+                statement.executeUpdate(("INSERT INTO FileData(FileData) VALUES ('rebuild')"));
+            } else {
+                //without stored content the index can only be rebuilt from the work tree
+                Map<Long, String> indexedResources = getIndexedResources(connection, "FileData");
+                statement.executeUpdate("INSERT INTO FileData(FileData) VALUES ('delete-all')");
+                try (PreparedStatement insert = connection.prepareStatement("INSERT INTO FileData(rowid, data) VALUES(?, ?)")) {
+                    forEachWorkTreeContent(database, indexedResources, (resourceId, data) -> {
+                        insert.setLong(1, resourceId);
+                        insert.setString(2, data);
+                        insert.executeUpdate();
+                    });
+                }
+            }
+            statement.executeUpdate("INSERT INTO FileTokens(FileTokens) VALUES ('delete-all')");
+            insertTokens(connection, database);
         } catch (Exception e) {
             throw new CoreSqlException("Error while rebuilding FTS in '%s'".formatted(database.getRepoId()), e);
         } finally {
@@ -126,25 +359,151 @@ public class DatabaseFunctions {
         }
     }
 
+    /**
+     * Merges the segments of the FTS tables, doing at most the given amount of work so it can run regularly without blocking writers for long
+     *
+     * @param pages the amount of pages to write per table, a negative amount merges the segments of all levels the way an optimize does
+     * @return true if any of the tables had segments to merge
+     */
+    public static boolean mergeFts(RepositoryDatabase database, int pages) throws CoreSqlException {
+        Connection connection = database.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            boolean merged = false;
+            for (String table : FTS_TABLES) {
+                long changesBefore = totalChanges(statement);
+                statement.executeUpdate("INSERT INTO %1$s(%1$s, rank) VALUES('merge', %2$d)".formatted(table, pages));
+                //a merge that did no work changes at most one row
+                merged |= totalChanges(statement) - changesBefore >= 2;
+            }
+            return merged;
+        } catch (Exception e) {
+            throw new CoreSqlException("Error while merging FTS in '%s'".formatted(database.getRepoId()), e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * Merges all segments of the FTS tables into one, faster to query but slower to run than {@link #mergeFts(RepositoryDatabase, int)}. A
+     * single optimize would hold the writer until it is done, so the segments are merged in bounded steps and each step releases the writer
+     * for the queued writes.
+     *
+     * @param pages the amount of pages to write per table and step
+     */
+    public static void optimizeFts(RepositoryDatabase database, int pages) throws CoreSqlException {
+        int steps = 0;
+        while (mergeFts(database, -Math.abs(pages))) {
+            steps++;
+        }
+        log.info("Optimized FTS in '{}' in {} steps", database.getRepoId(), steps);
+    }
+
+    private static long totalChanges(Statement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT total_changes()")) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Reads a value stored in the repositories state table
+     *
+     * @param key the key of the value
+     * @return the stored value or null if none was stored
+     */
+    public static String getStateValue(RepositoryDatabase database, String key) throws CoreSqlException {
+        Connection connection = database.getReadConnection();
+        try {
+            return getStateValue(connection, key);
+        } catch (Exception e) {
+            throw new CoreSqlException("Error while reading state '%s' in '%s'".formatted(key, database.getRepoId()), e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * Stores a value in the repositories state table, replacing any previous value
+     *
+     * @param key   the key of the value
+     * @param value the value to store
+     */
+    public static void setStateValue(RepositoryDatabase database, String key, String value) throws CoreSqlException {
+        Connection connection = database.getConnection();
+        try {
+            setStateValue(connection, key, value);
+        } catch (Exception e) {
+            throw new CoreSqlException("Error while storing state '%s' in '%s'".formatted(key, database.getRepoId()), e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * Increments the data generation, lets snapshots of the caches detect any change made since they were taken. Called once per committed
+     * write group that changed rows, see {@link com.wonkglorg.doc.core.db.WriteQueue}.
+     *
+     * @param connection the connection of the transaction making the change
+     * @return the amount of updated rows
+     */
+    public static int incrementDataGeneration(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE RepoState SET state_value = CAST(state_value AS INTEGER) + 1 WHERE state_key = ?")) {
+            statement.setString(1, DATA_GENERATION);
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Reads the data generation of the database, it changes whenever a write to the database is committed
+     *
+     * @param connection the connection to read with, reads the uncommitted generation if a transaction is in progress
+     * @return the data generation
+     */
+    public static long getDataGeneration(Connection connection) throws SQLException {
+        String generation = getStateValue(connection, DATA_GENERATION);
+        return generation == null ? 0 : Long.parseLong(generation);
+    }
+
+    /**
+     * Reads a value stored in the repositories state table
+     *
+     * @param connection the connection to read with
+     * @param key        the key of the value
+     * @return the stored value or null if none was stored
+     */
+    public static String getStateValue(Connection connection, String key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT state_value FROM RepoState WHERE state_key = ?")) {
+            statement.setString(1, key);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString("state_value") : null;
+            }
+        }
+    }
+
+    private static void setStateValue(Connection connection, String key, String value) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT OR REPLACE INTO RepoState(state_key, state_value) VALUES(?, ?)")) {
+            statement.setString(1, key);
+            statement.setString(2, value);
+            statement.executeUpdate();
+        }
+    }
+
     /**
      * Creates a trigger that deletes all accompanying tables resources when the main "Resources" table gets deleted
      */
     public static void initializeTriggers(RepositoryDatabase database) throws CoreSqlException {
         Connection connection = database.getConnection();
         try (Statement statement = connection.createStatement()) {
+            //tags and indexed data reference the resource id, only the permissions are matched by path
             statement.execute("""
                     CREATE TRIGGER IF NOT EXISTS update_resource_path
-                    AFTER UPDATE ON Resources
+                    AFTER UPDATE OF resource_path ON Resources
                     FOR EACH ROW
                     WHEN OLD.resource_path != NEW.resource_path
                     BEGIN
                         -- Update related permissions
                         UPDATE GroupPermissions SET path = NEW.resource_path WHERE path = OLD.resource_path;
                         UPDATE UserPermissions SET path = NEW.resource_path WHERE path = OLD.resource_path;
-                        -- Update related tags
-                        UPDATE ResourceTags SET resource_path = NEW.resource_path WHERE resource_path = OLD.resource_path;
-                        -- Update indexed data
-                        UPDATE FileData SET resource_path = NEW.resource_path WHERE resource_path = OLD.resource_path;
                     END;
                     """);
 
@@ -152,14 +511,16 @@ public class DatabaseFunctions {
                     CREATE TRIGGER IF NOT EXISTS delete_resource_cleanup
                     AFTER DELETE ON Resources
                     FOR EACH ROW
+                    WHEN NOT EXISTS (SELECT 1 FROM DeletedResources WHERE resource_id = OLD.resource_id)
                     BEGIN
                        -- Delete related permissions
                         DELETE FROM GroupPermissions WHERE path = OLD.resource_path;
                         DELETE FROM UserPermissions WHERE path = OLD.resource_path;
                         --Delete Related Tags
-                        DELETE FROM ResourceTags WHERE resource_path = OLD.resource_path;
+                        DELETE FROM ResourceTags WHERE resource_id = OLD.resource_id;
                         --Delete Indexed Data
-                        DELETE FROM FileData WHERE resource_path = OLD.resource_path;
+                        DELETE FROM FileTokens WHERE rowid = OLD.resource_id;
+                        DELETE FROM FileData WHERE rowid = OLD.resource_id;
                     END;
                     """);
 
@@ -179,6 +540,27 @@ public class DatabaseFunctions {
         }
     }
 
+    static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            statement.setString(1, table);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    static boolean columnExists(Connection connection, String table, String column) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA table_info(%s)".formatted(table))) {
+            while (resultSet.next()) {
+                if (column.equalsIgnoreCase(resultSet.getString("name"))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     private static void closeConnection(Connection connection) {
         try {
             connection.close();
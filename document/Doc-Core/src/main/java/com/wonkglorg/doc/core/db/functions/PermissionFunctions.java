@@ -1,45 +1,133 @@
 package com.wonkglorg.doc.core.db.functions;
 
 import com.wonkglorg.doc.core.db.RepositoryDatabase;
+import com.wonkglorg.doc.core.db.StatementCache;
 import com.wonkglorg.doc.core.db.UserDatabase;
+import com.wonkglorg.doc.core.db.WriteQueue;
 import com.wonkglorg.doc.core.exception.CoreSqlException;
+import com.wonkglorg.doc.core.index.PathIndex;
 import com.wonkglorg.doc.core.interfaces.PermissionCalls;
 import com.wonkglorg.doc.core.objects.GroupId;
+import com.wonkglorg.doc.core.objects.Identifyable;
 import com.wonkglorg.doc.core.objects.RepoId;
 import com.wonkglorg.doc.core.objects.UserId;
 import com.wonkglorg.doc.core.path.TargetPath;
 import com.wonkglorg.doc.core.permissions.Permission;
+import com.wonkglorg.doc.core.permissions.PermissionEvaluator;
 import com.wonkglorg.doc.core.permissions.PermissionType;
 import com.wonkglorg.doc.core.user.Group;
 import com.wonkglorg.doc.core.user.UserProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * Permission related database functions
  */
 public class PermissionFunctions implements IDBFunctions, PermissionCalls{
 	private static final Logger log = LoggerFactory.getLogger(PermissionFunctions.class);
-	private final Map<UserId, Map<String, Permission<UserId>>> userPermissions = new HashMap<>();
-	private final Map<GroupId, Map<String, Permission<GroupId>>> groupPermissions = new HashMap<>();
+	/**
+	 * The current generation of the cached permissions. Readers use whichever snapshot is current without locking or copying, writers
+	 * publish a new one.
+	 */
+	private final AtomicReference<PermissionSnapshot> permissions = new AtomicReference<>(PermissionSnapshot.EMPTY);
+	/**
+	 * The compiled permissions of each user, only valid as long as neither permissions nor group memberships changed since compiling
+	 */
+	private final Map<UserId, CachedEvaluator> evaluators = new ConcurrentHashMap<>();
 	private final RepositoryDatabase database;
+	private final StatementCache statements;
+	
+	private record CachedEvaluator(long permissionVersion, long membershipVersion, PermissionEvaluator evaluator){}
+	
+	/**
+	 * The permissions of a single user or group, both by path and as a set so neither has to be built by readers
+	 */
+	private record IdPermissions<T extends Identifyable>(Map<String, Permission<T>> byPath, Set<Permission<T>> all){
+		private static <T extends Identifyable> IdPermissions<T> of(Map<String, Permission<T>> byPath) {
+			return new IdPermissions<>(Map.copyOf(byPath), Set.copyOf(byPath.values()));
+		}
+	}
+	
+	/**
+	 * An immutable generation of the cached permissions, every change produces a new snapshot with the next version
+	 */
+	private record PermissionSnapshot(long version, Map<UserId, IdPermissions<UserId>> users, Map<GroupId, IdPermissions<GroupId>> groups){
+		private static final PermissionSnapshot EMPTY = new PermissionSnapshot(0, Map.of(), Map.of());
+		
+		private PermissionSnapshot withUser(UserId userId, Consumer<Map<String, Permission<UserId>>> change) {
+			return new PermissionSnapshot(version + 1, with(users, userId, change), groups);
+		}
+		
+		private PermissionSnapshot withGroup(GroupId groupId, Consumer<Map<String, Permission<GroupId>>> change) {
+			return new PermissionSnapshot(version + 1, users, with(groups, groupId, change));
+		}
+		
+		/**
+		 * Copies the permissions of a single id to apply a change, the permissions of all other ids are shared with the previous snapshot
+		 */
+		private static <T extends Identifyable> Map<T, IdPermissions<T>> with(Map<T, IdPermissions<T>> permissions,
+																			   T id,
+																			   Consumer<Map<String, Permission<T>>> change) {
+			IdPermissions<T> current = permissions.get(id);
+			Map<String, Permission<T>> byPath = current == null ? new HashMap<>() : new HashMap<>(current.byPath());
+			change.accept(byPath);
+			Map<T, IdPermissions<T>> changed = new HashMap<>(permissions);
+			if(byPath.isEmpty()){
+				changed.remove(id);
+			} else {
+				changed.put(id, IdPermissions.of(byPath));
+			}
+			return Map.copyOf(changed);
+		}
+		
+		/**
+		 * Applies a change to the permissions of every id having a permission on one of the given paths
+		 */
+		private static <T extends Identifyable> Map<T, IdPermissions<T>> withPaths(Map<T, IdPermissions<T>> permissions,
+																				   Collection<String> paths,
+																				   Consumer<Map<String, Permission<T>>> change) {
+			Map<T, IdPermissions<T>> changed = permissions;
+			for(Map.Entry<T, IdPermissions<T>> entry : permissions.entrySet()){
+				if(paths.stream().anyMatch(entry.getValue().byPath()::containsKey)){
+					changed = with(changed, entry.getKey(), change);
+				}
+			}
+			return changed;
+		}
+		
+		private static <T extends Identifyable> Map<T, IdPermissions<T>> of(Map<T, Map<String, Permission<T>>> permissions) {
+			Map<T, IdPermissions<T>> frozen = new HashMap<>();
+			permissions.forEach((id, byPath) -> frozen.put(id, IdPermissions.of(byPath)));
+			return Map.copyOf(frozen);
+		}
+	}
 	
 	public PermissionFunctions(RepositoryDatabase database) {
 		this.database = database;
+		this.statements = database.getStatementCache();
 	}
 	
 	@Override
 	public void initialize() {
 		log.info("Initializing cache for user functions in repo '{}'", database.getRepoProperties().getId());
-		Connection connection = database.getConnection();
+		Connection connection = database.getReadConnection();
+		Map<UserId, Map<String, Permission<UserId>>> userPermissions = new HashMap<>();
+		Map<GroupId, Map<String, Permission<GroupId>>> groupPermissions = new HashMap<>();
 		try{
 			UserDatabase userDB = database.getFileRepository().getUserDB();
 			for(UserProfile userProfile : userDB.getUsers()){
@@ -57,7 +145,94 @@ public class PermissionFunctions implements IDBFunctions, PermissionCalls{
 			}
 		} catch(CoreSqlException e){
 			throw new RuntimeException(e);
+		} finally{
+			closeConnection(connection);
+		}
+		publishAll(userPermissions, groupPermissions);
+	}
+	
+	/**
+	 * Fills the caches from a snapshot instead of the database, see {@link #initialize()}
+	 *
+	 * @param userPermissionList the user permissions to cache
+	 * @param groupPermissionList the group permissions to cache
+	 */
+	public void restoreCache(List<Permission<UserId>> userPermissionList, List<Permission<GroupId>> groupPermissionList) {
+		Map<UserId, Map<String, Permission<UserId>>> userPermissions = new HashMap<>();
+		Map<GroupId, Map<String, Permission<GroupId>>> groupPermissions = new HashMap<>();
+		for(Permission<UserId> permission : userPermissionList){
+			userPermissions.computeIfAbsent(permission.id(), k -> new HashMap<>()).put(permission.getPath().toString(), permission);
+		}
+		for(Permission<GroupId> permission : groupPermissionList){
+			groupPermissions.computeIfAbsent(permission.id(), k -> new HashMap<>()).put(permission.getPath().toString(), permission);
 		}
+		publishAll(userPermissions, groupPermissions);
+	}
+	
+	/**
+	 * Replaces all cached permissions
+	 */
+	private void publishAll(Map<UserId, Map<String, Permission<UserId>>> userPermissions,
+							Map<GroupId, Map<String, Permission<GroupId>>> groupPermissions) {
+		publish(current -> new PermissionSnapshot(current.version() + 1, PermissionSnapshot.of(userPermissions), PermissionSnapshot.of(groupPermissions)));
+	}
+	
+	/**
+	 * Publishes the next generation of the cached permissions
+	 *
+	 * @param change creates the next snapshot from the current one
+	 */
+	private void publish(UnaryOperator<PermissionSnapshot> change) {
+		permissions.updateAndGet(change);
+		evaluators.clear();
+	}
+	
+	/**
+	 * Removes the cached permissions set on the given paths, mirrors the permission rows deleted along with their resources
+	 *
+	 * @param paths the paths of the deleted resources
+	 */
+	public void removeCachedPermissions(Collection<String> paths) {
+		if(paths.isEmpty()){
+			return;
+		}
+		Set<String> removed = Set.copyOf(paths);
+		publish(current -> new PermissionSnapshot(current.version() + 1,
+				PermissionSnapshot.withPaths(current.users(), removed, byPath -> byPath.keySet().removeAll(removed)),
+				PermissionSnapshot.withPaths(current.groups(), removed, byPath -> byPath.keySet().removeAll(removed))));
+	}
+	
+	/**
+	 * Moves the cached permissions set on a path to another one, mirrors the permission rows updated along with a moved resource
+	 *
+	 * @param oldPath the previous path of the resource
+	 * @param newPath the new path of the resource
+	 */
+	public void moveCachedPermissions(String oldPath, String newPath) {
+		publish(current -> new PermissionSnapshot(current.version() + 1,
+				PermissionSnapshot.withPaths(current.users(), Set.of(oldPath), byPath -> movePermission(byPath, oldPath, newPath)),
+				PermissionSnapshot.withPaths(current.groups(), Set.of(oldPath), byPath -> movePermission(byPath, oldPath, newPath))));
+	}
+	
+	private static <T extends Identifyable> void movePermission(Map<String, Permission<T>> byPath, String oldPath, String newPath) {
+		Permission<T> permission = byPath.remove(oldPath);
+		if(permission != null){
+			byPath.put(newPath, new Permission<>(permission.id(), permission.getPermission(), new TargetPath(newPath), permission.getRepoId()));
+		}
+	}
+	
+	/**
+	 * @return all cached user permissions
+	 */
+	public List<Permission<UserId>> getCachedUserPermissions() {
+		return permissions.get().users().values().stream().flatMap(idPermissions -> idPermissions.all().stream()).toList();
+	}
+	
+	/**
+	 * @return all cached group permissions
+	 */
+	public List<Permission<GroupId>> getCachedGroupPermissions() {
+		return permissions.get().groups().values().stream().flatMap(idPermissions -> idPermissions.all().stream()).toList();
 	}
 	
 	/**
@@ -67,18 +242,14 @@ public class PermissionFunctions implements IDBFunctions, PermissionCalls{
 	 * @return a list of permissions for the user
 	 */
 	public Set<Permission<UserId>> loadUserPermissions(Connection connection, UserId userId) throws CoreSqlException {
-		try(PreparedStatement statement = connection.prepareStatement("SELECT type,path,user_id FROM UserPermissions WHERE user_id = ?")){
-			statement.setString(1, userId.toString());
-			try(var rs = statement.executeQuery()){
-				Set<Permission<UserId>> permissions = new HashSet<>();
-				while(rs.next()){
-					permissions.add(new Permission<>(UserId.of(rs.getString("user_id")),
+		try{
+			return new HashSet<>(statements.query(connection,
+					"SELECT type,path,user_id FROM UserPermissions WHERE user_id = ?",
+					StatementCache.Binder.of(userId.toString()),
+					rs -> new Permission<>(UserId.of(rs.getString("user_id")),
 							PermissionType.valueOf(rs.getString("type")),
 							new TargetPath(rs.getString("path")),
-							database.getRepoId()));
-				}
-				return permissions;
-			}
+							database.getRepoId())));
 		} catch(Exception e){
 			String errorResponse = "Failed to get permissions for user";
 			log.error(errorResponse, e);
@@ -88,19 +259,14 @@ public class PermissionFunctions implements IDBFunctions, PermissionCalls{
 	}
 	
 	public Set<Permission<GroupId>> getPermissionsForGroup(Connection connection, GroupId groupId) throws CoreSqlException {
-		try(var statement = connection.prepareStatement("SELECT group_id,type,path FROM GroupPermissions WHERE group_id = ?")){
-			statement.setString(1, groupId.toString());
-			try(var rs = statement.executeQuery()){
-				Set<Permission<GroupId>> permissions = new HashSet<>();
-				while(rs.next()){
-					permissions.add(new Permission<>(GroupId.of(rs.getString("group_id")),
+		try{
+			return new HashSet<>(statements.query(connection,
+					"SELECT group_id,type,path FROM GroupPermissions WHERE group_id = ?",
+					StatementCache.Binder.of(groupId.toString()),
+					rs -> new Permission<>(GroupId.of(rs.getString("group_id")),
 							PermissionType.valueOf(rs.getString("type")),
 							new TargetPath(rs.getString("path")),
-							database.getRepoId()));
-				}
-				return permissions;
-			}
-			
+							database.getRepoId())));
 		} catch(Exception e){
 			String errorResponse = "Failed to get permissions for group";
 			log.error(errorResponse, e);
@@ -116,152 +282,190 @@ public class PermissionFunctions implements IDBFunctions, PermissionCalls{
 		}
 	}
 	
+	/**
+	 * Waits for a queued permission write
+	 *
+	 * @param future the future of the write
+	 * @param errorMessage the message to log if the write failed
+	 * @return true if the write was committed
+	 */
+	private static boolean awaitWrite(CompletableFuture<Boolean> future, String errorMessage) {
+		try{
+			return WriteQueue.await(future);
+		} catch(CoreSqlException e){
+			log.error(errorMessage, e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Queues a permission write, the caches are updated on the writer thread once it is committed
+	 *
+	 * @param sql the statement to execute
+	 * @param binder binds the parameters of the statement
+	 * @param afterCommit publishes the changed permissions after the write was committed
+	 * @return completes with true once the write was committed and the caches updated
+	 */
+	private CompletableFuture<Boolean> write(String sql, StatementCache.Binder binder, Runnable afterCommit) {
+		return database.getWriteQueue().submit(connection -> statements.update(connection, sql, binder), rows -> {
+			afterCommit.run();
+			return true;
+		});
+	}
+	
 	@Override
 	public boolean addPermissionToGroup(RepoId repoId, Permission<GroupId> permission) {
+		return awaitWrite(addPermissionToGroupAsync(repoId, permission), "Failed to add permission to group");
+	}
+	
+	/**
+	 * Queues adding a permission to a group, the cache is only updated once the write is committed
+	 */
+	public CompletableFuture<Boolean> addPermissionToGroupAsync(RepoId repoId, Permission<GroupId> permission) {
 		log.info("Adding permission '{}' to group '{}' in repo '{}'", permission.getPath(), permission.getId(), repoId.id());
-		Connection connection = database.getConnection();
-		try(var statement = connection.prepareStatement("INSERT INTO GroupPermissions(group_id, path, type) VALUES(?,?,?)")){
-			statement.setString(1, permission.getId());
-			statement.setString(2, permission.getPath().toString());
-			statement.setString(3, permission.getPermission().name());
-			statement.executeUpdate();
-			groupPermissions.computeIfAbsent(permission.id(), k -> new HashMap<>()).put(permission.getPath().toString(), permission);
-			log.info("Permission '{}' added to group '{}' in repo '{}'", permission.getPath(), permission.getId(), repoId.id());
-			return true;
-		} catch(Exception e){
-			log.error("Failed to add permission to group", e);
-			return false;
-		} finally{
-			closeConnection(connection);
-		}
+		return write("INSERT INTO GroupPermissions(group_id, path, type) VALUES(?,?,?)",
+				StatementCache.Binder.of(permission.getId(), permission.getPath().toString(), permission.getPermission().name()),
+				() -> {
+					publish(current -> current.withGroup(permission.id(), byPath -> byPath.put(permission.getPath().toString(), permission)));
+					log.info("Permission '{}' added to group '{}' in repo '{}'", permission.getPath(), permission.getId(), repoId.id());
+				});
 	}
 	
 	@Override
 	public boolean removePermissionFromGroup(RepoId repoId, GroupId groupId, TargetPath path) {
+		return awaitWrite(removePermissionFromGroupAsync(repoId, groupId, path), "Failed to remove permission from group");
+	}
+	
+	/**
+	 * Queues removing a permission from a group, the cache is only updated once the write is committed
+	 */
+	public CompletableFuture<Boolean> removePermissionFromGroupAsync(RepoId repoId, GroupId groupId, TargetPath path) {
 		log.info("Removing permission '{}' from group '{}' in repo '{}'", path, groupId, repoId.id());
-		Connection connection = database.getConnection();
-		try(var statement = connection.prepareStatement("DELETE FROM GroupPermissions WHERE group_id = ? AND path = ?")){
-			statement.setString(1, groupId.id());
-			statement.setString(2, path.toString());
-			statement.executeUpdate();
-			groupPermissions.computeIfAbsent(groupId, k -> new HashMap<>()).remove(path.toString());
-			log.info("Permission '{}' removed from group '{}' in repo '{}'", path, groupId, repoId.id());
-			return true;
-		} catch(Exception e){
-			log.error("Failed to remove permission from group", e);
-			return false;
-		} finally{
-			closeConnection(connection);
-		}
+		return write("DELETE FROM GroupPermissions WHERE group_id = ? AND path = ?",
+				StatementCache.Binder.of(groupId.id(), path.toString()),
+				() -> {
+					publish(current -> current.withGroup(groupId, byPath -> byPath.remove(path.toString())));
+					log.info("Permission '{}' removed from group '{}' in repo '{}'", path, groupId, repoId.id());
+				});
 	}
 	
 	@Override
 	public boolean updatePermissionForGroup(RepoId repoId, Permission<GroupId> permission) {
+		return awaitWrite(updatePermissionForGroupAsync(repoId, permission), "Failed to update permission in group");
+	}
+	
+	/**
+	 * Queues updating a permission of a group, the cache is only updated once the write is committed
+	 */
+	public CompletableFuture<Boolean> updatePermissionForGroupAsync(RepoId repoId, Permission<GroupId> permission) {
 		log.info("Updating permission '{}' in group '{}' in repo '{}'", permission.getPath(), permission.getId(), repoId.id());
-		Connection connection = database.getConnection();
-		try(var statement = connection.prepareStatement("UPDATE GroupPermissions SET type = ? WHERE group_id = ? AND path = ?")){
-			statement.setString(1, permission.getPermission().name());
-			statement.setString(2, permission.getId());
-			statement.setString(3, permission.getPath().toString());
-			statement.executeUpdate();
-			groupPermissions.computeIfAbsent(permission.id(), k -> new HashMap<>()).put(permission.getPath().toString(), permission);
-			log.info("Permission '{}' updated in group '{}' in repo '{}'", permission.getPath(), permission.getId(), repoId.id());
-			return true;
-		} catch(Exception e){
-			log.error("Failed to update permission in group", e);
-			return false;
-		} finally{
-			closeConnection(connection);
-		}
+		return write("UPDATE GroupPermissions SET type = ? WHERE group_id = ? AND path = ?",
+				StatementCache.Binder.of(permission.getPermission().name(), permission.getId(), permission.getPath().toString()),
+				() -> {
+					publish(current -> current.withGroup(permission.id(), byPath -> byPath.put(permission.getPath().toString(), permission)));
+					log.info("Permission '{}' updated in group '{}' in repo '{}'", permission.getPath(), permission.getId(), repoId.id());
+				});
 	}
 	
 	@Override
 	public boolean addPermissionToUser(RepoId repoId, Permission<UserId> permission) {
-		Connection connection = database.getConnection();
-		try(var statement = connection.prepareStatement("INSERT INTO UserPermissions(user_id, path, type) VALUES(?,?,?)")){
-			statement.setString(1, permission.getId());
-			statement.setString(2, permission.getPath().toString());
-			statement.setString(3, permission.getPermission().name());
-			statement.executeUpdate();
-			
-			userPermissions.computeIfAbsent(permission.id(), k -> new HashMap<>()).put(permission.getPath().toString(), permission);
-			return true;
-		} catch(Exception e){
-			log.error("Failed to add permission to user", e);
-			return false;
-		} finally{
-			closeConnection(connection);
-		}
+		return awaitWrite(addPermissionToUserAsync(repoId, permission), "Failed to add permission to user");
+	}
+	
+	/**
+	 * Queues adding a permission to a user, the cache is only updated once the write is committed
+	 */
+	public CompletableFuture<Boolean> addPermissionToUserAsync(RepoId repoId, Permission<UserId> permission) {
+		return write("INSERT INTO UserPermissions(user_id, path, type) VALUES(?,?,?)",
+				StatementCache.Binder.of(permission.getId(), permission.getPath().toString(), permission.getPermission().name()),
+				() -> {
+					publish(current -> current.withUser(permission.id(), byPath -> byPath.put(permission.getPath().toString(), permission)));
+				});
 	}
 	
 	@Override
 	public boolean removePermissionFromUser(RepoId repoId, UserId userId, TargetPath path) {
+		return awaitWrite(removePermissionFromUserAsync(repoId, userId, path), "Failed to remove permission from user");
+	}
+	
+	/**
+	 * Queues removing a permission from a user, the cache is only updated once the write is committed
+	 */
+	public CompletableFuture<Boolean> removePermissionFromUserAsync(RepoId repoId, UserId userId, TargetPath path) {
 		log.info("Removing permission '{}' from user '{}' in repo '{}'", path, userId, repoId.id());
-		Connection connection = database.getConnection();
-		try(var statement = connection.prepareStatement("DELETE FROM UserPermissions WHERE user_id = ? AND path = ?")){
-			statement.setString(1, userId.id());
-			statement.setString(2, path.toString());
-			statement.executeUpdate();
-			
-			userPermissions.computeIfAbsent(userId, k -> new HashMap<>()).remove(path.toString());
-			log.info("Permission '{}' removed from user '{}' in repo '{}'", path, userId, repoId.id());
-			return true;
-		} catch(Exception e){
-			log.error("Failed to remove permission from user", e);
-			return false;
-		} finally{
-			closeConnection(connection);
-		}
+		return write("DELETE FROM UserPermissions WHERE user_id = ? AND path = ?",
+				StatementCache.Binder.of(userId.id(), path.toString()),
+				() -> {
+					publish(current -> current.withUser(userId, byPath -> byPath.remove(path.toString())));
+					log.info("Permission '{}' removed from user '{}' in repo '{}'", path, userId, repoId.id());
+				});
 	}
 	
-	@SuppressWarnings("DuplicatedCode") // This is a duplicate of the same method in GroupFunctions
 	@Override
 	public boolean updatePermissionForUser(RepoId repoId, Permission<UserId> permission) {
+		return awaitWrite(updatePermissionForUserAsync(repoId, permission), "Failed to update permission for user");
+	}
+	
+	/**
+	 * Queues updating a permission of a user, the cache is only updated once the write is committed
+	 */
+	@SuppressWarnings("DuplicatedCode") // This is a duplicate of the same method in GroupFunctions
+	public CompletableFuture<Boolean> updatePermissionForUserAsync(RepoId repoId, Permission<UserId> permission) {
 		log.info("Updating permission '{}' in user '{}' in repo '{}'", permission.getPath(), permission.getId(), repoId.id());
-		Connection connection = database.getConnection();
-		try(var statement = connection.prepareStatement("UPDATE UserPermissions SET type = ? WHERE user_id = ? AND path = ?")){
-			statement.setString(1, permission.getPermission().name());
-			statement.setString(2, permission.getId());
-			statement.setString(3, permission.getPath().toString());
-			statement.executeUpdate();
-			
-			userPermissions.computeIfAbsent(permission.id(), k -> new HashMap<>()).put(permission.getPath().toString(), permission);
-			log.info("Permission '{}' updated in user '{}' in repo '{}'", permission.getPath(), permission.getId(), repoId.id());
-			return true;
-		} catch(Exception e){
-			log.error("Failed to update permission for user", e);
-			return false;
-		} finally{
-			closeConnection(connection);
-		}
+		return write("UPDATE UserPermissions SET type = ? WHERE user_id = ? AND path = ?",
+				StatementCache.Binder.of(permission.getPermission().name(), permission.getId(), permission.getPath().toString()),
+				() -> {
+					publish(current -> current.withUser(permission.id(), byPath -> byPath.put(permission.getPath().toString(), permission)));
+					log.info("Permission '{}' updated in user '{}' in repo '{}'", permission.getPath(), permission.getId(), repoId.id());
+				});
 	}
 	
 	@Override
 	public Set<Permission<UserId>> getPermissionsForUser(RepoId repoId, UserId userId) {
-		if(!userPermissions.containsKey(userId)){
-			return Set.of();
-		}
-		
-		var permissionMap = userPermissions.get(userId);
-		if(permissionMap == null){
-			return Set.of();
-		}
-		
-		return new HashSet<>(permissionMap.values());
+		IdPermissions<UserId> userPermissions = permissions.get().users().get(userId);
+		return userPermissions == null ? Set.of() : userPermissions.all();
 	}
 	
 	@Override
 	public Set<Permission<GroupId>> getPermissionsForGroup(RepoId repoId, GroupId groupId) {
-		if(!groupPermissions.containsKey(groupId)){
-			return Set.of();
+		IdPermissions<GroupId> groupPermissions = permissions.get().groups().get(groupId);
+		return groupPermissions == null ? Set.of() : groupPermissions.all();
+	}
+	
+	@Override
+	public Map<Path, PermissionType> getPermissionsForResources(RepoId repoId, UserId userId, PathIndex pathIndex, Set<Path> resources) {
+		return getEvaluator(userId).evaluate(pathIndex, resources);
+	}
+	
+	/**
+	 * Gets the compiled permissions of a user including the permissions of its groups, compiling them if they are not cached or outdated
+	 *
+	 * @param userId the user to get the permissions for
+	 * @return the compiled permissions
+	 */
+	public PermissionEvaluator getEvaluator(UserId userId) {
+		UserDatabase userDB = database.getFileRepository().getUserDB();
+		//compiled from a single snapshot so it matches the version it is cached with
+		PermissionSnapshot snapshot = permissions.get();
+		long currentMembershipVersion = userDB.getMembershipVersion();
+		
+		CachedEvaluator cached = evaluators.get(userId);
+		if(cached != null && cached.permissionVersion() == snapshot.version() && cached.membershipVersion() == currentMembershipVersion){
+			return cached.evaluator();
 		}
 		
-		var permissionMap = groupPermissions.get(groupId);
-		if(permissionMap == null){
-			return Set.of();
+		Set<Permission<GroupId>> permissionsFromGroups = new HashSet<>();
+		for(Group group : userDB.getGroupsFromUser(userId)){
+			IdPermissions<GroupId> groupPermissions = group == null ? null : snapshot.groups().get(group.getId());
+			if(groupPermissions != null){
+				permissionsFromGroups.addAll(groupPermissions.all());
+			}
 		}
 		
-		return new HashSet<>(permissionMap.values());
+		IdPermissions<UserId> userPermissions = snapshot.users().get(userId);
+		PermissionEvaluator evaluator = PermissionEvaluator.compile(userPermissions == null ? Set.of() : userPermissions.all(), permissionsFromGroups);
+		evaluators.put(userId, new CachedEvaluator(snapshot.version(), currentMembershipVersion, evaluator));
+		return evaluator;
 	}
 	
 	/**
@@ -272,11 +476,8 @@ public class PermissionFunctions implements IDBFunctions, PermissionCalls{
 	 * @return true if the group has the permission
 	 */
 	public boolean groupHasPermission(GroupId groupId, TargetPath path) {
-		
-		if(!groupPermissions.containsKey(groupId)){
-			return false;
-		}
-		return groupPermissions.get(groupId).containsKey(path.toString());
+		IdPermissions<GroupId> groupPermissions = permissions.get().groups().get(groupId);
+		return groupPermissions != null && groupPermissions.byPath().containsKey(path.toString());
 	}
 	
 	/**
@@ -288,11 +489,12 @@ public class PermissionFunctions implements IDBFunctions, PermissionCalls{
 	 * @return true if the group has the permission
 	 */
 	public boolean groupHasPermission(GroupId groupId, TargetPath path, PermissionType permission) {
-		if(!groupPermissions.containsKey(groupId)){
+		IdPermissions<GroupId> groupPermissions = permissions.get().groups().get(groupId);
+		if(groupPermissions == null){
 			return false;
 		}
 		
-		Permission<GroupId> groupIdPermission = groupPermissions.get(groupId).get(path.toString());
+		Permission<GroupId> groupIdPermission = groupPermissions.byPath().get(path.toString());
 		return groupIdPermission != null && groupIdPermission.getPermission().equals(permission);
 	}
 	
@@ -304,10 +506,8 @@ public class PermissionFunctions implements IDBFunctions, PermissionCalls{
 	 * @return true if the user has the permission
 	 */
 	public boolean userHasPermission(UserId userId, TargetPath path) {
-		if(!userPermissions.containsKey(userId)){
-			return false;
-		}
-		return userPermissions.get(userId).containsKey(path.toString());
+		IdPermissions<UserId> userPermissions = permissions.get().users().get(userId);
+		return userPermissions != null && userPermissions.byPath().containsKey(path.toString());
 	}
 	
 	/**
@@ -319,41 +519,62 @@ public class PermissionFunctions implements IDBFunctions, PermissionCalls{
 	 * @return true if the user has the permission
 	 */
 	public boolean userHasPermission(UserId userId, TargetPath path, PermissionType permission) {
-		if(!userPermissions.containsKey(userId)){
+		IdPermissions<UserId> userPermissions = permissions.get().users().get(userId);
+		if(userPermissions == null){
 			return false;
 		}
 		
-		Permission<UserId> userIdPermission = userPermissions.get(userId).get(path.toString());
+		Permission<UserId> userIdPermission = userPermissions.byPath().get(path.toString());
 		return userIdPermission != null && userIdPermission.getPermission().equals(permission);
 	}
 	
 	/**
 	 * Cleans up the group when it is no longer available, should be called when a group is removed
 	 */
-	public void cleanUpGroup(GroupId groupId) {
-		Connection connection = database.getConnection();
-		try(var statement = connection.prepareStatement("DELETE FROM GroupPermissions WHERE group_id = ?")){
-			statement.setString(1, groupId.id());
-			statement.executeUpdate();
-			groupPermissions.remove(groupId);
-		} catch(Exception e){
-			log.error("Failed to clean up group", e);
-		} finally{
-			closeConnection(connection);
+	/**
+	 * Deletes the permissions of users and groups that no longer exist. Removing a user or group only cleans up repositories that are
+	 * loaded, this catches the ones that were not, so a reused id never inherits the permissions of a removed one.
+	 */
+	public void removeOrphanedPermissions() throws CoreSqlException {
+		UserDatabase userDB = database.getFileRepository().getUserDB();
+		Set<String> users = new HashSet<>();
+		userDB.getUsers().forEach(user -> users.add(user.getId().id()));
+		Set<String> groups = new HashSet<>();
+		userDB.getGroups().forEach(group -> groups.add(group.getId().id()));
+		//the admin user and group always exist, without them the users were not loaded and nothing can be told apart
+		if(users.isEmpty() || groups.isEmpty()){
+			log.warn("Skipped removing orphaned permissions in repo '{}', no users are loaded", database.getRepoId());
+			return;
+		}
+		
+		int removed = database.getWriteQueue().execute(connection -> removeMissing(connection, "UserPermissions", "user_id", users) +
+																	removeMissing(connection, "GroupPermissions", "group_id", groups));
+		if(removed > 0){
+			log.info("Removed {} permissions of deleted users and groups in repo '{}'", removed, database.getRepoId());
 		}
 	}
 	
-	public void cleanUpUser(UserId userId) {
-		Connection connection = database.getConnection();
-		try(var statement = connection.prepareStatement("DELETE FROM UserPermissions WHERE user_id = ?")){
-			statement.setString(1, userId.id());
-			statement.executeUpdate();
-			userPermissions.remove(userId);
-		} catch(Exception e){
-			log.error("Failed to clean up user", e);
-		} finally{
-			closeConnection(connection);
+	private int removeMissing(Connection connection, String table, String column, Set<String> existing) throws SQLException {
+		List<String> ids = statements.query(connection, "SELECT DISTINCT %s FROM %s".formatted(column, table), StatementCache.Binder.NONE, rs -> rs.getString(1));
+		int removed = 0;
+		for(String id : ids){
+			if(!existing.contains(id)){
+				removed += statements.update(connection, "DELETE FROM %s WHERE %s = ?".formatted(table, column), StatementCache.Binder.of(id));
+			}
 		}
+		return removed;
+	}
+	
+	public void cleanUpGroup(GroupId groupId) {
+		awaitWrite(write("DELETE FROM GroupPermissions WHERE group_id = ?",
+				StatementCache.Binder.of(groupId.id()),
+				() -> publish(current -> current.withGroup(groupId, Map::clear))), "Failed to clean up group");
+	}
+	
+	public void cleanUpUser(UserId userId) {
+		awaitWrite(write("DELETE FROM UserPermissions WHERE user_id = ?",
+				StatementCache.Binder.of(userId.id()),
+				() -> publish(current -> current.withUser(userId, Map::clear))), "Failed to clean up user");
 	}
 	
 }
@@ -1,26 +1,40 @@
 package com.wonkglorg.doc.core.db.functions;
 
+import com.wonkglorg.doc.core.RepoProperty;
 import com.wonkglorg.doc.core.db.DbHelper;
 import com.wonkglorg.doc.core.db.RepositoryDatabase;
+import com.wonkglorg.doc.core.db.StatementCache;
+import com.wonkglorg.doc.core.db.WriteQueue;
 import com.wonkglorg.doc.core.exception.CoreException;
 import com.wonkglorg.doc.core.exception.CoreSqlException;
 import com.wonkglorg.doc.core.exception.client.ClientException;
 import com.wonkglorg.doc.core.exception.client.InvalidRepoException;
+import com.wonkglorg.doc.core.index.EditLeases;
+import com.wonkglorg.doc.core.index.PathIndex;
+import com.wonkglorg.doc.core.index.TagIndex;
 import com.wonkglorg.doc.core.interfaces.ResourceCalls;
+import com.wonkglorg.doc.core.interfaces.ResourceChangeListener;
 import com.wonkglorg.doc.core.objects.*;
 import com.wonkglorg.doc.core.request.ResourceRequest;
 import com.wonkglorg.doc.core.request.ResourceUpdateRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.util.AntPathMatcher;
 
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static com.wonkglorg.doc.core.path.TargetPath.normalizePath;
@@ -30,12 +44,29 @@ import static com.wonkglorg.doc.core.path.TargetPath.normalizePath;
  */
 public class ResourceFunctions implements IDBFunctions, ResourceCalls {
 
+    private static final Logger log = LoggerFactory.getLogger(ResourceFunctions.class);
     /**
-     * The path matcher for this database
+     * Search terms up to this length are too short for the trigram index of FileData and get looked up in FileTokens instead
      */
-    private static final AntPathMatcher pathMatcher = new AntPathMatcher();
-    private static final Logger log = LoggerFactory.getLogger(ResourceFunctions.class);
+    public static final int SHORT_TERM_LENGTH = 3;
+    /**
+     * The amount of resources read per query when streaming, the connection is released between the chunks
+     */
+    private static final int STREAM_CHUNK_SIZE = 64;
+    /**
+     * Tags a resource, the parameters are the path of the resource and the tag id
+     */
+    private static final String INSERT_RESOURCE_TAG =
+            "INSERT INTO ResourceTags(resource_id, tag_id) VALUES((SELECT resource_id FROM Resources WHERE resource_path = ?), ?)";
     private final RepositoryDatabase database;
+    /**
+     * The prepared statements of the database, hot statements are taken from it instead of being prepared on every call
+     */
+    private final StatementCache statements;
+    /**
+     * If the content of the resources is stored in FileData, otherwise it is read from the work tree and FileData only holds the index
+     */
+    private final boolean contentStored;
 
     /**
      * The cache of resources for this database
@@ -44,30 +75,46 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
     /**
      * The cache of tags for this database
      */
-    private final Map<TagId, Tag> tagCache = new HashMap<>();
+    private final Map<TagId, Tag> tagCache = new java.util.concurrent.ConcurrentHashMap<>();
+    /**
+     * Maps each tag to the cached resources tagged with it, used for tag filtering
+     */
+    private final TagIndex tagIndex = new TagIndex();
+    /**
+     * Directory trie of the cached resources, used for path filtering and building file trees
+     */
+    private final PathIndex pathIndex = new PathIndex();
+    /**
+     * Listeners notified about committed resource changes
+     */
+    private final List<ResourceChangeListener> changeListeners = new CopyOnWriteArrayList<>();
 
     /**
-     * Keeps track of currently edited files todo add a way to every now and then confirm if its still edited
+     * Keeps track of currently edited files, leases not renewed within the timeout are released by {@link #expireEditLeases()}
      */
-    private final Map<UserId, Path> currentlyEdited = new HashMap<>();
+    private final EditLeases editLeases;
 
     public ResourceFunctions(RepositoryDatabase database) {
         this.database = database;
+        this.statements = database.getStatementCache();
+        this.editLeases = new EditLeases(database.getRepoProperties().getEditLeaseTimeout());
+        this.contentStored = database.getRepoProperties().getContentStorage() == RepoProperty.ContentStorage.DATABASE;
     }
 
     @Override
     public void initialize() {
-        Connection connection = database.getConnection();
+        Connection connection = database.getReadConnection();
         try {
             List<Resource> resources = getAllResources(connection);
             for (Resource resource : resources) {
-                resourceCache.put(resource.resourcePath(), resource);
+                cacheResource(resource);
             }
 
             var allTags = getAllTags(connection);
             for (Tag tag : allTags) {
                 tagCache.put(tag.tagId(), tag);
             }
+            log.info("Cached {} resources and {} tags for '{}'", resources.size(), allTags.size(), database.getRepoId());
         } catch (CoreSqlException e) {
             log.error("Failed to initialize resource functions", e);
         } finally {
@@ -77,41 +124,50 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
     }
 
     /**
-     * Retrieves a list of all resources contained in the given repository databases table(without its content attached)
+     * Retrieves a list of all resources contained in the given repository databases table(without its content attached). The tags of all
+     * resources are read in a single scan and matched to their resource by id in memory instead of querying them per resource.
      */
     private List<Resource> getAllResources(Connection connection) throws CoreSqlException {
-        List<Resource> resources = new ArrayList<>();
-        String query = "SELECT resource_path, created_at, created_by, last_modified_at, last_modified_by, category " + "FROM Resources";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            ResultSet resultSet = statement.executeQuery();
+        Map<Long, Resource> resources = new LinkedHashMap<>();
+        String query = "SELECT resource_id, resource_path, created_at, created_by, last_modified_at, last_modified_by, category " + "FROM Resources";
+        try (PreparedStatement statement = connection.prepareStatement(query);
+             ResultSet resultSet = statement.executeQuery()) {
             while (resultSet.next()) {
-                resources.add(resourceFromResultSet(resultSet, new HashSet<>(), null, database));
+                resources.put(resultSet.getLong("resource_id"), resourceFromResultSet(resultSet, new HashSet<>(), null, database));
             }
+        } catch (SQLException e) {
+            throw new CoreSqlException("Failed to get all resources", e);
+        }
 
-            for (Resource resource : resources) {
-                var tags = fetchTagsForResources(connection, normalizePath(resource.resourcePath().toString()));
-                resource.setTags(tags.keySet());
+        String tagQuery = """
+                SELECT ResourceTags.resource_id, ResourceTags.tag_id
+                FROM ResourceTags
+                JOIN Tags ON ResourceTags.tag_id = Tags.tag_id""";
+        try (PreparedStatement statement = connection.prepareStatement(tagQuery);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                Resource resource = resources.get(resultSet.getLong("resource_id"));
+                if (resource != null) {
+                    resource.getResourceTags().add(new TagId(resultSet.getString("tag_id")));
+                }
             }
-            return resources;
         } catch (SQLException e) {
-            throw new CoreSqlException("Failed to get all resources", e);
+            throw new CoreSqlException("Failed to get the tags of all resources", e);
         }
+        return new ArrayList<>(resources.values());
     }
 
-    private static Map<TagId, Tag> fetchTagsForResources(Connection connection, String path) throws SQLException {
+    private Map<TagId, Tag> fetchTagsForResources(Connection connection, String path) throws SQLException {
         Map<TagId, Tag> tags = new HashMap<>();
         String query = """
                 SELECT Tags.tag_id, tag_name
                 FROM ResourceTags
                 JOIN Tags ON ResourceTags.tag_id = Tags.tag_id
-                WHERE resource_path = ?""";
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, normalizePath(path));
-            ResultSet resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                TagId tagId = new TagId(resultSet.getString(1));
-                tags.put(tagId, new Tag(tagId, resultSet.getString(2)));
-            }
+                JOIN Resources ON Resources.resource_id = ResourceTags.resource_id
+                WHERE Resources.resource_path = ?""";
+        for (Tag tag : statements.query(connection, query, StatementCache.Binder.of(normalizePath(path)),
+                resultSet -> new Tag(new TagId(resultSet.getString(1)), resultSet.getString(2)))) {
+            tags.put(tag.tagId(), tag);
         }
         return tags;
     }
@@ -148,64 +204,172 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
      * @param request the resource request
      */
     public Map<Path, String> findByContent(ResourceRequest request) throws CoreException {
+        Map<Path, String> resources = new HashMap<>();
+        queryContent(request, null, request.getReturnLimit(), null, match -> {
+            resources.put(match.path(), match.content());
+            return true;
+        });
+        return resources;
+    }
+
+    /**
+     * A row of the content query
+     *
+     * @param path    the path of the resource
+     * @param content the content of the resource, an excerpt around the matches for ranked searches or null if no data was requested
+     * @param score   the relevance of the resource for ranked searches (higher is more relevant), null otherwise
+     */
+    private record ContentMatch(Path path, String content, Double score) {
+    }
+
+    /**
+     * Runs the content query of a request, passing each row to the consumer as it is read instead of collecting all of them first. Ranked
+     * searches are ordered by their bm25 score and return snippets around the matches instead of the whole data. Queries reading in path
+     * order are never ranked.
+     *
+     * @param request   the resource request
+     * @param after     if not null only resources with a path after it are read, in path order
+     * @param limit     the maximum amount of rows passed to the consumer
+     * @param candidate filters the rows by their path, rows not passing it are skipped without counting towards the limit, null to pass
+     *                  every row
+     * @param consumer  receives each matching resource, returns false to stop reading further rows
+     */
+    private void queryContent(ResourceRequest request, String after, int limit, Predicate<Path> candidate, Predicate<ContentMatch> consumer)
+            throws CoreException {
         String sqlScript;
+        String searchTerm = request.getSearchTerm();
+        boolean ranked = after == null && isRankedSearch(request);
+        boolean tokenSearch = searchTerm != null && searchTerm.length() <= SHORT_TERM_LENGTH && isTokenSearchable(searchTerm);
+        //without stored content short terms that can not be looked up in the token index are matched against the work tree
+        boolean filterContent = !contentStored && searchTerm != null && searchTerm.length() <= SHORT_TERM_LENGTH && !tokenSearch;
 
         if (request.getSearchTerm() == null) {
             sqlScript = """
-                    SELECT FileData.resource_path,
+                    SELECT %1$s AS resource_path,
+                           CASE
+                               WHEN ? IS NOT NULL THEN %2$s
+                               WHEN ? IS NOT NULL THEN %2$s --just temp to match the same parameters
+                               END AS fileContent,
+                           NULL AS score
+                      FROM %3$s
+                     WHERE %1$s LIKE ?
+                    """;
+        } else if (ranked) {
+            //bm25 scores are negative with lower values being more relevant, negating them gives a more natural score
+            sqlScript = """
+                    SELECT %1$s AS resource_path,
                            CASE
-                               WHEN ? IS NOT NULL THEN data
-                               WHEN ? IS NOT NULL THEN data --just temp to match the same parameters
-                               END AS fileContent
-                      FROM FileData
-                     WHERE FileData.resource_path LIKE ?
-                     LIMIT ?;
+                               WHEN ? IS NOT NULL THEN %4$s
+                               END AS fileContent,
+                           -bm25(FileData) AS score
+                      FROM %3$s
+                     WHERE data MATCH ?
+                       AND %1$s LIKE ?
                     """;
         } else {
-            if (request.getSearchTerm().length() > 3) {
+            if (searchTerm.length() > SHORT_TERM_LENGTH) {
                 sqlScript = """
-                        SELECT FileData.resource_path,
+                        SELECT %1$s AS resource_path,
                                CASE
-                                   WHEN ? IS NOT NULL THEN data
-                                   END AS fileContent
-                          FROM FileData
+                                   WHEN ? IS NOT NULL THEN %2$s
+                                   END AS fileContent,
+                               NULL AS score
+                          FROM %3$s
                          WHERE data MATCH ?
-                           AND FileData.resource_path LIKE ?
-                         LIMIT ?;
+                           AND %1$s LIKE ?
+                        """;
+            } else if (tokenSearch) {
+                //prefix lookup in the short term index instead of scanning every document
+                sqlScript = """
+                        SELECT %1$s AS resource_path,
+                               CASE
+                                   WHEN ? IS NOT NULL THEN %2$s
+                                   END AS fileContent,
+                               NULL AS score
+                          FROM %3$s
+                         WHERE FileData.rowid IN (SELECT rowid FROM FileTokens WHERE FileTokens MATCH ?)
+                           AND %1$s LIKE ?
+                        """;
+            } else if (filterContent) {
+                sqlScript = """
+                        SELECT %1$s AS resource_path,
+                               CASE
+                                   WHEN ? IS NOT NULL THEN NULL
+                                   WHEN ? IS NOT NULL THEN NULL --just temp to match the same parameters
+                                   END AS fileContent,
+                               NULL AS score
+                          FROM %3$s
+                         WHERE %1$s LIKE ?
                         """;
             } else {
                 sqlScript = """
-                        SELECT FileData.resource_path,
+                        SELECT %1$s AS resource_path,
                                CASE
-                                   WHEN ? IS NOT NULL THEN data
-                                   END AS fileContent
-                          FROM FileData
-                         WHERE data LIKE '%' || ? || '%'
-                           AND FileData.resource_path LIKE ?
-                         LIMIT ?;
+                                   WHEN ? IS NOT NULL THEN %2$s
+                                   END AS fileContent,
+                               NULL AS score
+                          FROM %3$s
+                         WHERE data LIKE '%%' || ? || '%%'
+                           AND %1$s LIKE ?
                         """;
             }
         }
 
-        Connection connection = database.getConnection();
+        if (after != null) {
+            sqlScript += " AND %1$s > ? ORDER BY %1$s";
+        } else if (ranked) {
+            //the limit only keeps the top results
+            sqlScript += " ORDER BY score DESC";
+        }
+        sqlScript += " LIMIT ?;";
+
+        //without stored content the content is read from the work tree once a row was read and snippets can not be created
+        String from = "FileData JOIN Resources ON Resources.resource_id = FileData.rowid";
+        if (contentStored) {
+            sqlScript = sqlScript.formatted("Resources.resource_path", "FileData.data", from, "snippet(FileData, 0, '<mark>', '</mark>', '...', 64)");
+        } else {
+            sqlScript = sqlScript.formatted("Resources.resource_path", "NULL", from, "NULL");
+        }
+
+        Connection connection = database.getReadConnection();
         try (PreparedStatement statement = connection.prepareStatement(sqlScript)) {
-            Map<Path, String> resources = new HashMap<>();
-            statement.setString(1, request.isWithData() ? "anything" : null);
-            statement.setString(2, request.getSearchTerm());
+            statement.setString(1, request.isWithData() || ranked ? "anything" : null);
+            statement.setString(2, tokenSearch ? "\"" + searchTerm + "\"*" : searchTerm);
             statement.setString(3, DbHelper.convertAntPathToSQLLike(request.getPath()));
-            statement.setInt(4, request.getReturnLimit());
-            ResultSet resultSet = statement.executeQuery();
-
-            while (resultSet.next()) {
-                resources.put(Path.of(resultSet.getString("resource_path")), resultSet.getString("fileContent"));
+            int index = 4;
+            if (after != null) {
+                statement.setString(index++, after);
             }
+            //the matches are only known after reading the content or filtering the rows, so the limit is applied while reading
+            statement.setInt(index, filterContent || candidate != null ? -1 : limit);
+            ResultSet resultSet = statement.executeQuery();
 
-            if (resources.isEmpty()) {
-                return new HashMap<>();
+            int matches = 0;
+            while (matches < limit && resultSet.next()) {
+                Path path = Path.of(resultSet.getString("resource_path"));
+                if (candidate != null && !candidate.test(path)) {
+                    continue;
+                }
+                String content = resultSet.getString("fileContent");
+                double score = resultSet.getDouble("score");
+                Double matchScore = resultSet.wasNull() ? null : score;
+                if (!contentStored && (request.isWithData() || filterContent)) {
+                    content = readContent(path);
+                    if (filterContent && !content.contains(searchTerm)) {
+                        continue;
+                    }
+                    if (!request.isWithData()) {
+                        content = null;
+                    }
+                }
+                matches++;
+                if (!consumer.test(new ContentMatch(path, content, matchScore))) {
+                    break;
+                }
             }
-
-            return resources;
-
+        } catch (UncheckedIOException e) {
+            //failures of the consumer writing the results are not database errors
+            throw e;
         } catch (Exception e) {
             log.error("Failed to find resource by content", e);
             throw new CoreSqlException("An unexpected error occured while searching resources!", e);
@@ -214,6 +378,23 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
         }
     }
 
+    /**
+     * @return true if the request is ordered by relevance, only search terms using the trigram index can be ranked
+     */
+    private static boolean isRankedSearch(ResourceRequest request) {
+        return request.isRanked() && request.getSearchTerm() != null && request.getSearchTerm().length() > SHORT_TERM_LENGTH;
+    }
+
+    /**
+     * Checks if a search term can be looked up in the short term index, which only knows about letters and digits
+     *
+     * @param searchTerm the search term
+     * @return true if the term only consists of letters and digits
+     */
+    private static boolean isTokenSearchable(String searchTerm) {
+        return !searchTerm.isEmpty() && searchTerm.chars().allMatch(Character::isLetterOrDigit);
+    }
+
     /**
      * Fetches a resource from the database
      *
@@ -222,14 +403,15 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
      * @return the resource or null if it does not exist
      */
     private Resource getResource(Connection connection, Path path) {
-        try (PreparedStatement statement = connection.prepareStatement("SELECT * FROM Resources WHERE resource_path = ?")) {
-            statement.setString(1, normalizePath(path.toString()));
-            ResultSet resultSet = statement.executeQuery();
-            if (resultSet.next()) {
-                var tags = fetchTagsForResources(connection, path.toString());
-                return resourceFromResultSet(resultSet, tags.keySet(), null, database);
+        try {
+            Resource resource = statements.queryFirst(connection,
+                    "SELECT * FROM Resources WHERE resource_path = ?",
+                    StatementCache.Binder.of(normalizePath(path.toString())),
+                    resultSet -> resourceFromResultSet(resultSet, Set.of(), null, database));
+            if (resource != null) {
+                resource.setTags(fetchTagsForResources(connection, path.toString()).keySet());
             }
-            return null;
+            return resource;
         } catch (SQLException e) {
             log.error("Failed to get resource", e);
             return null;
@@ -237,18 +419,38 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
     }
 
     /**
-     * Updates the data of a resource in the database
+     * Updates the data of a resource in the database, the indexed data is left untouched if the content did not change
      *
      * @param connection   the connection to the database
      * @param resourcePath the path to the resource
      * @param data         the data to update the resource with
+     * @return true if the content changed
      * @throws CoreSqlException
      */
-    private void updateResourceData(Connection connection, Path resourcePath, String data) throws CoreSqlException {
-        try (PreparedStatement statement = connection.prepareStatement("UPDATE FileData SET data = ? WHERE resource_path = ?")) {
-            statement.setString(1, data);
-            statement.setString(2, normalizePath(resourcePath.toString()));
-            statement.executeUpdate();
+    private boolean updateResourceData(Connection connection, Path resourcePath, String data) throws CoreSqlException {
+        String path = normalizePath(resourcePath.toString());
+        String hash = DbHelper.hashContent(data);
+        try {
+            String storedHash = statements.queryFirst(connection,
+                    "SELECT content_hash FROM Resources WHERE resource_path = ?",
+                    StatementCache.Binder.of(path),
+                    resultSet -> resultSet.getString("content_hash"));
+            if (hash.equals(storedHash)) {
+                return false;
+            }
+        } catch (Exception e) {
+            String errorResponse = "Failed to read content hash of resource at path %s".formatted(resourcePath);
+            log.error(errorResponse, e);
+            throw new CoreSqlException(errorResponse, e);
+        }
+
+        try {
+            DataWriter writer = new DataWriter(connection);
+            writer.delete(path);
+            writer.insert(path, data);
+
+            statements.update(connection, "UPDATE Resources SET content_hash = ? WHERE resource_path = ?", StatementCache.Binder.of(hash, path));
+            return true;
         } catch (Exception e) {
             String errorResponse = "Failed to update resource data at path %s".formatted(resourcePath);
             log.error(errorResponse, e);
@@ -265,7 +467,9 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
      * @return
      */
     private void updateResourceTagsSet(Connection connection, Path resourcePath, Set<TagId> tags) throws CoreSqlException {
-        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM ResourceTags WHERE resource_path = ?")) {
+        try {
+            PreparedStatement statement = statements.prepare(connection,
+                    "DELETE FROM ResourceTags WHERE resource_id = (SELECT resource_id FROM Resources WHERE resource_path = ?)");
             statement.setString(1, normalizePath(resourcePath.toString()));
             statement.executeUpdate();
         } catch (Exception e) {
@@ -273,7 +477,8 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
             throw new CoreSqlException(errorResponse, e);
         }
 
-        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO ResourceTags(resource_path, tag_id) VALUES(?, ?)")) {
+        try {
+            PreparedStatement statement = statements.prepare(connection, INSERT_RESOURCE_TAG);
             for (var tag : tags) {
                 statement.setString(1, normalizePath(resourcePath.toString()));
                 statement.setString(2, tag.id());
@@ -316,7 +521,9 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
      * @return
      */
     private void updateResourceTagsRemove(Connection connection, Path resourcePath, Set<TagId> tags) throws CoreSqlException {
-        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM ResourceTags WHERE resource_path = ? AND tag_id = ?")) {
+        try {
+            PreparedStatement statement = statements.prepare(connection,
+                    "DELETE FROM ResourceTags WHERE resource_id = (SELECT resource_id FROM Resources WHERE resource_path = ?) AND tag_id = ?");
             for (var tag : tags) {
                 statement.setString(1, normalizePath(resourcePath.toString()));
                 statement.setString(2, tag.id());
@@ -338,7 +545,8 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
      * @return
      */
     private void updateResourceTagsAdd(Connection connection, Path resourcePath, Set<TagId> tags) throws CoreSqlException {
-        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO ResourceTags(resource_path, tag_id) VALUES(?, ?)")) {
+        try {
+            PreparedStatement statement = statements.prepare(connection, INSERT_RESOURCE_TAG);
             for (var tag : tags) {
                 statement.setString(1, normalizePath(resourcePath.toString()));
                 statement.setString(2, tag.id());
@@ -352,293 +560,437 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
     }
 
     /**
-     * Batch inserts a list of resources into the database
+     * Batch inserts a list of resources into the database, caching them once they are committed
      *
      * @param resources the resources to insert
      */
     public void batchInsertResources(List<Resource> resources) throws CoreSqlException {
-        Connection connection = database.getConnection();
         try {
-            int affectedRows = 0;
-            try (var statement = connection.prepareStatement(
-                    "INSERT INTO Resources(resource_path, created_at, created_by, last_modified_at, last_modified_by,category)VALUES(?, ?, ?, ?, ?, ?)")) {
-                connection.setAutoCommit(false);
-                for (var resource : resources) {
-                    statement.setString(1, resource.resourcePath().toString());
-                    statement.setString(2, DateHelper.fromDateTime(resource.createdAt()));
-                    statement.setString(3, resource.createdBy());
-                    statement.setString(4, DateHelper.fromDateTime(resource.modifiedAt()));
-                    statement.setString(5, resource.modifiedBy());
-                    statement.setString(6, resource.category());
-                    statement.addBatch();
+            database.getWriteQueue().execute(connection -> {
+                int affectedRows = 0;
+                try (var statement = connection.prepareStatement(
+                        "INSERT INTO Resources(resource_path, created_at, created_by, last_modified_at, last_modified_by,category,content_hash)VALUES(?, ?, ?, ?, ?, ?, ?)")) {
+                    for (var resource : resources) {
+                        statement.setString(1, resource.resourcePath().toString());
+                        statement.setString(2, DateHelper.fromDateTime(resource.createdAt()));
+                        statement.setString(3, resource.createdBy());
+                        statement.setString(4, DateHelper.fromDateTime(resource.modifiedAt()));
+                        statement.setString(5, resource.modifiedBy());
+                        statement.setString(6, resource.category());
+                        statement.setString(7, DbHelper.hashContent(resource.data()));
+                        statement.addBatch();
+                    }
+                    affectedRows += Arrays.stream(statement.executeBatch()).sum();
                 }
-                affectedRows += Arrays.stream(statement.executeBatch()).sum();
-            }
 
-            try (var statement = connection.prepareStatement("INSERT INTO FileData(resource_path, data )VALUES(?, ?)")) {
+                DataWriter writer = new DataWriter(connection);
                 for (var resource : resources) {
                     if (resource.data() == null) {
                         continue;
                     }
-                    statement.setString(1, resource.resourcePath().toString());
-                    statement.setString(2, resource.data());
-                    statement.addBatch();
+                    affectedRows += writer.insert(resource.resourcePath().toString(), resource.data());
                 }
-                affectedRows += Arrays.stream(statement.executeBatch()).sum();
-                connection.commit();
-            }
-        } catch (Exception e) {
-            try {
-                connection.rollback();
-            } catch (SQLException ex) {
-                log.error("This should not happen", ex);
-            }
+                return affectedRows;
+            }, affectedRows -> {
+                resources.forEach(this::cacheResource);
+                return affectedRows;
+            });
+        } catch (CoreSqlException e) {
             log.error("Failed to batch insert resources", e);
             throw new CoreSqlException("Failed to batch insert resources", e);
-        } finally {
-            closeConnection(connection);
         }
     }
 
     /**
-     * Batch updates a list of resources in the database.
+     * Batch updates a list of resources in the database, caching them once they are committed. The indexed data is only rewritten for
+     * resources whose content hash changed.
      *
      * @param resources the resources to update
+     * @return the resources whose content changed
      */
-    public void batchUpdateResources(List<Resource> resources) throws CoreSqlException {
-        Connection connection = database.getConnection();
+    public List<Resource> batchUpdateResources(List<Resource> resources) throws CoreSqlException {
         try {
-            int affectedRows = 0;
-            try (var statement = connection.prepareStatement("UPDATE Resources " +
-                    "SET last_modified_at = ?, last_modified_by = ?, category = ?" +
-                    "WHERE resource_path = ?")) {
-
-                connection.setAutoCommit(false);
-                for (var resource : resources) {
-                    statement.setString(1, DateHelper.fromDateTime(resource.modifiedAt()));
-                    statement.setString(2, resource.modifiedBy());
-                    statement.setString(3, resource.category());
-                    statement.setString(4, resource.resourcePath().toString());
-                    statement.addBatch();
-                }
-                affectedRows += Arrays.stream(statement.executeBatch()).sum();
-            }
-
-            //deleting and reinserting the filedata
-            try (var deleteStatement = connection.prepareStatement("DELETE FROM FileData WHERE resource_path = ?");
-                 var insertStatement = connection.prepareStatement("INSERT INTO FileData(resource_path, data) VALUES(?, ?)")) {
-
-                for (var resource : resources) {
-                    if (resource.data() == null) {
-                        continue;
+            List<Resource> changed = database.getWriteQueue().execute(connection -> {
+                List<Resource> changedResources = new ArrayList<>();
+                try (var statement = connection.prepareStatement("UPDATE Resources " +
+                        "SET last_modified_at = ?, last_modified_by = ?, category = ?, content_hash = COALESCE(?, content_hash) " +
+                        "WHERE resource_path = ?")) {
+
+                    for (var resource : resources) {
+                        String hash = DbHelper.hashContent(resource.data());
+                        //only the hashes of the updated resources are looked up, so the cost does not grow with the repository
+                        String storedHash = hash == null ? null : statements.queryFirst(connection,
+                                "SELECT content_hash FROM Resources WHERE resource_path = ?",
+                                StatementCache.Binder.of(resource.resourcePath().toString()),
+                                resultSet -> resultSet.getString("content_hash"));
+                        if (hash != null && !hash.equals(storedHash)) {
+                            changedResources.add(resource);
+                        }
+                        statement.setString(1, DateHelper.fromDateTime(resource.modifiedAt()));
+                        statement.setString(2, resource.modifiedBy());
+                        statement.setString(3, resource.category());
+                        statement.setString(4, hash);
+                        statement.setString(5, resource.resourcePath().toString());
+                        statement.addBatch();
                     }
-
-                    // Delete existing entry
-                    deleteStatement.setString(1, resource.resourcePath().toString());
-                    deleteStatement.addBatch();
-
-                    // Reinsert new data
-                    insertStatement.setString(1, resource.resourcePath().toString());
-                    insertStatement.setString(2, resource.data());
-                    insertStatement.addBatch();
+                    statement.executeBatch();
                 }
 
-                deleteStatement.executeBatch(); // Ensure deletions are executed first
-                affectedRows += Arrays.stream(insertStatement.executeBatch()).sum();
-            }
-
-            connection.commit();
-        } catch (Exception e) {
-            try {
-                connection.rollback();
-            } catch (SQLException ex) {
-                log.error("Rollback failed", ex);
-            }
+                //deleting and reinserting the filedata
+                DataWriter writer = new DataWriter(connection);
+                for (var resource : changedResources) {
+                    writer.delete(resource.resourcePath().toString());
+                    writer.insert(resource.resourcePath().toString(), resource.data());
+                }
+                return changedResources;
+            }, changedResources -> {
+                resources.forEach(this::cacheResource);
+                return changedResources;
+            });
+            log.info("Rewrote the indexed data of {} of {} updated resources", changed.size(), resources.size());
+            return changed;
+        } catch (CoreSqlException e) {
             throw new CoreSqlException("Failed to batch update resources", e);
-        } finally {
-            closeConnection(connection);
         }
     }
 
     /**
-     * Batch deletes a list of resources from the database.
+     * The rows removed by a bulk delete
+     *
+     * @param resources   the amount of deleted resources
+     * @param tags        the amount of removed tag assignments
+     * @param permissions the amount of removed user and group permissions
+     * @param indexedData the amount of removed indexed documents
+     */
+    public record BulkDeleteResult(int resources, int tags, int permissions, int indexedData) {
+    }
+
+    /**
+     * A committed bulk delete
+     *
+     * @param result the amount of deleted rows
+     * @param paths  the paths of the deleted resources
+     */
+    private record BulkDelete(BulkDeleteResult result, List<String> paths) {
+    }
+
+    /**
+     * Batch deletes a list of resources from the database, removing them from the cache once the delete is committed. The resources are
+     * staged in DeletedResources, which makes the delete trigger skip them, and their dependent rows are removed with a single statement
+     * per table instead of several statements per resource.
      *
      * @param resourcePaths the list of resource paths to delete
+     * @return the amount of deleted rows
      */
-    private void batchDeleteResources(List<Path> resourcePaths) throws CoreSqlException {
-        Connection connection = database.getConnection();
+    private BulkDeleteResult batchDeleteResources(List<Path> resourcePaths) throws CoreSqlException {
+        if (resourcePaths.isEmpty()) {
+            return new BulkDeleteResult(0, 0, 0, 0);
+        }
+
         try {
-            int affectedRows = 0;
-            connection.setAutoCommit(false);
-
-            // Delete from the FTS table (FileData) first
-            try (var deleteFileDataStmt = connection.prepareStatement("DELETE FROM FileData WHERE resource_path = ?")) {
-                for (var resourcePath : resourcePaths) {
-                    deleteFileDataStmt.setString(1, resourcePath.toString());
-                    deleteFileDataStmt.addBatch();
+            return database.getWriteQueue().execute(connection -> {
+                List<String> deletedPaths = new ArrayList<>();
+                try (PreparedStatement stage = connection.prepareStatement(
+                        "INSERT OR IGNORE INTO DeletedResources(resource_id, resource_path) SELECT resource_id, resource_path FROM Resources WHERE resource_path = ?")) {
+                    for (var resourcePath : resourcePaths) {
+                        stage.setString(1, resourcePath.toString());
+                        stage.addBatch();
+                    }
+                    stage.executeBatch();
                 }
-                affectedRows += Arrays.stream(deleteFileDataStmt.executeBatch()).sum();
-            }
-
-            // Delete from the Resources table
-            try (var deleteResourcesStmt = connection.prepareStatement("DELETE FROM Resources WHERE resource_path = ?")) {
-                for (var resourcePath : resourcePaths) {
-                    deleteResourcesStmt.setString(1, resourcePath.toString());
-                    deleteResourcesStmt.addBatch();
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery("SELECT resource_path FROM DeletedResources")) {
+                    while (resultSet.next()) {
+                        deletedPaths.add(resultSet.getString("resource_path"));
+                    }
                 }
-                affectedRows += Arrays.stream(deleteResourcesStmt.executeBatch()).sum();
-            }
 
-            connection.commit();
-        } catch (Exception e) {
-            try {
-                connection.rollback();
-            } catch (SQLException ex) {
-                log.error("Rollback failed", ex);
-            }
+                try (Statement statement = connection.createStatement()) {
+                    int tags = statement.executeUpdate("DELETE FROM ResourceTags WHERE resource_id IN (SELECT resource_id FROM DeletedResources)");
+                    int permissions = statement.executeUpdate("DELETE FROM UserPermissions WHERE path IN (SELECT resource_path FROM DeletedResources)");
+                    permissions += statement.executeUpdate("DELETE FROM GroupPermissions WHERE path IN (SELECT resource_path FROM DeletedResources)");
+                    statement.executeUpdate("DELETE FROM FileTokens WHERE rowid IN (SELECT resource_id FROM DeletedResources)");
+                    int indexedData = statement.executeUpdate("DELETE FROM FileData WHERE rowid IN (SELECT resource_id FROM DeletedResources)");
+                    int resources = statement.executeUpdate("DELETE FROM Resources WHERE resource_id IN (SELECT resource_id FROM DeletedResources)");
+                    statement.executeUpdate("DELETE FROM DeletedResources");
+                    return new BulkDelete(new BulkDeleteResult(resources, tags, permissions, indexedData), deletedPaths);
+                }
+            }, delete -> {
+                resourcePaths.forEach(this::uncacheResource);
+                //only the permissions of resources that existed were deleted
+                database.permissionFunctions().removeCachedPermissions(delete.paths());
+                return delete.result();
+            });
+        } catch (CoreSqlException e) {
             throw new CoreSqlException("Failed to batch delete resources", e);
-        } finally {
-            closeConnection(connection);
         }
     }
 
     @Override
     public List<Resource> getResources(ResourceRequest request) throws CoreException {
-        Map<Path, Resource> resources = new HashMap<>(resourceCache);
+        Map<Path, Resource> resources = findCandidates(request);
+
+        if (request.getSearchTerm() == null && !request.isWithData()) {
+            return resources.values().stream().limit(request.getReturnLimit()).collect(Collectors.toList());
+        }
 
-        if (request.getSearchTerm() != null || request.isWithData()) {
-            Map<Path, String> content = findByContent(request);
+        //keeps the order of the rows so ranked searches stay sorted by relevance
+        List<Resource> matchingResources = new ArrayList<>();
+        queryContent(request, null, request.getReturnLimit(), candidateFilter(request, resources.keySet()), match -> {
+            Resource resource = resources.get(match.path());
+            if (resource != null) {
+                matchingResources.add(resource.copy().setData(match.content()).setScore(match.score()));
+            }
+            return true;
+        });
+        return matchingResources;
+    }
 
-            resources = new HashMap<>();
-            for (var entry : resourceCache.entrySet()) {
-                if (content.containsKey(entry.getKey())) {
-                    resources.put(entry.getKey(), entry.getValue().copy().setData(content.get(entry.getKey())));
+    /**
+     * Gets a single page of the resources matching the request, sorted by their path
+     *
+     * @param request the resource request
+     * @param after   the path of the last resource of the previous page, null to start with the first resource
+     * @param limit   the maximum amount of resources to return
+     * @return the resources of the page
+     */
+    public List<Resource> getResourcePage(ResourceRequest request, String after, int limit) throws CoreException {
+        Set<Path> candidates = findCandidatePaths(request);
+        Function<Path, Resource> lookup = path -> candidates == null || candidates.contains(path) ? resourceCache.get(path) : null;
+        List<Resource> page = new ArrayList<>();
+
+        if (request.getSearchTerm() == null && !request.isWithData()) {
+            //the index is sorted by path, so walking it stops as soon as the page is full
+            pathIndex.forEachAfter(after, path -> {
+                Resource resource = lookup.apply(path);
+                if (resource != null) {
+                    page.add(resource);
                 }
-            }
+                return page.size() < limit;
+            });
+            return page;
         }
 
-        // Apply path filtering only if necessary
-        if (request.targetPath().isPresent()) {
-            resources = resources.entrySet().stream().filter(entry -> pathMatcher.match(request.getPath(), entry.getKey().toString())).collect(
-                    Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        }
-
-        resources = resources.entrySet()
-                .stream()
-                .filter(entry -> request.whiteListTags() == null ||
-                        request.whiteListTags().isEmpty() ||
-                        entry.getValue().hasAnyTagId(request.whiteListTags()))
-                .filter(entry -> request.blacklistTags() == null ||
-                        request.blacklistTags().isEmpty() ||
-                        !entry.getValue().hasAnyTagId(request.blacklistTags()))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        return new ArrayList<>(resources.values());
+        //the query is sorted by path, so reading stops as soon as the page is full. Every row that is not a candidate is skipped, a page is
+        //only shorter than the limit if there are no more resources
+        queryContent(request, after == null ? "" : after, limit, candidates == null ? null : candidates::contains, match -> {
+            Resource resource = lookup.apply(match.path());
+            if (resource != null) {
+                page.add(resource.copy().setData(match.content()).setScore(match.score()));
+            }
+            return page.size() < limit;
+        });
+        return page;
     }
 
-    @Override
-    public void insertResource(Resource resource) throws ClientException, CoreException {
-        Connection connection = database.getConnection();
-        try {
-            connection.setAutoCommit(false);
+    /**
+     * Passes the resources matching the request to the consumer. Unlike {@link #getResources(ResourceRequest)} the content of the resources
+     * is never collected all at once, it is read in chunks sorted by path. Each chunk is handed over after its connection was released, so a
+     * slow consumer never holds a connection or keeps a read transaction open. Ranked searches are read at once as they are limited to their
+     * best matches.
+     *
+     * @param request  the resource request
+     * @param consumer the consumer receiving the resources
+     */
+    public void streamResources(ResourceRequest request, Consumer<Resource> consumer) throws CoreException {
+        if (request.getSearchTerm() == null && !request.isWithData()) {
+            findCandidates(request).values().forEach(consumer);
+            return;
+        }
 
-            String sqlResourceInsert = """
-                    
-                        INSERT INTO Resources(resource_path, created_at, created_by, last_modified_at, last_modified_by,category)
-                    VALUES(?, ?, ?, ?, ?, ?)
-                    
-                    """;
-            try (PreparedStatement statement = connection.prepareStatement(sqlResourceInsert)) {
-                statement.setString(1, resource.resourcePath().toString());
-                statement.setString(2, DateHelper.fromDateTime(resource.createdAt()));
-                statement.setString(3, resource.createdBy());
-                statement.setString(4, DateHelper.fromDateTime(resource.modifiedAt()));
-                statement.setString(5, resource.modifiedBy());
-                statement.setString(6, resource.category());
-                statement.executeUpdate();
-            }
+        if (isRankedSearch(request)) {
+            getResources(request).forEach(consumer);
+            return;
+        }
 
-            if (resource.data() == null) { //no data to insert so we skip the next part
-                resourceCache.put(resource.resourcePath(), resource);
+        int remaining = request.getReturnLimit();
+        String after = null;
+        while (remaining > 0) {
+            int limit = Math.min(STREAM_CHUNK_SIZE, remaining);
+            List<Resource> chunk = getResourcePage(request, after, limit);
+            chunk.forEach(consumer);
+            if (chunk.size() < limit) {
                 return;
             }
+            remaining -= chunk.size();
+            after = chunk.get(chunk.size() - 1).resourcePath().toString();
+        }
+    }
 
-            String sqlDataInsert = """
-                    INSERT INTO
-                    FileData(resource_path, data)
-                    VALUES(?,?)
-                    """;
-            try (PreparedStatement statement = connection.prepareStatement(sqlDataInsert)) {
-                statement.setString(1, resource.resourcePath().toString());
-                statement.setString(2, resource.data());
-                statement.executeUpdate();
+    /**
+     * Gets the filter the content query has to apply to only count rows that are candidates of the request. The path filter is part of the
+     * query, the tag filters are only known to the cache.
+     *
+     * @param request    the resource request
+     * @param candidates the paths of the candidates of the request, see {@link #findCandidates(ResourceRequest)}
+     * @return the filter or null if every row of the query is a candidate
+     */
+    private static Predicate<Path> candidateFilter(ResourceRequest request, Set<Path> candidates) {
+        boolean hasWhitelist = request.whiteListTags() != null && !request.whiteListTags().isEmpty();
+        boolean hasBlacklist = request.blacklistTags() != null && !request.blacklistTags().isEmpty();
+        return hasWhitelist || hasBlacklist ? candidates::contains : null;
+    }
+
+    /**
+     * Gets the cached resources matching the path and tag filters of a request
+     *
+     * @param request the resource request
+     * @return the matching resources
+     */
+    public Map<Path, Resource> findCandidates(ResourceRequest request) {
+        Set<Path> candidates = findCandidatePaths(request);
+        Map<Path, Resource> resources = new HashMap<>();
+        if (candidates == null) {
+            resources.putAll(resourceCache);
+        } else {
+            for (Path path : candidates) {
+                Resource resource = resourceCache.get(path);
+                if (resource != null) {
+                    resources.put(path, resource);
+                }
             }
+        }
+        return resources;
+    }
 
-            Set<TagId> resourceTags = resource.getResourceTags();
-            if (resourceTags != null && resourceTags.isEmpty()) {
+    /**
+     * Gets the paths of the cached resources matching the path and tag filters of a request
+     *
+     * @param request the resource request
+     * @return the matching paths or null if the request has no filters and every cached resource matches
+     */
+    private Set<Path> findCandidatePaths(ResourceRequest request) {
+        boolean hasWhitelist = request.whiteListTags() != null && !request.whiteListTags().isEmpty();
+        boolean hasBlacklist = request.blacklistTags() != null && !request.blacklistTags().isEmpty();
+
+        //resolves the path and tag filters against their indexes instead of checking every cached resource
+        Set<Path> candidates = null;
+        if (request.targetPath().isPresent()) {
+            candidates = pathIndex.match(request.getPath());
+        }
 
-                String sqlTagInsert = """
-                        INSERT INTO ResourceTags(resource_path, tag_id)
-                        VALUES(?,?)
+        if (hasWhitelist || hasBlacklist) {
+            Set<Path> tagMatches = tagIndex.filter(request.whiteListTags(), request.blacklistTags());
+            if (candidates == null) {
+                candidates = tagMatches;
+            } else {
+                candidates.retainAll(tagMatches);
+            }
+        }
+        return candidates;
+    }
+
+    @Override
+    public void insertResource(Resource resource) throws ClientException, CoreException {
+        boolean dataInserted;
+        try {
+            dataInserted = database.getWriteQueue().execute(connection -> {
+                String sqlResourceInsert = """
+                        
+                            INSERT INTO Resources(resource_path, created_at, created_by, last_modified_at, last_modified_by,category,content_hash)
+                        VALUES(?, ?, ?, ?, ?, ?, ?)
+                        
                         """;
-                try (PreparedStatement statement = connection.prepareStatement(sqlTagInsert)) {
-                    for (TagId tagId : resourceTags) {
-                        statement.setString(1, resource.resourcePath().toString());
-                        statement.setString(2, tagId.id());
-                        statement.addBatch();
-                    }
-                    statement.executeBatch();
+                try (PreparedStatement statement = connection.prepareStatement(sqlResourceInsert)) {
+                    statement.setString(1, resource.resourcePath().toString());
+                    statement.setString(2, DateHelper.fromDateTime(resource.createdAt()));
+                    statement.setString(3, resource.createdBy());
+                    statement.setString(4, DateHelper.fromDateTime(resource.modifiedAt()));
+                    statement.setString(5, resource.modifiedBy());
+                    statement.setString(6, resource.category());
+                    statement.setString(7, DbHelper.hashContent(resource.data()));
+                    statement.executeUpdate();
                 }
 
-            }
+                if (resource.data() == null) { //no data to insert so we skip the next part
+                    return false;
+                }
 
-            connection.commit();
+                DataWriter writer = new DataWriter(connection);
+                writer.insert(resource.resourcePath().toString(), resource.data());
 
-            resourceCache.put(resource.resourcePath(), resource);
+                Set<TagId> resourceTags = resource.getResourceTags();
+                if (resourceTags != null && resourceTags.isEmpty()) {
 
-        } catch (Exception e) {
-            try {
-                connection.rollback();
-            } catch (SQLException ex) {
-                log.error("Failed to rollback transaction", ex);
-            }
+                    try (PreparedStatement statement = connection.prepareStatement(INSERT_RESOURCE_TAG)) {
+                        for (TagId tagId : resourceTags) {
+                            statement.setString(1, resource.resourcePath().toString());
+                            statement.setString(2, tagId.id());
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    }
+
+                }
+                return true;
+            }, inserted -> {
+                cacheResource(resource);
+                return inserted;
+            });
+        } catch (CoreSqlException e) {
             log.error("Failed to insert resource", e);
             throw new CoreSqlException("Failed to insert resource", e);
-        } finally {
-            try {
-                connection.setAutoCommit(true);
-            } catch (SQLException e) {
-                throw new CoreSqlException("Failed to set auto commit to true", e);
-            }
-            closeConnection(connection);
+        }
+
+        if (dataInserted) {
+            notifyDataChanged(resource.resourcePath(), resource.data());
         }
     }
 
     @Override
     public boolean removeResource(RepoId repoId, Path path) throws CoreSqlException {
         log.info("Removing resource at path '{}' for '{}'", path, repoId);
-        Connection connection = database.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM Resources WHERE resource_path = ?")) {
-            statement.setString(1, normalizePath(path.toString()));
-            statement.executeUpdate();
-            resourceCache.remove(path);
-            log.info("Resource at path '{}' for '{}' removed", path, repoId);
-            return true;
-        } catch (Exception e) {
+        try {
+            database.getWriteQueue().execute(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("DELETE FROM Resources WHERE resource_path = ?")) {
+                    statement.setString(1, normalizePath(path.toString()));
+                    return statement.executeUpdate();
+                }
+            }, rows -> {
+                uncacheResource(path);
+                if (rows > 0) {
+                    //the delete trigger removed the permissions set on the resource
+                    database.permissionFunctions().removeCachedPermissions(List.of(normalizePath(path.toString())));
+                }
+                return rows;
+            });
+        } catch (CoreSqlException e) {
             throw new CoreSqlException("Failed to delete resource", e);
-        } finally {
-            closeConnection(connection);
         }
+        changeListeners.forEach(listener -> listener.resourceRemoved(database.getRepoId(), path));
+        log.info("Resource at path '{}' for '{}' removed", path, repoId);
+        return true;
+    }
+
+    /**
+     * The outcome of a committed resource update
+     *
+     * @param resource    the updated resource
+     * @param dataChanged if the data of the resource changed
+     */
+    private record UpdateResult(Resource resource, boolean dataChanged) {
     }
 
     @Override
     public Resource updateResource(ResourceUpdateRequest request) throws CoreSqlException {
-        log.info("Updating resource '{}' for '{}'", request.path(), database.getRepoId());
-        Connection connection = database.getConnection();
         try {
-            connection.setAutoCommit(false);
-            if (request.getData() != null) {
-                updateResourceData(connection, request.path(), request.getData());
-            }
+            return WriteQueue.await(updateResourceAsync(request));
+        } catch (CoreSqlException e) {
+            log.error("Failed to update resource '{}'", request.path(), e);
+            throw new CoreSqlException("Failed to update resource '%s'".formatted(request.path()), e);
+        }
+    }
+
+    /**
+     * Queues a resource update, the caches are only updated once the write is committed
+     *
+     * @param request the update to apply
+     * @return completes with the updated resource
+     */
+    public CompletableFuture<Resource> updateResourceAsync(ResourceUpdateRequest request) {
+        log.info("Updating resource '{}' for '{}'", request.path(), database.getRepoId());
+        return database.getWriteQueue().submit(connection -> {
+            boolean dataChanged = request.getData() != null && updateResourceData(connection, request.path(), request.getData());
 
             if (request.tagsToSet() != null) {
                 updateResourceTagsSet(connection, request.path(), request.tagsToSet());
@@ -669,35 +1021,25 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
                 statement.setString(3, request.path().toString());
 
                 statement.executeUpdate();
-
-                connection.commit();
-
-                //gets the updated resource
-                Resource resource = getResource(connection, request.path());
-                if (resource == null) {
-                    throw new CoreSqlException("Failed to update resource '%s'".formatted(request.path()));
-                }
-
-                resourceCache.put(request.path(), resource);
-                log.info("Resource '{}' updated for '{}'", request.path(), database.getRepoId());
-                return resource;
             }
-        } catch (SQLException e) {
-            try {
-                connection.rollback();
-            } catch (SQLException ex) {
-                log.error("Failed to rollback transaction", ex);
+
+            //gets the updated resource
+            Resource resource = getResource(connection, request.path());
+            if (resource == null) {
+                throw new CoreSqlException("Failed to update resource '%s'".formatted(request.path()));
             }
-            log.error("Failed to update resource '{}'", request.path(), e);
-            throw new CoreSqlException("Failed to update resource '%s'".formatted(request.path()), e);
-        } finally {
-            try {
-                connection.setAutoCommit(true);
-                connection.close();
-            } catch (SQLException e) {
-                log.error("Failed to close connection", e);
+            return new UpdateResult(resource, dataChanged);
+        }, result -> {
+            Resource resource = result.resource();
+            resourceCache.put(request.path(), resource);
+            tagIndex.put(request.path(), resource.getResourceTags());
+            pathIndex.add(request.path());
+            if (result.dataChanged()) {
+                notifyDataChanged(request.path(), request.getData());
             }
-        }
+            log.info("Resource '{}' updated for '{}'", request.path(), database.getRepoId());
+            return resource;
+        });
     }
 
     @Override
@@ -705,38 +1047,81 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
         return resourceCache.containsKey(path);
     }
 
+    /**
+     * Gets a resource from the cache without its data attached
+     *
+     * @param path the path to the resource
+     * @return the resource or null if it does not exist
+     */
+    public Resource getCachedResource(Path path) {
+        return resourceCache.get(path);
+    }
+
+    /**
+     * @return the directory trie of the cached resources
+     */
+    public PathIndex getPathIndex() {
+        return pathIndex;
+    }
+
+    /**
+     * Walks the directory structure of the given resources, see {@link PathIndex#walk(Set, PathIndex.Visitor)}
+     *
+     * @param resources the resources to include
+     * @param visitor   the visitor to call
+     */
+    public void walkResources(Set<Path> resources, PathIndex.Visitor visitor) {
+        pathIndex.walk(resources, visitor);
+    }
+
     @Override
     public boolean moveResource(RepoId repoId, Path oldPath, Path newPath) throws CoreSqlException {
         log.info("Updating resource path '{}' to '{}'", oldPath, newPath);
-        Connection connection = database.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement("UPDATE Resources SET resource_path = ? WHERE resource_path = ?")) {
-            statement.setString(1, newPath.toString());
-            statement.setString(2, oldPath.toString());
-            statement.executeUpdate();
-            Resource resource = resourceCache.remove(oldPath);
-            resource.setResourcePath(newPath);
-            resourceCache.put(newPath, resource);
-            log.info("Resource path updated from '{}' to '{}'", oldPath, newPath);
-            return true;
-        } catch (Exception e) {
+        try {
+            database.getWriteQueue().execute(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("UPDATE Resources SET resource_path = ? WHERE resource_path = ?")) {
+                    statement.setString(1, newPath.toString());
+                    statement.setString(2, oldPath.toString());
+                    return statement.executeUpdate();
+                }
+            }, rows -> {
+                Resource resource = resourceCache.remove(oldPath);
+                resource.setResourcePath(newPath);
+                resourceCache.put(newPath, resource);
+                tagIndex.move(oldPath, newPath);
+                pathIndex.move(oldPath, newPath);
+                //the path update trigger moved the permissions set on the resource
+                database.permissionFunctions().moveCachedPermissions(oldPath.toString(), newPath.toString());
+                return rows;
+            });
+        } catch (CoreSqlException e) {
             String errorResponse = "Failed to update resource path from '%s' to '%s'".formatted(oldPath, newPath);
             throw new CoreSqlException(errorResponse, e);
-        } finally {
-            closeConnection(connection);
         }
+        changeListeners.forEach(listener -> listener.resourceMoved(database.getRepoId(), oldPath, newPath));
+        log.info("Resource path updated from '{}' to '{}'", oldPath, newPath);
+        return true;
     }
 
     /**
      * Batch deletes resources from the database
      *
      * @param resources the resources to delete
-     * @return the row count affected, -1 if an error occurred
+     * @return the amount of deleted rows
      */
-    public void batchDelete(List<Path> resources) throws CoreSqlException {
+    public BulkDeleteResult batchDelete(List<Path> resources) throws CoreSqlException {
         log.info("Batch deleting resources for repo '{}'", database.getRepoId());
-        batchDeleteResources(resources);
-        resources.forEach(resourceCache::remove);
-        log.info("Batch deleted resources for repo '{}'", database.getRepoId());
+        BulkDeleteResult result = batchDeleteResources(resources);
+        for (Path path : resources) {
+            changeListeners.forEach(listener -> listener.resourceRemoved(database.getRepoId(), path));
+        }
+        log.info("Batch deleted {} resources for repo '{}', removing {} tag assignments, {} permissions and {} indexed documents",
+                result.resources(),
+                database.getRepoId(),
+                result.tags(),
+                result.permissions(),
+                result.indexedData());
+        return result;
     }
 
     /**
@@ -747,8 +1132,8 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
      */
     public void batchUpdate(List<Resource> resources) throws CoreSqlException {
         log.info("Batch updating resources for repo '{}'", database.getRepoId());
-        batchUpdateResources(resources);
-        resources.forEach(resource -> resourceCache.put(resource.resourcePath(), resource));
+        List<Resource> changed = batchUpdateResources(resources);
+        changed.forEach(resource -> notifyDataChanged(resource.resourcePath(), resource.data()));
     }
 
     /**
@@ -760,7 +1145,7 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
     public void batchInsert(List<Resource> resources) throws CoreSqlException {
         log.info("Batch inserting resources for repo '{}'", database.getRepoId());
         batchInsertResources(resources);
-        resources.forEach(resource -> resourceCache.put(resource.resourcePath(), resource));
+        resources.forEach(resource -> notifyDataChanged(resource.resourcePath(), resource.data()));
     }
 
     @Override
@@ -771,36 +1156,40 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
     @Override
     public void createTag(RepoId repoId, Tag tag) throws CoreSqlException {
         log.info("Adding tag '{}' to '{}'", tag.tagId(), repoId);
-        Connection connection = database.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO Tags(tag_id, tag_name) VALUES(?, ?)")) {
-            statement.setString(1, tag.tagId().id());
-            statement.setString(2, tag.tagName());
-            statement.executeUpdate();
-            tagCache.put(tag.tagId(), tag);
-            log.info("Tag '{}' added to '{}'", tag.tagId(), repoId);
-        } catch (Exception e) {
+        try {
+            database.getWriteQueue().execute(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("INSERT INTO Tags(tag_id, tag_name) VALUES(?, ?)")) {
+                    statement.setString(1, tag.tagId().id());
+                    statement.setString(2, tag.tagName());
+                    return statement.executeUpdate();
+                }
+            }, rows -> tagCache.put(tag.tagId(), tag));
+        } catch (CoreSqlException e) {
             throw new CoreSqlException("Failed to add tag '%s' to '%s'".formatted(tag.tagId(), database.getRepoId()), e);
-        } finally {
-            closeConnection(connection);
         }
+        log.info("Tag '{}' added to '{}'", tag.tagId(), repoId);
     }
 
     @Override
     public void removeTag(RepoId repoId, TagId tagId) throws CoreSqlException {
         log.info("Removing tag {} for repo {}", tagId, repoId);
-        Connection connection = database.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM Tags WHERE tag_id = ?")) {
-            statement.setString(1, tagId.id());
-            statement.executeUpdate();
-            tagCache.remove(tagId);
-            //remove tags from resource cache
-            resourceCache.values().forEach(r -> r.getResourceTags().remove(tagId));
-            log.info("Tag {} removed for repo {}", tagId, repoId);
-        } catch (Exception e) {
+        try {
+            database.getWriteQueue().execute(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("DELETE FROM Tags WHERE tag_id = ?")) {
+                    statement.setString(1, tagId.id());
+                    return statement.executeUpdate();
+                }
+            }, rows -> {
+                tagCache.remove(tagId);
+                //remove tags from resource cache
+                resourceCache.values().forEach(r -> r.getResourceTags().remove(tagId));
+                tagIndex.removeTag(tagId);
+                return rows;
+            });
+        } catch (CoreSqlException e) {
             throw new CoreSqlException("Failed to remove tag '%s'".formatted(tagId.id()), e);
-        } finally {
-            closeConnection(connection);
         }
+        log.info("Tag {} removed for repo {}", tagId, repoId);
     }
 
     @Override
@@ -813,27 +1202,148 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
 
     @Override
     public UserId getEditingUser(RepoId repoId, Path path) {
-        return currentlyEdited.entrySet().stream().filter(p -> p.getValue().equals(path)).map(Map.Entry::getKey).findFirst().orElse(null);
+        EditLeases.Lease lease = editLeases.getLease(path);
+        return lease == null ? null : lease.userId();
     }
 
     @Override
     public void removeCurrentlyEdited(RepoId repoId, UserId userId) {
-        currentlyEdited.remove(userId);
+        editLeases.release(userId);
     }
 
     @Override
     public void removeCurrentlyEdited(RepoId id, Path path) {
-        currentlyEdited.values().removeIf(p -> p.equals(path));
+        editLeases.release(path);
     }
 
     @Override
     public boolean isUserEditing(RepoId id, UserId userId) {
-        return currentlyEdited.containsKey(userId);
+        return editLeases.getLease(userId) != null;
+    }
+
+    @Override
+    public void setCurrentlyEdited(RepoId repoId, UserId userId, Path path) throws ClientException {
+        if (editLeases.acquire(userId, path) == null) {
+            throw new ClientException("Resource '%s' in '%s' is already being edited".formatted(path, repoId));
+        }
     }
 
     @Override
-    public void setCurrentlyEdited(RepoId repoId, UserId userId, Path path) {
-        currentlyEdited.put(userId, path);
+    public void renewCurrentlyEdited(RepoId repoId, UserId userId, Path path) throws ClientException {
+        if (editLeases.renew(userId, path) == null) {
+            throw new ClientException("User '%s' is not editing '%s' in '%s'".formatted(userId, path, repoId));
+        }
+    }
+
+    /**
+     * Releases the edit leases that were not renewed within the timeout
+     */
+    public void expireEditLeases() {
+        for (EditLeases.Lease lease : editLeases.expire()) {
+            log.info("Edit lease of '{}' on '{}' in '{}' expired", lease.userId(), lease.path(), database.getRepoId());
+        }
+    }
+
+    /**
+     * Fills the caches from a snapshot instead of the database, see {@link #initialize()}
+     *
+     * @param resources the resources to cache
+     * @param tags      the tags to cache
+     */
+    public void restoreCache(List<Resource> resources, List<Tag> tags) {
+        resources.forEach(this::cacheResource);
+        tags.forEach(tag -> tagCache.put(tag.tagId(), tag));
+        log.info("Restored {} resources and {} tags for '{}'", resources.size(), tags.size(), database.getRepoId());
+    }
+
+    /**
+     * @return copies of all cached resources
+     */
+    public List<Resource> copyCachedResources() {
+        return resourceCache.values().stream().map(Resource::copy).collect(Collectors.toList());
+    }
+
+    /**
+     * @return a copy of the cached tags
+     */
+    public List<Tag> copyCachedTags() {
+        return new ArrayList<>(tagCache.values());
+    }
+
+    /**
+     * Adds a resource to the cache and the tag index
+     *
+     * @param resource the resource to cache
+     */
+    private void cacheResource(Resource resource) {
+        resourceCache.put(resource.resourcePath(), resource);
+        tagIndex.put(resource.resourcePath(), resource.getResourceTags());
+        pathIndex.add(resource.resourcePath());
+    }
+
+    /**
+     * Removes a resource from the cache and the tag index
+     *
+     * @param path the path of the resource
+     */
+    private void uncacheResource(Path path) {
+        resourceCache.remove(path);
+        tagIndex.remove(path);
+        pathIndex.remove(path);
+    }
+
+    /**
+     * Notifies the listeners about new data of a resource
+     *
+     * @param path the path of the resource
+     * @param data the new data, listeners are not notified if it is null
+     */
+    private void notifyDataChanged(Path path, String data) {
+        if (data == null) {
+            return;
+        }
+        changeListeners.forEach(listener -> listener.resourceDataChanged(database.getRepoId(), path, data));
+    }
+
+    /**
+     * Adds a listener notified about committed resource changes
+     *
+     * @param listener the listener
+     */
+    public void addChangeListener(ResourceChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Passes the stored data of every resource to the consumer
+     *
+     * @param consumer receives the path and data of each resource
+     */
+    public void forEachData(BiConsumer<Path, String> consumer) throws CoreSqlException {
+        Connection connection = database.getReadConnection();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT Resources.resource_path, %s AS data FROM FileData JOIN Resources ON Resources.resource_id = FileData.rowid".formatted(
+                        contentStored ? "FileData.data" : "NULL"));
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                Path path = Path.of(resultSet.getString("resource_path"));
+                consumer.accept(path, contentStored ? resultSet.getString("data") : readContent(path));
+            }
+        } catch (SQLException e) {
+            throw new CoreSqlException("Failed to read resource data of '%s'".formatted(database.getRepoId()), e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    /**
+     * Reads the content of a resource from the work tree, used when the content is not stored in the database
+     *
+     * @param path the path of the resource
+     * @return the content of the resource
+     */
+    private String readContent(Path path) {
+        return database.getFileRepository().readData(path);
     }
 
     private void closeConnection(Connection connection) {
@@ -843,5 +1353,70 @@ public class ResourceFunctions implements IDBFunctions, ResourceCalls {
             log.error("Error while closing connection", e);
         }
     }
-}
 
+    /**
+     * Writes the indexed data of resources, keeping FileData and FileTokens in sync. Both use the id of the resource as their rowid, so the
+     * resource has to be inserted before its data. The statements are prepared once so a writer can be reused for a whole batch. They are
+     * owned by the statement cache and must not be closed.
+     */
+    private class DataWriter {
+        private final PreparedStatement selectId;
+        private final PreparedStatement insertData;
+        private final PreparedStatement insertTokens;
+        private final PreparedStatement deleteTokens;
+        private final PreparedStatement deleteData;
+
+        private DataWriter(Connection connection) throws SQLException {
+            selectId = statements.prepare(connection, "SELECT resource_id FROM Resources WHERE resource_path = ?");
+            insertData = statements.prepare(connection, "INSERT INTO FileData(rowid, data) VALUES(?, ?)");
+            insertTokens = statements.prepare(connection, "INSERT INTO FileTokens(rowid, data) VALUES(?, ?)");
+            deleteTokens = statements.prepare(connection, "DELETE FROM FileTokens WHERE rowid = ?");
+            deleteData = statements.prepare(connection, "DELETE FROM FileData WHERE rowid = ?");
+        }
+
+        /**
+         * Indexes the data of a resource
+         *
+         * @param path the path of the resource
+         * @param data the data of the resource
+         * @return the amount of inserted data rows
+         */
+        private int insert(String path, String data) throws SQLException {
+            Long resourceId = getResourceId(path);
+            if (resourceId == null) {
+                throw new SQLException("Resource '%s' does not exist".formatted(path));
+            }
+            insertData.setLong(1, resourceId);
+            insertData.setString(2, data);
+            int affectedRows = insertData.executeUpdate();
+            insertTokens.setLong(1, resourceId);
+            insertTokens.setString(2, data);
+            insertTokens.executeUpdate();
+            return affectedRows;
+        }
+
+        /**
+         * Removes the indexed data of a resource
+         *
+         * @param path the path of the resource
+         * @return the amount of deleted data rows
+         */
+        private int delete(String path) throws SQLException {
+            Long resourceId = getResourceId(path);
+            if (resourceId == null) {
+                return 0;
+            }
+            deleteTokens.setLong(1, resourceId);
+            deleteTokens.executeUpdate();
+            deleteData.setLong(1, resourceId);
+            return deleteData.executeUpdate();
+        }
+
+        private Long getResourceId(String path) throws SQLException {
+            selectId.setString(1, path);
+            try (ResultSet resultSet = selectId.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.wonkglorg.doc.core.db.functions;
+
+import com.wonkglorg.doc.core.objects.RepoId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Versioned changes to the layout of a repository database. Each migration is applied once, in order, and recorded in the SchemaVersion
+ * table, so changes to existing tables reach databases created by earlier versions without manual sql.
+ * <p>
+ * New migrations are only ever appended with the next version, applied migrations must not be changed. New databases are created in the
+ * latest layout and only recorded as being at the latest version.
+ */
+public class SchemaMigrations {
+    private static final Logger log = LoggerFactory.getLogger(SchemaMigrations.class);
+
+    /**
+     * Applies the changes of a migration
+     */
+    @FunctionalInterface
+    public interface Step {
+        /**
+         * @param connection the connection of the transaction the migration runs in
+         */
+        void apply(Connection connection) throws SQLException;
+    }
+
+    /**
+     * A single change to the layout of the database
+     *
+     * @param version     the version the database is at once the migration is applied, has to be unique and ascending
+     * @param description what the migration does
+     * @param step        applies the migration
+     */
+    public record Migration(int version, String description, Step step) {
+    }
+
+    /**
+     * All migrations ordered by version
+     */
+    public static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Index resource tags by resource",
+                    sql("CREATE INDEX IF NOT EXISTS idx_resource_tags_resource_path ON ResourceTags(resource_path, tag_id)")),
+            new Migration(2, "Index permissions by path",
+                    sql("CREATE INDEX IF NOT EXISTS idx_group_permissions_path ON GroupPermissions(path)",
+                            "CREATE INDEX IF NOT EXISTS idx_user_permissions_path ON UserPermissions(path)")),
+            new Migration(3, "Key resources by an integer id", SchemaMigrations::useResourceIds),
+            new Migration(4, "Skip the resource cleanup trigger for bulk deletes", sql("DROP TRIGGER IF EXISTS delete_resource_cleanup")),
+            new Migration(5, "Increment the data generation once per transaction instead of per row", SchemaMigrations::dropGenerationTriggers)
+    );
+
+    private SchemaMigrations() {
+        //utility class
+    }
+
+    /**
+     * Applies every migration the database is missing, each in its own transaction
+     *
+     * @param connection  the connection to migrate with, has to have foreign keys disabled as tables may be rebuilt
+     * @param repoId      the repo of the database
+     * @param newDatabase if the tables were just created in the latest layout, no migration is applied in that case
+     */
+    public static void migrate(Connection connection, RepoId repoId, boolean newDatabase) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE IF NOT EXISTS SchemaVersion(
+                        version INTEGER PRIMARY KEY NOT NULL,
+                        description TEXT,
+                        applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                    )
+                    """);
+        }
+
+        int currentVersion = getVersion(connection);
+        int latestVersion = MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+        if (currentVersion > latestVersion) {
+            log.warn("Database of '{}' is at schema version {}, newer than the latest known version {}", repoId, currentVersion, latestVersion);
+            return;
+        }
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version() <= currentVersion) {
+                continue;
+            }
+            if (newDatabase) {
+                //already created in the latest layout, the migration is only recorded
+                apply(connection, migration.version(), migration.description(), c -> {
+                });
+            } else {
+                //the data may change along with the layout, snapshots of the caches taken before are no longer valid
+                apply(connection, migration.version(), migration.description(), c -> {
+                    migration.step().apply(c);
+                    DatabaseFunctions.incrementDataGeneration(c);
+                });
+                log.info("Migrated database of '{}' to schema version {}: {}", repoId, migration.version(), migration.description());
+            }
+        }
+    }
+
+    /**
+     * Reads the schema version of the database
+     *
+     * @return the version of the last applied migration, 0 if none was applied
+     */
+    public static int getVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(version), 0) FROM SchemaVersion")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Applies a step and records the version in the same transaction
+     */
+    private static void apply(Connection connection, int version, String description, Step step) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement record = connection.prepareStatement("INSERT INTO SchemaVersion(version, description) VALUES(?, ?)")) {
+            step.apply(connection);
+            record.setInt(1, version);
+            record.setString(2, description);
+            record.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw new SQLException("Migration to schema version %d failed".formatted(version), e);
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * A step executing the given statements in order
+     */
+    private static Step sql(String... statements) {
+        return connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : statements) {
+                    statement.execute(sql);
+                }
+            }
+        };
+    }
+
+    /**
+     * Drops the triggers incrementing the data generation for every changed row of a cached table
+     */
+    private static void dropGenerationTriggers(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String table : List.of("resources", "resourcetags", "tags", "userpermissions", "grouppermissions")) {
+                for (String event : List.of("insert", "update", "delete")) {
+                    statement.execute("DROP TRIGGER IF EXISTS %s_%s_generation".formatted(table, event));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the resource path as the key of Resources, ResourceTags and the FTS tables by an integer resource id, the path becomes a
+     * plain column of Resources. Also adds the content hash column to databases created before it existed. Resources keep the rowid of their indexed data as their id, so FileTokens does not have to be rebuilt.
+     */
+    private static void useResourceIds(Connection connection) throws SQLException {
+        //the content was either stored in FileData along with the path, or only indexed with the rowids mapped to paths in FilePaths
+        boolean pathsInData = DatabaseFunctions.tableExists(connection, "FileData")
+                && DatabaseFunctions.columnExists(connection, "FileData", "resource_path");
+        boolean pathTable = DatabaseFunctions.tableExists(connection, "FilePaths");
+        boolean tokensExist = DatabaseFunctions.tableExists(connection, "FileTokens");
+        //the content hash is added by this rebuild, databases created before it existed start without hashes
+        String contentHash = DatabaseFunctions.columnExists(connection, "Resources", "content_hash") ? "Resources.content_hash" : "NULL";
+
+        try (Statement statement = connection.createStatement()) {
+            //recreated for the new layout once the database is initialized, renaming tables would fail while they reference missing ones
+            statement.execute("DROP VIEW IF EXISTS ResourceInfo");
+            for (String trigger : List.of("update_resource_path", "delete_resource_cleanup", "delete_resource_tokens", "delete_tag_cleanup")) {
+                statement.execute("DROP TRIGGER IF EXISTS " + trigger);
+            }
+
+            statement.execute("""
+                    CREATE TABLE ResourcesMigrated (
+                        resource_id INTEGER PRIMARY KEY,
+                        resource_path TEXT UNIQUE NOT NULL,
+                        created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                        created_by TEXT,
+                        last_modified_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                        last_modified_by TEXT,
+                        category TEXT,
+                        content_hash TEXT
+                    )
+                    """);
+
+            String indexed = null;
+            if (pathsInData) {
+                indexed = "SELECT MIN(rowid) AS id, resource_path FROM FileData GROUP BY resource_path";
+            } else if (pathTable) {
+                indexed = "SELECT rowid AS id, resource_path FROM FilePaths";
+            }
+            if (indexed != null) {
+                statement.executeUpdate("""
+                        INSERT INTO ResourcesMigrated(resource_id, resource_path, created_at, created_by, last_modified_at, last_modified_by,
+                                                      category, content_hash)
+                        SELECT Indexed.id, Resources.resource_path, Resources.created_at, Resources.created_by, Resources.last_modified_at,
+                               Resources.last_modified_by, Resources.category, %s
+                          FROM Resources
+                          JOIN (%s) AS Indexed ON Indexed.resource_path = Resources.resource_path
+                        """.formatted(contentHash, indexed));
+            }
+
+            //indexed data without a resource would otherwise be matched to the ids given to the remaining resources
+            if (tokensExist) {
+                statement.executeUpdate("DELETE FROM FileTokens WHERE rowid NOT IN (SELECT resource_id FROM ResourcesMigrated)");
+            }
+            if (pathsInData) {
+                statement.execute("CREATE VIRTUAL TABLE FileDataMigrated USING fts5(data, tokenize='trigram')");
+                statement.executeUpdate(
+                        "INSERT INTO FileDataMigrated(rowid, data) SELECT rowid, data FROM FileData WHERE rowid IN (SELECT resource_id FROM ResourcesMigrated)");
+                statement.execute("DROP TABLE FileData");
+                statement.execute("ALTER TABLE FileDataMigrated RENAME TO FileData");
+            } else if (pathTable) {
+                statement.executeUpdate("DELETE FROM FileData WHERE rowid NOT IN (SELECT resource_id FROM ResourcesMigrated)");
+                statement.execute("DROP TABLE FilePaths");
+            }
+
+            statement.executeUpdate("""
+                    INSERT INTO ResourcesMigrated(resource_path, created_at, created_by, last_modified_at, last_modified_by, category, content_hash)
+                    SELECT resource_path, created_at, created_by, last_modified_at, last_modified_by, category, %s
+                      FROM Resources
+                     WHERE resource_path NOT IN (SELECT resource_path FROM ResourcesMigrated)
+                    """.formatted(contentHash));
+
+            statement.execute("""
+                    CREATE TABLE ResourceTagsMigrated (
+                        tag_id TEXT NOT NULL,
+                        resource_id INTEGER NOT NULL,
+                        created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                        created_by TEXT,
+                        PRIMARY KEY (tag_id, resource_id),
+                        FOREIGN KEY (tag_id) REFERENCES Tags(tag_id),
+                        FOREIGN KEY (resource_id) REFERENCES Resources(resource_id)
+                    )
+                    """);
+            statement.executeUpdate("""
+                    INSERT INTO ResourceTagsMigrated(tag_id, resource_id, created_at, created_by)
+                    SELECT ResourceTags.tag_id, ResourcesMigrated.resource_id, ResourceTags.created_at, ResourceTags.created_by
+                      FROM ResourceTags
+                      JOIN ResourcesMigrated ON ResourcesMigrated.resource_path = ResourceTags.resource_path
+                    """);
+
+            statement.execute("DROP TABLE ResourceTags");
+            statement.execute("ALTER TABLE ResourceTagsMigrated RENAME TO ResourceTags");
+            statement.execute("DROP TABLE Resources");
+            statement.execute("ALTER TABLE ResourcesMigrated RENAME TO Resources");
+            statement.execute("CREATE INDEX idx_resource_tags_resource_id ON ResourceTags(resource_id, tag_id)");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.wonkglorg.doc.core.exception.client;
+
+public class InvalidCursorException extends ClientException{
+	public InvalidCursorException() {
+	}
+	
+	public InvalidCursorException(String message) {
+		super(message);
+	}
+	
+	public InvalidCursorException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+	public InvalidCursorException(Throwable cause) {
+		super(cause);
+	}
+	
+	public InvalidCursorException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+}
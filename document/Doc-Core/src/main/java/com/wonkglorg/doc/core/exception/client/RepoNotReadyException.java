@@ -0,0 +1,25 @@
+package com.wonkglorg.doc.core.exception.client;
+
+/**
+ * Thrown when a repository exists but is still being initialized (or failed to initialize) and can not serve requests yet
+ */
+public class RepoNotReadyException extends InvalidRepoException{
+	public RepoNotReadyException() {
+	}
+	
+	public RepoNotReadyException(String message) {
+		super(message);
+	}
+	
+	public RepoNotReadyException(String message, Throwable cause) {
+		super(message, cause);
+	}
+	
+	public RepoNotReadyException(Throwable cause) {
+		super(cause);
+	}
+	
+	public RepoNotReadyException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+}
@@ -0,0 +1,21 @@
+package com.wonkglorg.doc.core.git;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * The files changed between two commits of a git repo, or between the head commit and the work tree
+ *
+ * @param added the files that did not exist in the older commit
+ * @param modified the files whose content changed between both commits
+ * @param deleted the files that no longer exist in the newer commit
+ */
+public record FileChanges(Set<Path> added, Set<Path> modified, Set<Path> deleted){
+
+	/**
+	 * @return true if no file was changed
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && modified.isEmpty() && deleted.isEmpty();
+	}
+}
@@ -6,14 +6,25 @@ import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.ServiceUnavailableException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.Transport;
 import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,12 +32,14 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -37,7 +50,8 @@ public class GitRepo{
 	public enum GitStage{
 		UNTRACKED(Status::getUntracked),
 		MODIFIED(Status::getModified),
-		ADDED(Status::getAdded);
+		ADDED(Status::getAdded),
+		MISSING(Status::getMissing);
 		private final Function<Status, Set<String>> getFiles;
 		
 		GitStage(Function<Status, Set<String>> getFiles) {
@@ -51,6 +65,19 @@ public class GitRepo{
 	
 	private final Map<UserId, UserBranch> currentUserBranches = new HashMap<>();
 	
+	/**
+	 * The last commit that touched a path (in git notation), valid as of {@link #indexedHead}
+	 */
+	private final Map<String, RevCommit> lastCommitIndex = new ConcurrentHashMap<>();
+	/**
+	 * Paths that were looked up but have never been committed as of {@link #indexedHead}
+	 */
+	private final Set<String> uncommittedPaths = ConcurrentHashMap.newKeySet();
+	/**
+	 * The head {@link #lastCommitIndex} was last updated for
+	 */
+	private ObjectId indexedHead;
+	
 	private static final Logger log = LoggerFactory.getLogger(GitRepo.class);
 	/**
      * The Plumbing view of the backing git repo
@@ -336,16 +363,263 @@ public class GitRepo{
 	 * Gets the last commit details of a file, including commit ID, author, and timestamp.
 	 *
 	 * @param filePath the path to the file
-	 * @return a string containing commit ID, author, and timestamp, or null if no commit was found
+	 * @return the last commit that touched the file, or null if no commit was found
 	 */
 	public RevCommit getLastCommitDetailsForFile(String filePath) {
+		Path path = Path.of(filePath);
+		return getLastCommitsForFiles(Set.of(path)).get(path);
+	}
+	
+	/**
+	 * Gets the last commit that touched each of the given files. Commits added since the previous call are walked once to keep the index up to
+	 * date, any path not indexed yet is resolved in a single history walk that stops as soon as every path was found.
+	 *
+	 * @param files the files to look up, relative to the repo
+	 * @return the last commit per file, files that were never committed are not contained
+	 */
+	public synchronized Map<Path, RevCommit> getLastCommitsForFiles(Set<Path> files) {
+		Map<Path, RevCommit> result = new HashMap<>();
+		ObjectId head = getHeadCommitId();
+		if(head == null || files.isEmpty()){
+			return result;
+		}
+		
 		try{
-			Iterable<RevCommit> logs = git.log().addPath(filePath).setMaxCount(1).call();
-			return logs.iterator().next();
-		} catch(GitAPIException e){
-			log.error("Error while getting last commit details for file: " + filePath, e);
+			if(indexedHead != null && !indexedHead.equals(head)){
+				updateLastCommitIndex(head);
+			}
+			indexedHead = head;
+			
+			Set<String> unresolved = new HashSet<>();
+			for(Path file : files){
+				String gitPath = toGitPath(file);
+				if(!lastCommitIndex.containsKey(gitPath) && !uncommittedPaths.contains(gitPath)){
+					unresolved.add(gitPath);
+				}
+			}
+			
+			if(!unresolved.isEmpty()){
+				resolveLastCommits(head, unresolved);
+			}
+		} catch(IOException e){
+			log.error("Error while indexing last commits in '{}'", properties.getId(), e);
+		}
+		
+		for(Path file : files){
+			RevCommit commit = lastCommitIndex.get(toGitPath(file));
+			if(commit != null){
+				result.put(file, commit);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Walks all commits between {@link #indexedHead} and the new head, storing them for every path they touched
+	 *
+	 * @param head the new head
+	 */
+	private void updateLastCommitIndex(ObjectId head) throws IOException {
+		try(RevWalk walk = new RevWalk(repository)){
+			RevCommit newHead = walk.parseCommit(head);
+			RevCommit oldHead = commitExists(indexedHead) ? walk.parseCommit(indexedHead) : null;
+			if(oldHead == null || !walk.isMergedInto(oldHead, newHead)){
+				//history was rewritten, the indexed commits can no longer be trusted
+				lastCommitIndex.clear();
+				uncommittedPaths.clear();
+				return;
+			}
+			
+			walk.reset();
+			walk.markStart(newHead);
+			walk.markUninteresting(oldHead);
+			Set<String> seen = new HashSet<>();
+			for(RevCommit commit : walk){
+				for(String path : touchedPaths(walk, commit, null)){
+					if(seen.add(path)){
+						lastCommitIndex.put(path, commit);
+						uncommittedPaths.remove(path);
+					}
+				}
+			}
 		}
-		return null; // No commit found
+	}
+	
+	/**
+	 * Walks the history from head once until every path was resolved
+	 *
+	 * @param head the commit to start from
+	 * @param paths the paths to resolve
+	 */
+	private void resolveLastCommits(ObjectId head, Set<String> paths) throws IOException {
+		Set<String> remaining = new HashSet<>(paths);
+		try(RevWalk walk = new RevWalk(repository)){
+			walk.markStart(walk.parseCommit(head));
+			for(RevCommit commit : walk){
+				for(String path : touchedPaths(walk, commit, PathFilterGroup.createFromStrings(remaining))){
+					if(remaining.remove(path)){
+						lastCommitIndex.put(path, commit);
+					}
+				}
+				if(remaining.isEmpty()){
+					break;
+				}
+			}
+		}
+		uncommittedPaths.addAll(remaining);
+	}
+	
+	/**
+	 * Gets all files a commit changed compared to its parents (for merges only files that differ from every parent count as touched)
+	 *
+	 * @param walk the walk the commit belongs to
+	 * @param commit the commit
+	 * @param pathFilter limits the looked at paths, null to look at all paths
+	 * @return the touched paths
+	 */
+	private List<String> touchedPaths(RevWalk walk, RevCommit commit, TreeFilter pathFilter) throws IOException {
+		List<String> touched = new ArrayList<>();
+		try(TreeWalk treeWalk = new TreeWalk(repository)){
+			treeWalk.setRecursive(true);
+			treeWalk.addTree(commit.getTree());
+			for(RevCommit parent : commit.getParents()){
+				walk.parseHeaders(parent);
+				treeWalk.addTree(parent.getTree());
+			}
+			
+			if(commit.getParentCount() == 0){
+				treeWalk.setFilter(pathFilter == null ? TreeFilter.ALL : pathFilter);
+			} else {
+				treeWalk.setFilter(pathFilter == null ? TreeFilter.ANY_DIFF : AndTreeFilter.create(pathFilter, TreeFilter.ANY_DIFF));
+			}
+			
+			while(treeWalk.next()){
+				boolean sameAsAnyParent = false;
+				for(int i = 1; i < treeWalk.getTreeCount(); i++){
+					if(treeWalk.idEqual(0, i)){
+						sameAsAnyParent = true;
+						break;
+					}
+				}
+				if(!sameAsAnyParent){
+					touched.add(treeWalk.getPathString());
+				}
+			}
+		}
+		return touched;
+	}
+	
+	private static String toGitPath(Path path) {
+		return path.toString().replace('\\', '/');
+	}
+	
+	/**
+	 * @return the id of the commit HEAD currently points to or null if it could not be resolved
+	 */
+	public ObjectId getHeadCommitId() {
+		try{
+			return repository.resolve(Constants.HEAD);
+		} catch(IOException e){
+			log.error("Error while resolving HEAD", e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Checks if a commit is known to this repo (it might have been removed by a force push or garbage collection)
+	 *
+	 * @param commitId the commit to check
+	 * @return true if the commit exists
+	 */
+	public boolean commitExists(ObjectId commitId) {
+		if(commitId == null){
+			return false;
+		}
+		try(RevWalk walk = new RevWalk(repository)){
+			walk.parseCommit(commitId);
+			return true;
+		} catch(IOException e){
+			return false;
+		}
+	}
+	
+	/**
+	 * Diffs the trees of two commits in a single pass, renames are reported as a deletion of the old path and an addition of the new one
+	 *
+	 * @param oldCommit the older commit
+	 * @param newCommit the newer commit
+	 * @param filter the filter the file path should match
+	 * @return the files changed between both commits, relative to the repo
+	 * @throws IOException if either commit could not be read
+	 */
+	public FileChanges getChangedFiles(ObjectId oldCommit, ObjectId newCommit, Predicate<String> filter) throws IOException {
+		Set<Path> added = new HashSet<>();
+		Set<Path> modified = new HashSet<>();
+		Set<Path> deleted = new HashSet<>();
+		
+		try(RevWalk walk = new RevWalk(repository); DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)){
+			formatter.setRepository(repository);
+			formatter.setDetectRenames(true);
+			List<DiffEntry> entries = formatter.scan(walk.parseCommit(oldCommit).getTree(), walk.parseCommit(newCommit).getTree());
+			for(DiffEntry entry : entries){
+				switch(entry.getChangeType()) {
+					case ADD, COPY -> addIfMatches(added, entry.getNewPath(), filter);
+					case MODIFY -> addIfMatches(modified, entry.getNewPath(), filter);
+					case DELETE -> addIfMatches(deleted, entry.getOldPath(), filter);
+					case RENAME -> {
+						addIfMatches(deleted, entry.getOldPath(), filter);
+						addIfMatches(added, entry.getNewPath(), filter);
+					}
+				}
+			}
+		}
+		return new FileChanges(added, modified, deleted);
+	}
+	
+	private static void addIfMatches(Set<Path> files, String filePath, Predicate<String> filter) {
+		if(filter.test(filePath)){
+			files.add(Path.of(filePath));
+		}
+	}
+	
+	/**
+	 * Reads the uncommitted changes of the work tree in a single status walk. Only paths matching the filter are compared, so other files
+	 * are neither hashed nor reported, every file still has to be checked against the index.
+	 *
+	 * @param filter the filter the file path should match
+	 * @return the files added, modified or deleted since the head commit, whether staged or not, relative to the repo
+	 * @throws IOException if the index or the work tree could not be read
+	 */
+	public FileChanges getUncommittedChanges(Predicate<String> filter) throws IOException {
+		IndexDiff diff = new IndexDiff(repository, Constants.HEAD, new FileTreeIterator(repository));
+		diff.setFilter(new TreeFilter(){
+			@Override
+			public boolean include(TreeWalk walker) {
+				return walker.isSubtree() || filter.test(walker.getPathString());
+			}
+			
+			@Override
+			public boolean shouldBeRecursive() {
+				return true;
+			}
+			
+			@Override
+			public TreeFilter clone() {
+				return this;
+			}
+		});
+		diff.diff();
+		
+		Set<Path> added = new HashSet<>();
+		Set<Path> modified = new HashSet<>();
+		Set<Path> deleted = new HashSet<>();
+		diff.getUntracked().forEach(file -> addIfMatches(added, file, filter));
+		diff.getAdded().forEach(file -> addIfMatches(added, file, filter));
+		diff.getModified().forEach(file -> addIfMatches(modified, file, filter));
+		diff.getChanged().forEach(file -> addIfMatches(modified, file, filter));
+		diff.getMissing().forEach(file -> addIfMatches(deleted, file, filter));
+		diff.getRemoved().forEach(file -> addIfMatches(deleted, file, filter));
+		return new FileChanges(added, modified, deleted);
 	}
 	
 	/**
@@ -0,0 +1,221 @@
+package com.wonkglorg.doc.core.index;
+
+import com.wonkglorg.doc.core.objects.UserId;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks which user is editing which resource. A user holds a lease on at most one resource and each resource is leased by at most one
+ * user, both directions are kept in their own map so lookups by either side are a single hash lookup. Leases expire unless renewed within
+ * the timeout, expired leases are released by {@link #expire()} using a hashed timer wheel, so only the leases due in the elapsed ticks are
+ * looked at.
+ */
+public class EditLeases{
+	/**
+	 * The default duration of a tick of the timer wheel
+	 */
+	public static final Duration DEFAULT_TICK = Duration.ofSeconds(1);
+	/**
+	 * The default amount of slots of the timer wheel
+	 */
+	private static final int DEFAULT_WHEEL_SIZE = 512;
+
+	/**
+	 * A lease on a resource
+	 *
+	 * @param userId the user editing the resource
+	 * @param path the edited resource
+	 * @param expiresAt the time in milliseconds the lease expires at unless renewed
+	 */
+	public record Lease(UserId userId, Path path, long expiresAt){
+	}
+
+	private final Map<Path, Lease> byPath = new ConcurrentHashMap<>();
+	private final Map<UserId, Lease> byUser = new ConcurrentHashMap<>();
+	/**
+	 * Each slot holds the leases expiring in the ticks mapped to it, leases more than one rotation ahead stay in their slot until their
+	 * tick is reached
+	 */
+	private final Set<Lease>[] wheel;
+	private final long timeoutMillis;
+	private final long tickMillis;
+	private final LongSupplier clock;
+	/**
+	 * The last tick the wheel was advanced to
+	 */
+	private long currentTick;
+
+	/**
+	 * @param timeout how long a lease lasts without being renewed
+	 */
+	public EditLeases(Duration timeout) {
+		this(timeout, DEFAULT_TICK, DEFAULT_WHEEL_SIZE, System::currentTimeMillis);
+	}
+
+	/**
+	 * @param timeout how long a lease lasts without being renewed
+	 * @param tick the precision expired leases are released with
+	 * @param wheelSize the amount of slots of the timer wheel
+	 * @param clock supplies the current time in milliseconds
+	 */
+	@SuppressWarnings("unchecked")
+	public EditLeases(Duration timeout, Duration tick, int wheelSize, LongSupplier clock) {
+		this.timeoutMillis = timeout.toMillis();
+		this.tickMillis = Math.max(1, tick.toMillis());
+		this.clock = clock;
+		this.wheel = new Set[Math.max(1, wheelSize)];
+		for(int i = 0; i < wheel.length; i++){
+			wheel[i] = new HashSet<>();
+		}
+		this.currentTick = clock.getAsLong() / tickMillis;
+	}
+
+	/**
+	 * Leases a resource to a user, releasing any other lease the user held. Acquiring a resource the user already leases renews it.
+	 *
+	 * @param userId the user editing
+	 * @param path the resource to edit
+	 * @return the new lease or null if the resource is leased to another user
+	 */
+	public synchronized Lease acquire(UserId userId, Path path) {
+		Lease current = getLease(path);
+		if(current != null && !current.userId().equals(userId)){
+			return null;
+		}
+		release(userId);
+		release(path);
+		return add(userId, path);
+	}
+
+	/**
+	 * Extends the lease of a user on a resource by the timeout
+	 *
+	 * @param userId the user editing
+	 * @param path the edited resource
+	 * @return the renewed lease or null if the user does not hold a lease on the resource
+	 */
+	public synchronized Lease renew(UserId userId, Path path) {
+		Lease current = getLease(userId);
+		if(current == null || !current.path().equals(path)){
+			return null;
+		}
+		remove(current);
+		return add(userId, path);
+	}
+
+	/**
+	 * Releases the lease of a user
+	 *
+	 * @return true if the user held a lease
+	 */
+	public synchronized boolean release(UserId userId) {
+		Lease lease = byUser.get(userId);
+		if(lease == null){
+			return false;
+		}
+		remove(lease);
+		return true;
+	}
+
+	/**
+	 * Releases the lease on a resource
+	 *
+	 * @return true if the resource was leased
+	 */
+	public synchronized boolean release(Path path) {
+		Lease lease = byPath.get(path);
+		if(lease == null){
+			return false;
+		}
+		remove(lease);
+		return true;
+	}
+
+	/**
+	 * @return the lease on a resource or null if it is not leased or the lease expired
+	 */
+	public Lease getLease(Path path) {
+		return valid(byPath.get(path));
+	}
+
+	/**
+	 * @return the lease of a user or null if they hold none or it expired
+	 */
+	public Lease getLease(UserId userId) {
+		return valid(byUser.get(userId));
+	}
+
+	/**
+	 * Advances the timer wheel to the current time, releasing every lease that expired in the elapsed ticks
+	 *
+	 * @return the released leases
+	 */
+	public synchronized List<Lease> expire() {
+		long now = clock.getAsLong();
+		long nowTick = now / tickMillis;
+		//after a full rotation every slot was visited, further ticks would visit the same slots again
+		long lastTick = Math.min(nowTick, currentTick + wheel.length);
+		List<Lease> expired = new ArrayList<>();
+		for(long tick = currentTick + 1; tick <= lastTick; tick++){
+			Iterator<Lease> iterator = wheel[slot(tick)].iterator();
+			while(iterator.hasNext()){
+				Lease lease = iterator.next();
+				if(lease.expiresAt() <= now){
+					iterator.remove();
+					byPath.remove(lease.path(), lease);
+					byUser.remove(lease.userId(), lease);
+					expired.add(lease);
+				}
+			}
+		}
+		currentTick = Math.max(currentTick, nowTick);
+		return expired;
+	}
+
+	/**
+	 * @return the amount of held leases, including expired ones not yet released
+	 */
+	public int size() {
+		return byPath.size();
+	}
+
+	private Lease add(UserId userId, Path path) {
+		Lease lease = new Lease(userId, path, clock.getAsLong() + timeoutMillis);
+		byPath.put(path, lease);
+		byUser.put(userId, lease);
+		wheel[slot(deadlineTick(lease))].add(lease);
+		return lease;
+	}
+
+	private void remove(Lease lease) {
+		wheel[slot(deadlineTick(lease))].remove(lease);
+		byPath.remove(lease.path(), lease);
+		byUser.remove(lease.userId(), lease);
+	}
+
+	private Lease valid(Lease lease) {
+		return lease == null || lease.expiresAt() <= clock.getAsLong() ? null : lease;
+	}
+
+	/**
+	 * The first tick at which the lease is expired, never one that was already processed so it is not skipped for a whole rotation. Stays the
+	 * same for as long as the lease is in the wheel, as the wheel is never advanced past it without removing the lease.
+	 */
+	private long deadlineTick(Lease lease) {
+		long tick = (lease.expiresAt() + tickMillis - 1) / tickMillis;
+		return Math.max(tick, currentTick + 1);
+	}
+
+	private int slot(long tick) {
+		return (int) Math.floorMod(tick, (long) wheel.length);
+	}
+}
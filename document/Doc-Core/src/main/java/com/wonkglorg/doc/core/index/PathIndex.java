@@ -0,0 +1,359 @@
+package com.wonkglorg.doc.core.index;
+
+import com.wonkglorg.doc.core.path.AntPath;
+import org.springframework.util.AntPathMatcher;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Directory trie over resource paths. Path segments are interned so directories shared by many resources are only stored once. Ant
+ * patterns are answered by descending to the literal prefix of the pattern and only matching the resources below it. The resources are
+ * also kept sorted by their path, so pages of resources are read without sorting them.
+ * <p>
+ * Patterns are matched against the normalized path as a single segment, the same way {@link AntPath} and the permissions evaluate them,
+ * so wildcards also match path separators and a pattern selects exactly the resources it grants permissions on.
+ */
+public class PathIndex{
+	private static final AntPathMatcher pathMatcher = new AntPathMatcher();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/**
+	 * Interned path segments
+	 */
+	private final Map<String, String> segments = new HashMap<>();
+	private final Node root = new Node("");
+	/**
+	 * The resources sorted by their path
+	 */
+	private final NavigableMap<String, Path> sorted = new TreeMap<>();
+
+	/**
+	 * Visitor used to walk the directory structure of the index
+	 */
+	public interface Visitor{
+		/**
+		 * Called when entering a directory
+		 *
+		 * @param name the name of the directory
+		 */
+		void enterDirectory(String name);
+
+		/**
+		 * Called when leaving the last entered directory
+		 */
+		void exitDirectory();
+
+		/**
+		 * Called for every resource in the current directory
+		 *
+		 * @param path the path of the resource
+		 */
+		void visitResource(Path path);
+	}
+
+	/**
+	 * Adds a resource to the index
+	 *
+	 * @param path the path of the resource
+	 */
+	public void add(Path path) {
+		lock.writeLock().lock();
+		try{
+			Node current = root;
+			for(String segment : split(path.toString())){
+				String interned = segments.computeIfAbsent(segment, s -> s);
+				current = current.children.computeIfAbsent(interned, Node::new);
+			}
+			if(current.resource != null){
+				sorted.remove(current.resource.toString());
+			}
+			current.resource = path;
+			sorted.put(path.toString(), path);
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a resource from the index, directories left empty are removed with it
+	 *
+	 * @param path the path of the resource
+	 */
+	public void remove(Path path) {
+		lock.writeLock().lock();
+		try{
+			List<Node> nodes = new ArrayList<>();
+			Node current = root;
+			for(String segment : split(path.toString())){
+				current = current.children.get(segment);
+				if(current == null){
+					return;
+				}
+				nodes.add(current);
+			}
+			if(current.resource != null){
+				sorted.remove(current.resource.toString());
+			}
+			current.resource = null;
+
+			for(int i = nodes.size() - 1; i >= 0; i--){
+				Node node = nodes.get(i);
+				if(node.resource != null || !node.children.isEmpty()){
+					break;
+				}
+				Node parent = i == 0 ? root : nodes.get(i - 1);
+				parent.children.remove(node.name);
+			}
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Moves a resource to a new path
+	 *
+	 * @param oldPath the current path of the resource
+	 * @param newPath the new path of the resource
+	 */
+	public void move(Path oldPath, Path newPath) {
+		lock.writeLock().lock();
+		try{
+			remove(oldPath);
+			add(newPath);
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all resources from the index
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try{
+			root.children.clear();
+			segments.clear();
+			sorted.clear();
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets all resources matching the given path, the path can either be a normal path or an ant path
+	 *
+	 * @param pattern the path to match
+	 * @return the matching resources
+	 */
+	public Set<Path> match(String pattern) {
+		String[] patternSegments = split(pattern);
+		lock.readLock().lock();
+		try{
+			Node current = root;
+			int literalSegments = 0;
+			while(literalSegments < patternSegments.length && !pathMatcher.isPattern(patternSegments[literalSegments])){
+				current = current.children.get(patternSegments[literalSegments]);
+				if(current == null){
+					return new HashSet<>();
+				}
+				literalSegments++;
+			}
+
+			Set<Path> result = new HashSet<>();
+			if(literalSegments == patternSegments.length){
+				if(current.resource != null){
+					result.add(current.resource);
+				}
+				return result;
+			}
+
+			List<Path> candidates = new ArrayList<>();
+			collect(current, candidates);
+			//everything below the prefix matches so there is no need to evaluate the pattern
+			if(literalSegments == patternSegments.length - 1 && patternSegments[literalSegments].equals("**")){
+				result.addAll(candidates);
+				return result;
+			}
+
+			//matched as normalized paths, the separator is not a segment boundary for the matcher
+			String joinedPattern = String.join("\\", patternSegments);
+			for(Path candidate : candidates){
+				if(pathMatcher.match(joinedPattern, String.join("\\", split(candidate.toString())))){
+					result.add(candidate);
+				}
+			}
+			return result;
+		} finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Visits the resources in the order of their path
+	 *
+	 * @param after the path to start after, null to start with the first resource
+	 * @param visitor receives each resource, returns false to stop visiting further resources
+	 */
+	public void forEachAfter(String after, Predicate<Path> visitor) {
+		lock.readLock().lock();
+		try{
+			Map<String, Path> resources = after == null ? sorted : sorted.tailMap(after, false);
+			for(Path path : resources.values()){
+				if(!visitor.test(path)){
+					return;
+				}
+			}
+		} finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Walks the directory structure of the given resources in the index. The resources of a directory are visited before its
+	 * subdirectories, both in alphabetical order, and directories are only entered if they contain at least one of the given resources
+	 *
+	 * @param resources the resources to include
+	 * @param visitor the visitor to call
+	 */
+	public void walk(Set<Path> resources, Visitor visitor) {
+		lock.readLock().lock();
+		try{
+			walk(root, resources, visitor, new ArrayList<>());
+		} finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Walks the children of a node
+	 *
+	 * @param node the node to walk
+	 * @param resources the resources to include
+	 * @param visitor the visitor to call
+	 * @param pendingDirectories directories not yet entered, they are only entered once a resource inside them is visited
+	 * @return true if any directory got entered or resource got visited
+	 */
+	private boolean walk(Node node, Set<Path> resources, Visitor visitor, List<String> pendingDirectories) {
+		boolean visited = false;
+		Collection<Node> children = new TreeMap<>(node.children).values();
+		for(Node child : children){
+			if(child.resource != null && resources.contains(child.resource)){
+				pendingDirectories.forEach(visitor::enterDirectory);
+				pendingDirectories.clear();
+				visitor.visitResource(child.resource);
+				visited = true;
+			}
+		}
+
+		for(Node child : children){
+			if(child.children.isEmpty()){
+				continue;
+			}
+
+			pendingDirectories.add(child.name);
+			if(walk(child, resources, visitor, pendingDirectories)){
+				visitor.exitDirectory();
+				visited = true;
+			} else {
+				pendingDirectories.remove(pendingDirectories.size() - 1);
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Assigns a value to each of the given resources. Before descending into a directory the subtree resolver is asked for a value covering
+	 * everything below it, if it returns one all resources in that directory get it without being resolved individually.
+	 *
+	 * @param resources the resources to resolve
+	 * @param subtreeResolver resolves a value for a whole directory given its normalized path (empty for the root), returns
+	 * null if the resources below it have to be resolved individually
+	 * @param resourceResolver resolves the value of a single resource
+	 * @param <T> the type of the resolved value
+	 * @return the resolved values of the given resources
+	 */
+	public <T> Map<Path, T> resolve(Set<Path> resources, Function<String, T> subtreeResolver, Function<Path, T> resourceResolver) {
+		Map<Path, T> result = new HashMap<>();
+		lock.readLock().lock();
+		try{
+			resolve(root, "", resources, subtreeResolver, resourceResolver, result);
+		} finally{
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	private <T> void resolve(Node node,
+							 String directory,
+							 Set<Path> resources,
+							 Function<String, T> subtreeResolver,
+							 Function<Path, T> resourceResolver,
+							 Map<Path, T> result) {
+		T subtreeValue = subtreeResolver.apply(directory);
+		if(subtreeValue != null){
+			List<Path> subtree = new ArrayList<>();
+			for(Node child : node.children.values()){
+				collect(child, subtree);
+			}
+			for(Path path : subtree){
+				if(resources.contains(path)){
+					result.put(path, subtreeValue);
+				}
+			}
+			return;
+		}
+
+		for(Node child : node.children.values()){
+			if(child.resource != null && resources.contains(child.resource)){
+				result.put(child.resource, resourceResolver.apply(child.resource));
+			}
+			if(!child.children.isEmpty()){
+				resolve(child, directory.isEmpty() ? child.name : directory + "\\" + child.name, resources, subtreeResolver, resourceResolver, result);
+			}
+		}
+	}
+
+	private void collect(Node node, List<Path> result) {
+		if(node.resource != null){
+			result.add(node.resource);
+		}
+		for(Node child : node.children.values()){
+			collect(child, result);
+		}
+	}
+
+	/**
+	 * Splits a path into its segments, accepting both path separators
+	 *
+	 * @param path the path to split
+	 * @return the non empty segments of the path
+	 */
+	private static String[] split(String path) {
+		return path.replace("\\", "/").replaceAll("^/+|/+$", "").split("/+");
+	}
+
+	private static class Node{
+		private final String name;
+		private final Map<String, Node> children = new HashMap<>();
+		/**
+		 * The resource located at this node or null if it is only a directory
+		 */
+		private Path resource;
+
+		private Node(String name) {
+			this.name = name;
+		}
+	}
+}
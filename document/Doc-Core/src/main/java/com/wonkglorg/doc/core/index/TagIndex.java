@@ -0,0 +1,228 @@
+package com.wonkglorg.doc.core.index;
+
+import com.wonkglorg.doc.core.objects.TagId;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index mapping each tag to the resources tagged with it. Every resource gets a dense ordinal so the resources of a tag can be
+ * stored as a {@link BitSet}, turning whitelist and blacklist filtering into set unions and differences.
+ */
+public class TagIndex{
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	/**
+	 * The ordinal assigned to each resource
+	 */
+	private final Map<Path, Integer> ordinals = new HashMap<>();
+	/**
+	 * The resource each ordinal is assigned to, null for free ordinals
+	 */
+	private final List<Path> paths = new ArrayList<>();
+	/**
+	 * Ordinals of removed resources that can be reused
+	 */
+	private final Deque<Integer> freeOrdinals = new ArrayDeque<>();
+	/**
+	 * All ordinals currently assigned to a resource
+	 */
+	private final BitSet liveOrdinals = new BitSet();
+	/**
+	 * The resources tagged with each tag
+	 */
+	private final Map<TagId, BitSet> tagResources = new HashMap<>();
+	/**
+	 * The tags of each resource, needed to clear them from {@link #tagResources} on updates
+	 */
+	private final Map<Integer, Set<TagId>> resourceTags = new HashMap<>();
+
+	/**
+	 * Adds a resource to the index or replaces the tags of an already indexed resource
+	 *
+	 * @param path the path of the resource
+	 * @param tags the tags of the resource
+	 */
+	public void put(Path path, Set<TagId> tags) {
+		lock.writeLock().lock();
+		try{
+			int ordinal = ordinals.computeIfAbsent(path, this::nextOrdinal);
+			clearTags(ordinal);
+			Set<TagId> newTags = tags == null ? new HashSet<>() : new HashSet<>(tags);
+			for(TagId tag : newTags){
+				tagResources.computeIfAbsent(tag, t -> new BitSet()).set(ordinal);
+			}
+			resourceTags.put(ordinal, newTags);
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a resource from the index
+	 *
+	 * @param path the path of the resource
+	 */
+	public void remove(Path path) {
+		lock.writeLock().lock();
+		try{
+			Integer ordinal = ordinals.remove(path);
+			if(ordinal == null){
+				return;
+			}
+			clearTags(ordinal);
+			resourceTags.remove(ordinal);
+			paths.set(ordinal, null);
+			liveOrdinals.clear(ordinal);
+			freeOrdinals.push(ordinal);
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Moves a resource to a new path keeping its tags
+	 *
+	 * @param oldPath the current path of the resource
+	 * @param newPath the new path of the resource
+	 */
+	public void move(Path oldPath, Path newPath) {
+		lock.writeLock().lock();
+		try{
+			Integer ordinal = ordinals.remove(oldPath);
+			if(ordinal == null){
+				return;
+			}
+			ordinals.put(newPath, ordinal);
+			paths.set(ordinal, newPath);
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a tag from every resource
+	 *
+	 * @param tagId the tag to remove
+	 */
+	public void removeTag(TagId tagId) {
+		lock.writeLock().lock();
+		try{
+			BitSet resources = tagResources.remove(tagId);
+			if(resources == null){
+				return;
+			}
+			for(int ordinal = resources.nextSetBit(0); ordinal >= 0; ordinal = resources.nextSetBit(ordinal + 1)){
+				resourceTags.get(ordinal).remove(tagId);
+			}
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all resources from the index
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try{
+			ordinals.clear();
+			paths.clear();
+			freeOrdinals.clear();
+			liveOrdinals.clear();
+			tagResources.clear();
+			resourceTags.clear();
+		} finally{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets all resources that have at least one of the whitelisted tags and none of the blacklisted tags
+	 *
+	 * @param whitelist the tags a resource needs at least one of, if null or empty all resources are allowed
+	 * @param blacklist the tags a resource is not allowed to have, takes precedence over the whitelist
+	 * @return the paths of the matching resources
+	 */
+	public Set<Path> filter(Set<TagId> whitelist, Set<TagId> blacklist) {
+		lock.readLock().lock();
+		try{
+			BitSet matches;
+			if(whitelist == null || whitelist.isEmpty()){
+				matches = (BitSet) liveOrdinals.clone();
+			} else {
+				matches = new BitSet();
+				for(TagId tag : whitelist){
+					BitSet resources = tagResources.get(tag);
+					if(resources != null){
+						matches.or(resources);
+					}
+				}
+			}
+
+			if(blacklist != null){
+				for(TagId tag : blacklist){
+					BitSet resources = tagResources.get(tag);
+					if(resources != null){
+						matches.andNot(resources);
+					}
+				}
+			}
+
+			Set<Path> result = new HashSet<>(matches.cardinality());
+			for(int ordinal = matches.nextSetBit(0); ordinal >= 0; ordinal = matches.nextSetBit(ordinal + 1)){
+				result.add(paths.get(ordinal));
+			}
+			return result;
+		} finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the amount of indexed resources
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try{
+			return ordinals.size();
+		} finally{
+			lock.readLock().unlock();
+		}
+	}
+
+	private int nextOrdinal(Path path) {
+		int ordinal;
+		if(freeOrdinals.isEmpty()){
+			ordinal = paths.size();
+			paths.add(path);
+		} else {
+			ordinal = freeOrdinals.pop();
+			paths.set(ordinal, path);
+		}
+		liveOrdinals.set(ordinal);
+		return ordinal;
+	}
+
+	private void clearTags(int ordinal) {
+		Set<TagId> tags = resourceTags.get(ordinal);
+		if(tags == null){
+			return;
+		}
+		for(TagId tag : tags){
+			BitSet resources = tagResources.get(tag);
+			if(resources != null){
+				resources.clear(ordinal);
+			}
+		}
+	}
+}
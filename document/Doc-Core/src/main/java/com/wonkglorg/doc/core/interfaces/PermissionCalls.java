@@ -5,12 +5,16 @@ import com.wonkglorg.doc.core.exception.client.ClientException;
 import com.wonkglorg.doc.core.exception.client.InvalidGroupException;
 import com.wonkglorg.doc.core.exception.client.InvalidRepoException;
 import com.wonkglorg.doc.core.exception.client.InvalidUserException;
+import com.wonkglorg.doc.core.index.PathIndex;
 import com.wonkglorg.doc.core.objects.GroupId;
 import com.wonkglorg.doc.core.objects.RepoId;
 import com.wonkglorg.doc.core.objects.UserId;
 import com.wonkglorg.doc.core.path.TargetPath;
 import com.wonkglorg.doc.core.permissions.Permission;
+import com.wonkglorg.doc.core.permissions.PermissionType;
 
+import java.nio.file.Path;
+import java.util.Map;
 import java.util.Set;
 
 public interface PermissionCalls{
@@ -99,4 +103,17 @@ public interface PermissionCalls{
 	 * @return the permissions
 	 */
 	Set<Permission<GroupId>> getPermissionsForGroup(RepoId repoId, GroupId groupId) throws CoreException, ClientException;
+	
+	/**
+	 * Gets the effective permissions of a user for resources of a path index, directories fully covered by a single permission are
+	 * resolved at once instead of per resource
+	 *
+	 * @param repoId the repo
+	 * @param userId the user
+	 * @param pathIndex the path index of the repo
+	 * @param resources the resources to get the permissions for
+	 * @return the permission of each resource
+	 */
+	Map<Path, PermissionType> getPermissionsForResources(RepoId repoId, UserId userId, PathIndex pathIndex, Set<Path> resources)
+			throws CoreException, ClientException;
 }
@@ -145,13 +145,22 @@ public interface ResourceCalls{
 	boolean isUserEditing(RepoId id, UserId userId) throws InvalidRepoException, InvalidUserException;
 	
 	/**
-	 * Sets a user as editing a file locking it for others to edit at the same time
+	 * Sets a user as editing a file locking it for others to edit at the same time, the lock is released if it is not renewed within the
+	 * edit lease timeout
 	 *
 	 * @param userId the user editing
 	 * @param path the path to the file
 	 */
 	void setCurrentlyEdited(RepoId repoId, UserId userId, Path path) throws ClientException;
 	
+	/**
+	 * Renews the lock of a user on the file they are editing
+	 *
+	 * @param userId the user editing
+	 * @param path the path to the file
+	 */
+	void renewCurrentlyEdited(RepoId repoId, UserId userId, Path path) throws ClientException;
+	
 	/**
 	 * Get the resource being edited by a user
 	 *
@@ -0,0 +1,37 @@
+package com.wonkglorg.doc.core.interfaces;
+
+import com.wonkglorg.doc.core.objects.RepoId;
+
+import java.nio.file.Path;
+
+/**
+ * Gets notified about committed changes to the resources of a repository
+ */
+public interface ResourceChangeListener{
+	
+	/**
+	 * Called when a resource got added or its data changed
+	 *
+	 * @param repoId the repo of the resource
+	 * @param path the path of the resource
+	 * @param data the new data of the resource
+	 */
+	void resourceDataChanged(RepoId repoId, Path path, String data);
+	
+	/**
+	 * Called when a resource got removed
+	 *
+	 * @param repoId the repo of the resource
+	 * @param path the path of the resource
+	 */
+	void resourceRemoved(RepoId repoId, Path path);
+	
+	/**
+	 * Called when a resource got moved to a new path
+	 *
+	 * @param repoId the repo of the resource
+	 * @param oldPath the previous path of the resource
+	 * @param newPath the new path of the resource
+	 */
+	void resourceMoved(RepoId repoId, Path oldPath, Path newPath);
+}
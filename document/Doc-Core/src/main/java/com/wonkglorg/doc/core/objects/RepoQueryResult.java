@@ -0,0 +1,44 @@
+package com.wonkglorg.doc.core.objects;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The result of a query spanning multiple repositories
+ *
+ * @param result the merged result of all repositories that answered
+ * @param failures the repositories left out of the result and the reason why
+ * @param <T> the type of the result
+ */
+public record RepoQueryResult<T>(T result, Map<RepoId, String> failures){
+	
+	/**
+	 * Creates a result without any failed repositories
+	 *
+	 * @param result the result
+	 * @return the complete result
+	 */
+	public static <T> RepoQueryResult<T> complete(T result) {
+		return new RepoQueryResult<>(result, Map.of());
+	}
+	
+	/**
+	 * @return true if at least one repository is missing from the result
+	 */
+	public boolean isPartial() {
+		return !failures.isEmpty();
+	}
+	
+	/**
+	 * @return a message listing the repositories missing from the result, null if the result is complete
+	 */
+	public String describeFailures() {
+		if(!isPartial()){
+			return null;
+		}
+		return "Partial result, failed to query: " + failures.entrySet()
+															.stream()
+															.map(entry -> "%s (%s)".formatted(entry.getKey(), entry.getValue()))
+															.collect(Collectors.joining(", "));
+	}
+}
@@ -29,6 +29,10 @@ public final class Resource{
 	 */
 	private PermissionType permissionType = PermissionType.EDIT;
 	private String data;
+	/**
+	 * The relevance of the resource for the search term it was returned for, null if it was not returned by a ranked search
+	 */
+	private Double score;
 	
 	public Resource(Path resourcePath,
 					LocalDateTime createdAt,
@@ -157,7 +161,7 @@ public final class Resource{
 				new HashSet<>(resourceTags),
 				permissionType,
 				category,
-				data);
+				data).setScore(score);
 	}
 	
 	@Override
@@ -186,6 +190,15 @@ public final class Resource{
 		return this;
 	}
 	
+	public Double getScore() {
+		return score;
+	}
+	
+	public Resource setScore(Double score) {
+		this.score = score;
+		return this;
+	}
+	
 	public Resource setTags(List<TagId> resourceTags) {
 		this.resourceTags.clear();
 		this.resourceTags.addAll(resourceTags);
@@ -0,0 +1,19 @@
+package com.wonkglorg.doc.core.objects;
+
+import java.util.List;
+
+/**
+ * A single page of resources
+ *
+ * @param resources the resources of this page
+ * @param nextCursor the cursor to request the next page with, null if this is the last page
+ */
+public record ResourcePage(List<Resource> resources, String nextCursor){
+	
+	/**
+	 * @return true if there are more resources after this page
+	 */
+	public boolean hasMore() {
+		return nextCursor != null;
+	}
+}
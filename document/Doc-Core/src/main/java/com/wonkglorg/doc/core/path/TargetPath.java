@@ -58,7 +58,7 @@ public class TargetPath{
 	}
 	
 	public boolean isPresent() {
-		return path != null && antPath != null;
+		return path != null || antPath != null;
 	}
 	
 	public Path getPath() {
@@ -0,0 +1,372 @@
+package com.wonkglorg.doc.core.permissions;
+
+import com.wonkglorg.doc.core.index.PathIndex;
+import com.wonkglorg.doc.core.objects.GroupId;
+import com.wonkglorg.doc.core.objects.UserId;
+import com.wonkglorg.doc.core.path.TargetPath;
+import org.springframework.util.AntPathMatcher;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * The compiled effective permissions of a user and its groups. Exact paths are resolved with a hash lookup, ant paths are compiled once and
+ * stored in a trie keyed by their literal prefix so only patterns that can possibly match a path are evaluated.
+ * <p>
+ * Resolution order is the same as {@link Permission#filterPathsWithPermissions(Set, Set, List)}: exact user paths, exact group paths,
+ * user ant paths and finally group ant paths, ant paths being ordered by their specificity (longest pattern first).
+ */
+public class PermissionEvaluator {
+    private static final AntPathMatcher antPathMatcher = new AntPathMatcher();
+
+    private final Map<String, PermissionType> fullPathsUser = new HashMap<>();
+    private final Map<String, PermissionType> fullPathsGroup = new HashMap<>();
+    private final PatternTrie antPathsUser = new PatternTrie();
+    private final PatternTrie antPathsGroup = new PatternTrie();
+    /**
+     * All exact paths of the user and its groups, sorted to quickly find the ones inside a directory
+     */
+    private final TreeSet<String> exactPaths = new TreeSet<>();
+
+    private PermissionEvaluator() {
+    }
+
+    /**
+     * Compiles the permissions of a user and its groups
+     *
+     * @param userPermissions  the permissions of the user (can be null)
+     * @param groupPermissions the permissions of the groups the user is in (can be null)
+     * @return the compiled permissions
+     */
+    public static PermissionEvaluator compile(Set<Permission<UserId>> userPermissions, Set<Permission<GroupId>> groupPermissions) {
+        PermissionEvaluator evaluator = new PermissionEvaluator();
+        if (userPermissions != null) {
+            for (var permission : userPermissions) {
+                store(permission, evaluator.antPathsUser, evaluator.fullPathsUser);
+            }
+        }
+        if (groupPermissions != null) {
+            for (var permission : groupPermissions) {
+                store(permission, evaluator.antPathsGroup, evaluator.fullPathsGroup);
+            }
+        }
+        evaluator.exactPaths.addAll(evaluator.fullPathsUser.keySet());
+        evaluator.exactPaths.addAll(evaluator.fullPathsGroup.keySet());
+        return evaluator;
+    }
+
+    private static void store(Permission<?> permission, PatternTrie antPaths, Map<String, PermissionType> fullPaths) {
+        String path = permission.getPath().toString();
+        if (antPathMatcher.isPattern(path)) {
+            antPaths.add(path, permission.getPermission());
+        } else {
+            fullPaths.put(path, permission.getPermission());
+        }
+    }
+
+    /**
+     * Gets the permission for a path
+     *
+     * @param path the path
+     * @return the permission type, {@link PermissionType#DENY} if no permission applies
+     */
+    public PermissionType evaluate(Path path) {
+        return evaluate(path.toString());
+    }
+
+    /**
+     * Gets the permission for a path
+     *
+     * @param path the path
+     * @return the permission type, {@link PermissionType#DENY} if no permission applies
+     */
+    public PermissionType evaluate(String path) {
+        path = TargetPath.normalizePath(path);
+        PermissionType permission = fullPathsUser.get(path);
+        if (permission != null) {
+            return permission;
+        }
+        permission = fullPathsGroup.get(path);
+        if (permission != null) {
+            return permission;
+        }
+        permission = antPathsUser.find(path);
+        if (permission != null) {
+            return permission;
+        }
+        permission = antPathsGroup.find(path);
+        return permission != null ? permission : PermissionType.DENY;
+    }
+
+    /**
+     * Gets the permissions for a list of paths
+     *
+     * @param paths the paths
+     * @return a map of the paths and their permissions
+     */
+    public Map<Path, PermissionType> evaluate(Collection<Path> paths) {
+        Map<Path, PermissionType> result = new HashMap<>();
+        for (Path path : paths) {
+            result.putIfAbsent(path, evaluate(path));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the permissions for the given resources of a path index. Directories covered entirely by a single ant path without any more
+     * specific permission below them are resolved in one step instead of evaluating every resource inside them.
+     *
+     * @param pathIndex the path index containing the resources
+     * @param resources the resources to get the permissions for
+     * @return a map of the resources and their permissions
+     */
+    public Map<Path, PermissionType> evaluate(PathIndex pathIndex, Set<Path> resources) {
+        Map<Path, PermissionType> result = pathIndex.resolve(resources, this::evaluateDirectory, this::evaluate);
+        //resources missing from the index still get evaluated individually
+        for (Path path : resources) {
+            result.computeIfAbsent(path, this::evaluate);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the permission every resource inside a directory has
+     *
+     * @param directory the normalized path of the directory, empty for the root
+     * @return the permission or null if resources inside the directory can have different permissions
+     */
+    public PermissionType evaluateDirectory(String directory) {
+        String prefix = directory.isEmpty() ? "" : directory + "\\";
+        String firstExact = exactPaths.ceiling(prefix);
+        if (firstExact != null && firstExact.startsWith(prefix)) {
+            return null;
+        }
+
+        SubtreeMatch userMatch = antPathsUser.findForDirectory(prefix);
+        if (userMatch.ambiguous()) {
+            return null;
+        }
+        if (userMatch.permission() != null) {
+            return userMatch.permission();
+        }
+
+        SubtreeMatch groupMatch = antPathsGroup.findForDirectory(prefix);
+        if (groupMatch.ambiguous()) {
+            return null;
+        }
+        return groupMatch.permission() != null ? groupMatch.permission() : PermissionType.DENY;
+    }
+
+    /**
+     * The result of matching the ant paths against a whole directory
+     *
+     * @param ambiguous  if resources inside the directory can be matched by different ant paths
+     * @param permission the permission of the ant path matching every resource in the directory, null if none does
+     */
+    private record SubtreeMatch(boolean ambiguous, PermissionType permission) {
+    }
+
+    /**
+     * A compiled ant path
+     *
+     * @param regex         the regex the ant path was translated to
+     * @param literalPrefix the part of the ant path before its first wildcard
+     * @param covering      if the ant path matches every path starting with its literal prefix
+     * @param permission    the permission granted by the ant path
+     * @param specificity   the specificity of the ant path, more specific paths take priority
+     * @param order         the order the ant path was added in, used to break ties
+     */
+    private record CompiledPattern(Pattern regex, String literalPrefix, boolean covering, PermissionType permission, int specificity,
+                                   int order) {
+
+        private boolean isMoreSpecificThan(CompiledPattern other) {
+            if (other == null) {
+                return true;
+            }
+            if (specificity != other.specificity) {
+                return specificity > other.specificity;
+            }
+            return order < other.order;
+        }
+    }
+
+    /**
+     * Trie of ant paths keyed by the full path segments of their literal prefix
+     */
+    private static class PatternTrie {
+        private final Node root = new Node();
+        private int size = 0;
+
+        private static class Node {
+            private final Map<String, Node> children = new HashMap<>();
+            /**
+             * Patterns whose literal prefix ends at this node, sorted from most to least specific
+             */
+            private final List<CompiledPattern> patterns = new ArrayList<>();
+        }
+
+        private void add(String pattern, PermissionType permission) {
+            String prefix = literalPrefix(pattern);
+            boolean covering = pattern.substring(prefix.length()).chars().allMatch(c -> c == '*');
+            CompiledPattern compiled = new CompiledPattern(toRegex(pattern), prefix, covering, permission, pattern.length(), size++);
+
+            Node current = root;
+            int start = 0;
+            int separator;
+            while ((separator = prefix.indexOf('\\', start)) >= 0) {
+                current = current.children.computeIfAbsent(prefix.substring(start, separator), s -> new Node());
+                start = separator + 1;
+            }
+
+            int index = 0;
+            while (index < current.patterns.size() && !compiled.isMoreSpecificThan(current.patterns.get(index))) {
+                index++;
+            }
+            current.patterns.add(index, compiled);
+        }
+
+        /**
+         * Finds the permission of the most specific pattern matching the path
+         *
+         * @param path the normalized path
+         * @return the permission or null if no pattern matches
+         */
+        private PermissionType find(String path) {
+            if (size == 0) {
+                return null;
+            }
+
+            CompiledPattern best = null;
+            Node current = root;
+            int start = 0;
+            while (current != null) {
+                for (CompiledPattern pattern : current.patterns) {
+                    if (best != null && !pattern.isMoreSpecificThan(best)) {
+                        break;
+                    }
+                    if (pattern.regex().matcher(path).matches()) {
+                        best = pattern;
+                        break;
+                    }
+                }
+
+                int separator = path.indexOf('\\', start);
+                if (separator < 0) {
+                    break;
+                }
+                current = current.children.get(path.substring(start, separator));
+                start = separator + 1;
+            }
+            return best == null ? null : best.permission();
+        }
+
+        /**
+         * Finds the ant path matching every path inside a directory
+         *
+         * @param prefix the normalized directory path including its trailing separator, empty for the root
+         * @return the match, ambiguous if a pattern could match only some of the paths inside the directory and is not overruled by a more
+         * specific pattern covering the whole directory
+         */
+        private SubtreeMatch findForDirectory(String prefix) {
+            if (size == 0) {
+                return new SubtreeMatch(false, null);
+            }
+
+            //patterns whose literal prefix is a parent of the directory
+            List<CompiledPattern> candidates = new ArrayList<>();
+            Node current = root;
+            int start = 0;
+            while (current != null) {
+                candidates.addAll(current.patterns);
+                int separator = prefix.indexOf('\\', start);
+                if (separator < 0) {
+                    break;
+                }
+                current = current.children.get(prefix.substring(start, separator));
+                start = separator + 1;
+            }
+
+            CompiledPattern covering = null;
+            for (CompiledPattern pattern : candidates) {
+                if (pattern.covering() && prefix.startsWith(pattern.literalPrefix()) && pattern.isMoreSpecificThan(covering)) {
+                    covering = pattern;
+                }
+            }
+
+            //patterns with a literal prefix inside the directory always only match parts of it
+            if (current != null) {
+                collect(current.children.values(), candidates);
+            }
+
+            for (CompiledPattern pattern : candidates) {
+                if (pattern == covering) {
+                    continue;
+                }
+                boolean couldMatch = prefix.startsWith(pattern.literalPrefix()) || pattern.literalPrefix().startsWith(prefix);
+                if (couldMatch && pattern.isMoreSpecificThan(covering)) {
+                    return new SubtreeMatch(true, null);
+                }
+            }
+            return new SubtreeMatch(false, covering == null ? null : covering.permission());
+        }
+
+        private static void collect(Collection<Node> nodes, List<CompiledPattern> result) {
+            for (Node node : nodes) {
+                result.addAll(node.patterns);
+                collect(node.children.values(), result);
+            }
+        }
+
+        private static String literalPrefix(String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*' || c == '?' || c == '{') {
+                    return pattern.substring(0, i);
+                }
+            }
+            return pattern;
+        }
+
+        /**
+         * Translates an ant path into a regex, paths are normalized to a single segment so wildcards also match path separators the same
+         * way {@link AntPathMatcher} evaluates them
+         */
+        private static Pattern toRegex(String pattern) {
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c != '*' && c != '?' && c != '{') {
+                    literal.append(c);
+                    continue;
+                }
+
+                if (!literal.isEmpty()) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+
+                if (c == '*') {
+                    regex.append(".*");
+                } else if (c == '?') {
+                    regex.append('.');
+                } else {
+                    int end = pattern.indexOf('}', i);
+                    if (end < 0) {
+                        literal.append(c);
+                        continue;
+                    }
+                    String variable = pattern.substring(i + 1, end);
+                    int colon = variable.indexOf(':');
+                    regex.append('(').append(colon < 0 ? "(?s).*" : variable.substring(colon + 1)).append(')');
+                    i = end;
+                }
+            }
+            if (!literal.isEmpty()) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+}
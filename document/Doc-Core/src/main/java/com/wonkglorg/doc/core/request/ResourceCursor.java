@@ -0,0 +1,68 @@
+package com.wonkglorg.doc.core.request;
+
+import com.wonkglorg.doc.core.exception.client.InvalidCursorException;
+import com.wonkglorg.doc.core.objects.RepoId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of the last resource returned by a page of resources. Resources are sorted by their repo id first and their path second, the
+ * next page starts right after the resource the cursor points to.
+ *
+ * @param repoId the repo of the last returned resource
+ * @param path the path of the last returned resource
+ */
+public record ResourceCursor(RepoId repoId, String path){
+	private static final char SEPARATOR = '\n';
+	
+	/**
+	 * Encodes the cursor into an opaque string that can be handed to clients
+	 *
+	 * @return the encoded cursor
+	 */
+	public String encode() {
+		String raw = repoId.id() + SEPARATOR + path;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Decodes a cursor previously created by {@link #encode()}
+	 *
+	 * @param cursor the encoded cursor
+	 * @return the decoded cursor
+	 * @throws InvalidCursorException if the cursor is malformed
+	 */
+	public static ResourceCursor decode(String cursor) throws InvalidCursorException {
+		try{
+			String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			int separator = raw.indexOf(SEPARATOR);
+			if(separator < 0){
+				throw new InvalidCursorException("Invalid cursor '%s'".formatted(cursor));
+			}
+			return new ResourceCursor(RepoId.of(raw.substring(0, separator)), raw.substring(separator + 1));
+		} catch(IllegalArgumentException e){
+			throw new InvalidCursorException("Invalid cursor '%s'".formatted(cursor), e);
+		}
+	}
+	
+	/**
+	 * Gets the path to continue after in the given repo
+	 *
+	 * @param repoId the repo to continue in
+	 * @return the path to continue after, null if the repo has to be read from the start
+	 */
+	public String continueAfter(RepoId repoId) {
+		return this.repoId.equals(repoId) ? path : null;
+	}
+	
+	/**
+	 * Checks if a repo was already fully returned by previous pages
+	 *
+	 * @param repoId the repo to check
+	 * @return true if the repo comes before the repo of the cursor
+	 */
+	public boolean isPassed(RepoId repoId) {
+		return repoId.id().compareTo(this.repoId.id()) < 0;
+	}
+}
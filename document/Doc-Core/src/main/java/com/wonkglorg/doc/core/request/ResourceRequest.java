@@ -46,8 +46,41 @@ public class ResourceRequest{
 	 * The limit of results to return
 	 */
 	private int returnLimit = 999999999;
+	/**
+	 * If the results of a search should be ordered by their relevance and only contain excerpts around the matches instead of the full data
+	 */
+	private boolean ranked = false;
+	/**
+	 * The amount of resources per page, 0 to return all resources at once
+	 */
+	private int pageSize = 0;
+	/**
+	 * The cursor of the page to return, null for the first page
+	 */
+	private String cursor = null;
 	
 	
+	/**
+	 * Creates a copy of this request that can be changed without affecting the original
+	 *
+	 * @return the copy
+	 */
+	public ResourceRequest copy() {
+		ResourceRequest copy = new ResourceRequest();
+		copy.searchTerm = searchTerm;
+		copy.path = path;
+		copy.repoId = repoId;
+		copy.userId = userId;
+		copy.whitelistTags = whitelistTags == null ? null : new HashSet<>(whitelistTags);
+		copy.blacklistTags = blacklistTags == null ? null : new HashSet<>(blacklistTags);
+		copy.withData = withData;
+		copy.returnLimit = returnLimit;
+		copy.ranked = ranked;
+		copy.pageSize = pageSize;
+		copy.cursor = cursor;
+		return copy;
+	}
+	
 	public TargetPath targetPath() {
 		return path;
 	}
@@ -160,6 +193,30 @@ public class ResourceRequest{
 		this.returnLimit = returnLimit;
 	}
 	
+	public boolean isRanked() {
+		return ranked;
+	}
+	
+	public void setRanked(boolean ranked) {
+		this.ranked = ranked;
+	}
+	
+	public int getPageSize() {
+		return pageSize;
+	}
+	
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+	
+	public String getCursor() {
+		return cursor;
+	}
+	
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+	
 	@Override
 	public boolean equals(Object o) {
 		if(!(o instanceof ResourceRequest that)){
@@ -167,11 +224,11 @@ public class ResourceRequest{
 		}
 		return withData == that.withData && returnLimit == that.returnLimit && Objects.equals(searchTerm, that.searchTerm) && Objects.equals(path,
 				that.path) && Objects.equals(repoId, that.repoId) && Objects.equals(userId, that.userId) && Objects.equals(whitelistTags,
-				that.whitelistTags) && Objects.equals(blacklistTags, that.blacklistTags);
+				that.whitelistTags) && Objects.equals(blacklistTags, that.blacklistTags) && ranked == that.ranked && pageSize == that.pageSize && Objects.equals(cursor, that.cursor);
 	}
 	
 	@Override
 	public int hashCode() {
-		return Objects.hash(searchTerm, path, repoId, userId, whitelistTags, blacklistTags, withData, returnLimit);
+		return Objects.hash(searchTerm, path, repoId, userId, whitelistTags, blacklistTags, withData, returnLimit, ranked, pageSize, cursor);
 	}
 }
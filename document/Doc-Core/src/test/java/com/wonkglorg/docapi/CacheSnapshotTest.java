@@ -0,0 +1,131 @@
+package com.wonkglorg.docapi;
+
+import com.wonkglorg.doc.core.db.CacheSnapshot;
+import com.wonkglorg.doc.core.objects.GroupId;
+import com.wonkglorg.doc.core.objects.RepoId;
+import com.wonkglorg.doc.core.objects.Resource;
+import com.wonkglorg.doc.core.objects.Tag;
+import com.wonkglorg.doc.core.objects.TagId;
+import com.wonkglorg.doc.core.objects.UserId;
+import com.wonkglorg.doc.core.path.TargetPath;
+import com.wonkglorg.doc.core.permissions.Permission;
+import com.wonkglorg.doc.core.permissions.PermissionType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests related to the {@link CacheSnapshot}
+ */
+class CacheSnapshotTest {
+    private static final RepoId REPO = RepoId.of("repo");
+    private static final LocalDateTime CREATED = LocalDateTime.of(2024, 3, 1, 12, 30, 15);
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void readsWrittenSnapshot() throws IOException {
+        Path file = directory.resolve("cache.snapshot");
+        createSnapshot(7, "abc123").write(file);
+
+        CacheSnapshot snapshot = CacheSnapshot.read(file, REPO);
+        Assertions.assertNotNull(snapshot);
+        Assertions.assertEquals(7, snapshot.generation());
+        Assertions.assertEquals("abc123", snapshot.lastSyncedCommit());
+
+        Assertions.assertEquals(2, snapshot.resources().size());
+        Resource resource = snapshot.resources().get(0);
+        Assertions.assertEquals(Path.of("docs", "one.md"), resource.resourcePath());
+        Assertions.assertEquals(CREATED, resource.createdAt());
+        Assertions.assertEquals("creator", resource.createdBy());
+        Assertions.assertEquals(CREATED.plusDays(1), resource.modifiedAt());
+        Assertions.assertEquals("editor", resource.modifiedBy());
+        Assertions.assertEquals(REPO, resource.repoId());
+        Assertions.assertEquals(Set.of(new TagId("a"), new TagId("b")), resource.getResourceTags());
+        Assertions.assertEquals("guide", resource.category());
+
+        //unset values stay unset instead of becoming empty
+        Resource empty = snapshot.resources().get(1);
+        Assertions.assertEquals(Path.of("two.md"), empty.resourcePath());
+        Assertions.assertNull(empty.createdAt());
+        Assertions.assertNull(empty.createdBy());
+        Assertions.assertNull(empty.category());
+        Assertions.assertEquals(Set.of(), empty.getResourceTags());
+
+        Assertions.assertEquals(List.of(new Tag(new TagId("a"), "A"), new Tag(new TagId("b"), null)), snapshot.tags());
+
+        Assertions.assertEquals(1, snapshot.userPermissions().size());
+        Permission<UserId> userPermission = snapshot.userPermissions().get(0);
+        Assertions.assertEquals("user", userPermission.getId());
+        Assertions.assertEquals(PermissionType.EDIT, userPermission.getPermission());
+        Assertions.assertEquals(new TargetPath("docs/**").toString(), userPermission.getPath().toString());
+        Assertions.assertEquals(REPO, userPermission.getRepoId());
+
+        Assertions.assertEquals(1, snapshot.groupPermissions().size());
+        Permission<GroupId> groupPermission = snapshot.groupPermissions().get(0);
+        Assertions.assertEquals("group", groupPermission.getId());
+        Assertions.assertEquals(PermissionType.DENY, groupPermission.getPermission());
+        Assertions.assertEquals(new TargetPath("docs/secret.md").toString(), groupPermission.getPath().toString());
+    }
+
+    @Test
+    void rejectsChangedGenerationOrCommit() throws IOException {
+        Path file = directory.resolve("cache.snapshot");
+        createSnapshot(7, "abc123").write(file);
+        CacheSnapshot snapshot = CacheSnapshot.read(file, REPO);
+
+        Assertions.assertTrue(snapshot.isValidFor(7, "abc123"));
+        Assertions.assertFalse(snapshot.isValidFor(8, "abc123"));
+        Assertions.assertFalse(snapshot.isValidFor(7, "def456"));
+        Assertions.assertFalse(snapshot.isValidFor(7, null));
+
+        //a database that was never synchronized only matches a snapshot without a commit
+        CacheSnapshot unsynced = new CacheSnapshot(0, null, List.of(), List.of(), List.of(), List.of());
+        Assertions.assertTrue(unsynced.isValidFor(0, null));
+        Assertions.assertFalse(unsynced.isValidFor(0, "abc123"));
+    }
+
+    @Test
+    void ignoresMissingAndForeignFiles() throws IOException {
+        Assertions.assertNull(CacheSnapshot.read(directory.resolve("missing.snapshot"), REPO));
+
+        Path foreign = directory.resolve("foreign.snapshot");
+        Files.write(foreign, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        Assertions.assertNull(CacheSnapshot.read(foreign, REPO));
+
+        //a cut off snapshot must not be restored partially
+        Path file = directory.resolve("cache.snapshot");
+        createSnapshot(7, "abc123").write(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+        Assertions.assertThrows(IOException.class, () -> CacheSnapshot.read(file, REPO));
+    }
+
+    private static CacheSnapshot createSnapshot(long generation, String lastSyncedCommit) {
+        Resource resource = new Resource(Path.of("docs", "one.md"),
+                CREATED,
+                "creator",
+                CREATED.plusDays(1),
+                "editor",
+                REPO,
+                Set.of(new TagId("a"), new TagId("b")),
+                "guide",
+                null);
+        Resource empty = new Resource(Path.of("two.md"), null, null, null, null, REPO, Set.of(), null, null);
+        return new CacheSnapshot(generation,
+                lastSyncedCommit,
+                List.of(resource, empty),
+                List.of(new Tag(new TagId("a"), "A"), new Tag(new TagId("b"), null)),
+                List.of(new Permission<>(UserId.of("user"), PermissionType.EDIT, new TargetPath("docs/**"), REPO)),
+                List.of(new Permission<>(GroupId.of("group"), PermissionType.DENY, new TargetPath("docs/secret.md"), REPO)));
+    }
+}
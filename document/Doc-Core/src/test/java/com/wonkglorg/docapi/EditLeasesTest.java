@@ -0,0 +1,61 @@
+package com.wonkglorg.docapi;
+
+import com.wonkglorg.doc.core.index.EditLeases;
+import com.wonkglorg.doc.core.objects.UserId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests related to the {@link EditLeases}
+ */
+class EditLeasesTest {
+    private static final UserId USER_A = UserId.of("a");
+    private static final UserId USER_B = UserId.of("b");
+    private static final Path FILE = Path.of("file.md");
+
+    @Test
+    void leasesResourcesToOneUser() {
+        EditLeases leases = new EditLeases(Duration.ofSeconds(10), Duration.ofSeconds(1), 8, new AtomicLong()::get);
+        Assertions.assertNotNull(leases.acquire(USER_A, FILE));
+        Assertions.assertNull(leases.acquire(USER_B, FILE));
+        Assertions.assertEquals(USER_A, leases.getLease(FILE).userId());
+
+        //a user only edits one resource at a time
+        Assertions.assertNotNull(leases.acquire(USER_A, Path.of("other.md")));
+        Assertions.assertNull(leases.getLease(FILE));
+        Assertions.assertNotNull(leases.acquire(USER_B, FILE));
+
+        Assertions.assertTrue(leases.release(USER_B));
+        Assertions.assertFalse(leases.release(FILE));
+        Assertions.assertEquals(1, leases.size());
+    }
+
+    @Test
+    void expiresLeasesThatAreNotRenewed() {
+        AtomicLong clock = new AtomicLong();
+        EditLeases leases = new EditLeases(Duration.ofSeconds(10), Duration.ofSeconds(1), 4, clock::get);
+        leases.acquire(USER_A, FILE);
+        leases.acquire(USER_B, Path.of("other.md"));
+
+        clock.set(6_000);
+        Assertions.assertNotNull(leases.renew(USER_A, FILE));
+        Assertions.assertNull(leases.renew(USER_B, FILE));
+        Assertions.assertEquals(List.of(), leases.expire());
+
+        clock.set(10_500);
+        Assertions.assertNull(leases.getLease(USER_B));
+        List<EditLeases.Lease> expired = leases.expire();
+        Assertions.assertEquals(1, expired.size());
+        Assertions.assertEquals(USER_B, expired.get(0).userId());
+        Assertions.assertEquals(USER_A, leases.getLease(FILE).userId());
+
+        clock.set(16_000);
+        Assertions.assertEquals(1, leases.expire().size());
+        Assertions.assertEquals(0, leases.size());
+    }
+}
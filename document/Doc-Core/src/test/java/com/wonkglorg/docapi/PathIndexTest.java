@@ -0,0 +1,96 @@
+package com.wonkglorg.docapi;
+
+import com.wonkglorg.doc.core.index.PathIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests related to the {@link PathIndex}
+ */
+class PathIndexTest {
+
+    private static PathIndex createIndex() {
+        PathIndex index = new PathIndex();
+        index.add(Path.of("docs/java/intro.md"));
+        index.add(Path.of("docs/java/advanced/streams.md"));
+        index.add(Path.of("docs/python/intro.md"));
+        index.add(Path.of("readme.md"));
+        return index;
+    }
+
+    @Test
+    void matchesPrefixPatterns() {
+        PathIndex index = createIndex();
+        Assertions.assertEquals(Set.of(Path.of("docs/java/intro.md"), Path.of("docs/java/advanced/streams.md")), index.match("docs/java/**"));
+        Assertions.assertEquals(Set.of(Path.of("docs/java/intro.md"), Path.of("docs/java/advanced/streams.md")), index.match("docs\\java\\**"));
+        Assertions.assertEquals(Set.of(), index.match("docs/ruby/**"));
+    }
+
+    @Test
+    void wildcardsMatchAcrossDirectories() {
+        PathIndex index = createIndex();
+        Assertions.assertEquals(Set.of(Path.of("docs/java/intro.md"), Path.of("docs/java/advanced/streams.md"), Path.of("docs/python/intro.md")),
+                index.match("docs\\*"));
+        Assertions.assertEquals(Set.of(Path.of("docs/java/intro.md"), Path.of("docs/java/advanced/streams.md")), index.match("docs/ja*"));
+        Assertions.assertEquals(Set.of(Path.of("docs/java/advanced/streams.md")), index.match("docs/*/streams.md"));
+    }
+
+    @Test
+    void visitsResourcesInPathOrder() {
+        PathIndex index = createIndex();
+        List<Path> page = new ArrayList<>();
+        index.forEachAfter("docs/java/intro.md", path -> {
+            page.add(path);
+            return page.size() < 2;
+        });
+        Assertions.assertEquals(List.of(Path.of("docs/python/intro.md"), Path.of("readme.md")), page);
+
+        index.move(Path.of("readme.md"), Path.of("docs/readme.md"));
+        List<Path> all = new ArrayList<>();
+        index.forEachAfter(null, all::add);
+        Assertions.assertEquals(List.of(Path.of("docs/java/advanced/streams.md"),
+                Path.of("docs/java/intro.md"),
+                Path.of("docs/python/intro.md"),
+                Path.of("docs/readme.md")), all);
+    }
+
+    @Test
+    void matchesExactPaths() {
+        PathIndex index = createIndex();
+        Assertions.assertEquals(Set.of(Path.of("readme.md")), index.match("readme.md"));
+        Assertions.assertEquals(Set.of(), index.match("docs/java"));
+    }
+
+    @Test
+    void removesEmptyDirectories() {
+        PathIndex index = createIndex();
+        index.remove(Path.of("docs/python/intro.md"));
+        index.move(Path.of("readme.md"), Path.of("docs/readme.md"));
+
+        List<String> visited = new ArrayList<>();
+        index.walk(Set.of(Path.of("docs/readme.md"), Path.of("docs/java/intro.md")), new PathIndex.Visitor() {
+            @Override
+            public void enterDirectory(String name) {
+                visited.add("enter " + name);
+            }
+
+            @Override
+            public void exitDirectory() {
+                visited.add("exit");
+            }
+
+            @Override
+            public void visitResource(Path path) {
+                visited.add(path.getFileName().toString());
+            }
+        });
+
+        Assertions.assertEquals(List.of("enter docs", "readme.md", "enter java", "intro.md", "exit", "exit"), visited);
+        Assertions.assertEquals(Set.of(), index.match("docs/python/**"));
+    }
+}
@@ -1,16 +1,19 @@
 package com.wonkglorg.docapi;
 
+import com.wonkglorg.doc.core.index.PathIndex;
 import com.wonkglorg.doc.core.objects.GroupId;
 import com.wonkglorg.doc.core.objects.RepoId;
 import com.wonkglorg.doc.core.objects.UserId;
 import com.wonkglorg.doc.core.path.TargetPath;
 import com.wonkglorg.doc.core.permissions.Permission;
+import com.wonkglorg.doc.core.permissions.PermissionEvaluator;
 import static com.wonkglorg.doc.core.permissions.Permission.filterPathsWithPermissions;
 import com.wonkglorg.doc.core.permissions.PermissionType;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.Path;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -109,6 +112,61 @@ class PermissionTest{
 		assertEquals(PermissionType.ADMIN, map.get(key));
 	}
 	
+	@Test
+	void mostSpecificPatternWins() {
+		Set<Permission<UserId>> userPermissions = Set.of(createUserPerm("docs/**", PermissionType.VIEW), createUserPerm("docs/java/**", PermissionType.EDIT));
+		Set<Permission<GroupId>> groupPermissions = Set.of(createGroupPerm("other/*.md", PermissionType.ADMIN));
+		
+		PermissionEvaluator evaluator = PermissionEvaluator.compile(userPermissions, groupPermissions);
+		
+		assertEquals(PermissionType.EDIT, evaluator.evaluate(Path.of("docs/java/file.md")));
+		assertEquals(PermissionType.VIEW, evaluator.evaluate(Path.of("docs/file.md")));
+		assertEquals(PermissionType.ADMIN, evaluator.evaluate(Path.of("other/file.md")));
+		assertEquals(PermissionType.DENY, evaluator.evaluate(Path.of("readme.md")));
+	}
+	
+	@Test
+	void subtreeResolutionMatchesPerPathResolution() {
+		Set<Permission<UserId>> userPermissions = Set.of(createUserPerm("docs/**", PermissionType.VIEW),
+				createUserPerm("docs/python/intro.md", PermissionType.ADMIN));
+		Set<Permission<GroupId>> groupPermissions = Set.of(createGroupPerm("**", PermissionType.EDIT), createGroupPerm("docs/java/*.md", PermissionType.ADMIN));
+		PermissionEvaluator evaluator = PermissionEvaluator.compile(userPermissions, groupPermissions);
+		
+		PathIndex index = new PathIndex();
+		Set<Path> paths = Set.of(Path.of("docs/java/intro.md"),
+				Path.of("docs/java/advanced/streams.md"),
+				Path.of("docs/python/intro.md"),
+				Path.of("docs/python/advanced.md"),
+				Path.of("readme.md"));
+		paths.forEach(index::add);
+		
+		Map<Path, PermissionType> permissions = evaluator.evaluate(index, paths);
+		assertEquals(paths.size(), permissions.size());
+		for(Path path : paths){
+			assertEquals(evaluator.evaluate(path), permissions.get(path));
+		}
+		assertEquals(PermissionType.VIEW, evaluator.evaluateDirectory("docs\\java"));
+		assertEquals(null, evaluator.evaluateDirectory("docs\\python"));
+	}
+	
+	@Test
+	void pathIndexSelectsTheResourcesPatternsGrantPermissionsOn() {
+		PathIndex index = new PathIndex();
+		Set<Path> paths = Set.of(Path.of("docs/java/intro.md"), Path.of("docs/java/advanced/streams.md"), Path.of("docs/readme.md"), Path.of("readme.md"));
+		paths.forEach(index::add);
+		
+		for(String pattern : List.of("docs\\*", "docs/*.md", "docs/ja*", "docs/**/*.md", "*/intro.md", "**")){
+			PermissionEvaluator evaluator = PermissionEvaluator.compile(Set.of(createUserPerm(pattern, PermissionType.VIEW)), null);
+			Set<Path> granted = new HashSet<>();
+			for(Path path : paths){
+				if(evaluator.evaluate(path) != PermissionType.DENY){
+					granted.add(path);
+				}
+			}
+			assertEquals(granted, index.match(pattern), pattern);
+		}
+	}
+	
 	private Permission<UserId> createUserPerm(String path, PermissionType type) {
 		return new Permission<>(UserId.of("test"), type, new TargetPath(path), RepoId.of("test"));
 	}
@@ -0,0 +1,30 @@
+package com.wonkglorg.docapi;
+
+import com.wonkglorg.doc.core.exception.client.InvalidCursorException;
+import com.wonkglorg.doc.core.objects.RepoId;
+import com.wonkglorg.doc.core.request.ResourceCursor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests related to the {@link ResourceCursor}
+ */
+class ResourceCursorTest {
+
+    @Test
+    void decodesEncodedCursor() throws InvalidCursorException {
+        ResourceCursor cursor = new ResourceCursor(RepoId.of("repo"), "docs\\java\\intro.md");
+        ResourceCursor decoded = ResourceCursor.decode(cursor.encode());
+
+        Assertions.assertEquals(cursor, decoded);
+        Assertions.assertEquals("docs\\java\\intro.md", decoded.continueAfter(RepoId.of("repo")));
+        Assertions.assertNull(decoded.continueAfter(RepoId.of("other")));
+        Assertions.assertTrue(decoded.isPassed(RepoId.of("alpha")));
+        Assertions.assertFalse(decoded.isPassed(RepoId.of("zeta")));
+    }
+
+    @Test
+    void rejectsInvalidCursor() {
+        Assertions.assertThrows(InvalidCursorException.class, () -> ResourceCursor.decode("not a cursor!"));
+    }
+}
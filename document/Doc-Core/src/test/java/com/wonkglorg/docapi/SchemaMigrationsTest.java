@@ -0,0 +1,185 @@
+package com.wonkglorg.docapi;
+
+import com.wonkglorg.doc.core.db.functions.DatabaseFunctions;
+import com.wonkglorg.doc.core.db.functions.SchemaMigrations;
+import com.wonkglorg.doc.core.objects.RepoId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests related to the {@link SchemaMigrations}
+ */
+class SchemaMigrationsTest {
+    @TempDir
+    private Path directory;
+
+    @Test
+    void migratesBaselineDatabase() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("baseline.db"))) {
+            createBaseline(connection);
+            long alpha = insertResource(connection, "alpha.md", "alpha content");
+            long beta = insertResource(connection, "beta.md", "beta content");
+            //indexed data left behind by a deleted resource
+            long orphan = insertData(connection, "gamma.md", "gamma content");
+            execute(connection, "INSERT INTO Resources(resource_path) VALUES('unindexed.md')");
+            execute(connection, "INSERT INTO Tags(tag_id, tag_name) VALUES('tag', 'Tag'), ('other', 'Other')");
+            execute(connection, """
+                    INSERT INTO ResourceTags(tag_id, resource_path)
+                    VALUES('tag', 'alpha.md'), ('other', 'alpha.md'), ('tag', 'beta.md'), ('tag', 'unindexed.md')
+                    """);
+
+            SchemaMigrations.migrate(connection, RepoId.of("test"), false);
+
+            int latestVersion = SchemaMigrations.MIGRATIONS.get(SchemaMigrations.MIGRATIONS.size() - 1).version();
+            Assertions.assertEquals(latestVersion, SchemaMigrations.getVersion(connection));
+            Assertions.assertEquals(SchemaMigrations.MIGRATIONS.size(), queryLong(connection, "SELECT COUNT(*) FROM SchemaVersion"));
+            Assertions.assertTrue(DatabaseFunctions.getDataGeneration(connection) > 0);
+
+            //resources keep the rowid of their indexed data as their id
+            Map<String, Long> ids = new HashMap<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT resource_path, resource_id FROM Resources")) {
+                while (resultSet.next()) {
+                    ids.put(resultSet.getString(1), resultSet.getLong(2));
+                }
+            }
+            Assertions.assertEquals(Set.of("alpha.md", "beta.md", "unindexed.md"), ids.keySet());
+            Assertions.assertEquals(alpha, (long) ids.get("alpha.md"));
+            Assertions.assertEquals(beta, (long) ids.get("beta.md"));
+
+            Assertions.assertEquals(List.of("alpha.md:other", "alpha.md:tag", "beta.md:tag", "unindexed.md:tag"), queryStrings(connection, """
+                    SELECT Resources.resource_path || ':' || ResourceTags.tag_id
+                      FROM ResourceTags
+                      JOIN Resources ON Resources.resource_id = ResourceTags.resource_id
+                     ORDER BY 1
+                    """));
+
+            Assertions.assertEquals(List.of("alpha content"), queryStrings(connection, "SELECT data FROM FileData WHERE rowid = " + alpha));
+            Assertions.assertEquals(List.of("beta content"), queryStrings(connection, "SELECT data FROM FileData WHERE rowid = " + beta));
+            Assertions.assertEquals(2, queryLong(connection, "SELECT COUNT(*) FROM FileData"));
+            Assertions.assertEquals(List.of(), queryStrings(connection, "SELECT name FROM pragma_table_info('FileData') WHERE name = 'resource_path'"));
+
+            //the tokens of the remaining resources are untouched, the ones of the orphaned data are removed
+            Assertions.assertEquals(alpha, queryLong(connection, "SELECT rowid FROM FileTokens WHERE FileTokens MATCH 'alpha'"));
+            Assertions.assertEquals(beta, queryLong(connection, "SELECT rowid FROM FileTokens WHERE FileTokens MATCH 'beta'"));
+            Assertions.assertEquals(0, queryLong(connection, "SELECT COUNT(*) FROM FileTokens WHERE FileTokens MATCH 'gamma'"));
+            Assertions.assertEquals(0, queryLong(connection, "SELECT COUNT(*) FROM FileTokens WHERE rowid = " + orphan));
+
+            //a second run finds nothing left to apply
+            SchemaMigrations.migrate(connection, RepoId.of("test"), false);
+            Assertions.assertEquals(SchemaMigrations.MIGRATIONS.size(), queryLong(connection, "SELECT COUNT(*) FROM SchemaVersion"));
+        }
+    }
+
+    /**
+     * Creates the tables in the layout of databases created before the migrations existed, with the paths as the keys of the resources
+     */
+    private static void createBaseline(Connection connection) throws SQLException {
+        execute(connection, """
+                CREATE TABLE Tags (
+                    tag_id TEXT PRIMARY KEY NOT NULL,
+                    tag_name TEXT,
+                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    created_by TEXT
+                )
+                """);
+        execute(connection, """
+                CREATE TABLE Resources (
+                    resource_path TEXT PRIMARY KEY NOT NULL,
+                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    created_by TEXT,
+                    last_modified_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    last_modified_by TEXT,
+                    category TEXT
+                )
+                """);
+        execute(connection, """
+                CREATE TABLE ResourceTags (
+                    tag_id TEXT NOT NULL,
+                    resource_path TEXT NOT NULL,
+                    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                    created_by TEXT,
+                    PRIMARY KEY (tag_id, resource_path),
+                    FOREIGN KEY (tag_id) REFERENCES Tags(tag_id),
+                    FOREIGN KEY (resource_path) REFERENCES Resources(resource_path)
+                )
+                """);
+        execute(connection, "CREATE TABLE GroupPermissions(group_id TEXT NOT NULL, path TEXT NOT NULL, type TEXT NOT NULL, PRIMARY KEY (group_id, path))");
+        execute(connection, "CREATE TABLE UserPermissions(user_id TEXT NOT NULL, path TEXT NOT NULL, type TEXT NOT NULL, PRIMARY KEY (user_id, path))");
+        execute(connection, "CREATE VIRTUAL TABLE FileData USING fts5(resource_path, data, tokenize='trigram')");
+        execute(connection, "CREATE VIRTUAL TABLE FileTokens USING fts5(data, content='', contentless_delete=1, tokenize='unicode61', prefix='1 2 3')");
+        execute(connection, "CREATE VIEW ResourceInfo AS SELECT Resources.*, 0 AS hasTags FROM Resources");
+        //created before the migrations run when a database is initialized
+        execute(connection, "CREATE TABLE RepoState(state_key TEXT PRIMARY KEY NOT NULL, state_value TEXT)");
+        execute(connection, "INSERT INTO RepoState(state_key, state_value) VALUES('data_generation', '0')");
+    }
+
+    /**
+     * Inserts a resource along with its indexed data
+     *
+     * @return the rowid of the indexed data
+     */
+    private static long insertResource(Connection connection, String path, String content) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO Resources(resource_path) VALUES(?)")) {
+            statement.setString(1, path);
+            statement.executeUpdate();
+        }
+        return insertData(connection, path, content);
+    }
+
+    /**
+     * Inserts indexed data and its tokens under the same rowid
+     *
+     * @return the rowid of the indexed data
+     */
+    private static long insertData(Connection connection, String path, String content) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO FileData(resource_path, data) VALUES(?, ?)")) {
+            statement.setString(1, path);
+            statement.setString(2, content);
+            statement.executeUpdate();
+        }
+        long rowid = queryLong(connection, "SELECT last_insert_rowid()");
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO FileTokens(rowid, data) VALUES(?, ?)")) {
+            statement.setLong(1, rowid);
+            statement.setString(2, content);
+            statement.executeUpdate();
+        }
+        return rowid;
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static long queryLong(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    private static List<String> queryStrings(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+            List<String> values = new ArrayList<>();
+            while (resultSet.next()) {
+                values.add(resultSet.getString(1));
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.wonkglorg.docapi;
+
+import com.wonkglorg.doc.core.index.TagIndex;
+import com.wonkglorg.doc.core.objects.TagId;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Tests related to the {@link TagIndex}
+ */
+class TagIndexTest {
+    private static final TagId TAG_A = new TagId("a");
+    private static final TagId TAG_B = new TagId("b");
+
+    @Test
+    void filtersByWhitelistAndBlacklist() {
+        TagIndex index = new TagIndex();
+        index.put(Path.of("one.md"), Set.of(TAG_A));
+        index.put(Path.of("two.md"), Set.of(TAG_A, TAG_B));
+        index.put(Path.of("three.md"), Set.of());
+
+        Assertions.assertEquals(Set.of(Path.of("one.md"), Path.of("two.md")), index.filter(Set.of(TAG_A), null));
+        Assertions.assertEquals(Set.of(Path.of("one.md")), index.filter(Set.of(TAG_A), Set.of(TAG_B)));
+        Assertions.assertEquals(Set.of(Path.of("one.md"), Path.of("three.md")), index.filter(null, Set.of(TAG_B)));
+    }
+
+    @Test
+    void staysConsistentAfterChanges() {
+        TagIndex index = new TagIndex();
+        index.put(Path.of("one.md"), Set.of(TAG_A));
+        index.put(Path.of("two.md"), Set.of(TAG_B));
+
+        index.put(Path.of("one.md"), Set.of(TAG_B));
+        Assertions.assertEquals(Set.of(), index.filter(Set.of(TAG_A), null));
+
+        index.move(Path.of("two.md"), Path.of("moved.md"));
+        Assertions.assertEquals(Set.of(Path.of("one.md"), Path.of("moved.md")), index.filter(Set.of(TAG_B), null));
+
+        index.remove(Path.of("one.md"));
+        index.put(Path.of("new.md"), Set.of(TAG_A));
+        Assertions.assertEquals(Set.of(Path.of("new.md")), index.filter(Set.of(TAG_A), null));
+
+        index.removeTag(TAG_B);
+        Assertions.assertEquals(Set.of(), index.filter(Set.of(TAG_B), null));
+        Assertions.assertEquals(2, index.size());
+    }
+}
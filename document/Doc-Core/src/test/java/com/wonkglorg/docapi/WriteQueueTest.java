@@ -0,0 +1,175 @@
+package com.wonkglorg.docapi;
+
+import com.wonkglorg.doc.core.db.WriteQueue;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests related to the {@link WriteQueue}
+ */
+class WriteQueueTest {
+    @TempDir
+    private Path directory;
+
+    @Test
+    void failingWriteDoesNotRollBackItsGroup() throws Exception {
+        try (WriteQueue queue = createQueue()) {
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Object> blocker = queue.submit(connection -> {
+                release.await();
+                return null;
+            });
+
+            //queued while the writer is blocked, so they are committed as one group
+            CompletableFuture<Integer> first = queue.submit(connection -> insert(connection, 1));
+            CompletableFuture<Integer> failing = queue.submit(connection -> {
+                insert(connection, 2);
+                throw new SQLException("failed");
+            });
+            CompletableFuture<Integer> last = queue.submit(connection -> insert(connection, 3));
+            release.countDown();
+
+            blocker.join();
+            Assertions.assertEquals(1, first.join());
+            Assertions.assertEquals(3, last.join());
+            CompletionException exception = Assertions.assertThrows(CompletionException.class, failing::join);
+            Assertions.assertInstanceOf(SQLException.class, exception.getCause());
+            Assertions.assertEquals(List.of(1, 3), readValues());
+        }
+    }
+
+    @Test
+    void completesFuturesOnlyAfterCommit() throws Exception {
+        try (WriteQueue queue = createQueue()) {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch written = new CountDownLatch(1);
+            queue.submit(connection -> {
+                release.await();
+                return null;
+            });
+
+            CompletableFuture<List<Integer>> first = queue.submit(connection -> {
+                insert(connection, 1);
+                written.countDown();
+                return null;
+            }, result -> readValues());
+            CountDownLatch secondStarted = new CountDownLatch(1);
+            CountDownLatch finishSecond = new CountDownLatch(1);
+            CompletableFuture<Integer> second = queue.submit(connection -> {
+                secondStarted.countDown();
+                finishSecond.await();
+                return insert(connection, 2);
+            });
+            release.countDown();
+
+            //the first write is done but its group is not committed until the second one finishes
+            Assertions.assertTrue(written.await(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(secondStarted.await(10, TimeUnit.SECONDS));
+            Assertions.assertFalse(first.isDone());
+            Assertions.assertEquals(List.of(), readValues());
+
+            finishSecond.countDown();
+            //the callback reads through its own connection, so it only sees the rows once they are committed
+            Assertions.assertEquals(List.of(1, 2), first.join());
+            Assertions.assertEquals(2, second.join());
+        }
+    }
+
+    @Test
+    void rejectsWaitingForAWriteFromTheWriterThread() throws Exception {
+        try (WriteQueue queue = createQueue()) {
+            CompletableFuture<Integer> nested = queue.submit(connection -> queue.execute(other -> insert(other, 1)));
+
+            CompletionException exception = Assertions.assertThrows(CompletionException.class, nested::join);
+            Assertions.assertInstanceOf(IllegalStateException.class, exception.getCause());
+            Assertions.assertEquals(List.of(), readValues());
+        }
+    }
+
+    @Test
+    void closeDrainsTheQueue() throws Exception {
+        WriteQueue queue = createQueue();
+        CountDownLatch release = new CountDownLatch(1);
+        queue.submit(connection -> {
+            release.await();
+            return null;
+        });
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int value = i;
+            futures.add(queue.submit(connection -> insert(connection, value)));
+        }
+        release.countDown();
+        queue.close();
+
+        for (CompletableFuture<Integer> future : futures) {
+            Assertions.assertTrue(future.isDone());
+            Assertions.assertFalse(future.isCompletedExceptionally());
+        }
+        Assertions.assertEquals(20, readValues().size());
+
+        CompletableFuture<Integer> rejected = queue.submit(connection -> insert(connection, 20));
+        CompletionException exception = Assertions.assertThrows(CompletionException.class, rejected::join);
+        Assertions.assertInstanceOf(IllegalStateException.class, exception.getCause());
+    }
+
+    /**
+     * Creates a queue writing to a database with a single table of values
+     */
+    private WriteQueue createQueue() throws SQLException {
+        try (Connection connection = openConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS Entries (value INTEGER NOT NULL)");
+        }
+        return new WriteQueue("test", () -> {
+            try {
+                return openConnection();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }, 16);
+    }
+
+    private Connection openConnection() throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("test.db"));
+    }
+
+    private static int insert(Connection connection, int value) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO Entries (value) VALUES (?)")) {
+            statement.setInt(1, value);
+            statement.executeUpdate();
+        }
+        return value;
+    }
+
+    /**
+     * @return the committed values, read through a separate connection
+     */
+    private List<Integer> readValues() {
+        try (Connection connection = openConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT value FROM Entries ORDER BY value")) {
+            List<Integer> values = new ArrayList<>();
+            while (resultSet.next()) {
+                values.add(resultSet.getInt(1));
+            }
+            return values;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}